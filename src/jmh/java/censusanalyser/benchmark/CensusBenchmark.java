@@ -0,0 +1,157 @@
+package censusanalyser.benchmark;
+
+import censusanalyser.exceptions.CensusAnalyserException;
+import censusanalyser.model.CensusDAO;
+import censusanalyser.model.CensusField;
+import censusanalyser.service.CensusAnalyser;
+import censusanalyser.service.CensusQuery;
+import censusanalyser.service.CensusRegistry;
+import censusanalyser.service.SnapshotExporter;
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times every sorted getter of {@link CensusAnalyser}, json serialization and {@code getMostPopulousState} over
+ * generated inputs. The result cache is off so every getter call sorts and serializes, {@code sortedCached} times a
+ * cache hit on its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CensusBenchmark {
+
+    private static final Gson GSON = new Gson();
+
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    private CensusFiles censusFiles;
+    private SnapshotExporter discardingExporter;
+    private CensusAnalyser india;
+    private CensusAnalyser us;
+    private CensusAnalyser cachedUS;
+    private CensusAnalyser loaded;
+    private List<CensusDAO> censusList;
+
+    @Setup
+    public void setUp() throws IOException, CensusAnalyserException {
+        censusFiles = new CensusFiles(rows);
+        // a closed exporter rejects every export, so the getters are timed without their json files being written
+        discardingExporter = new SnapshotExporter();
+        discardingExporter.close();
+        india = this.analyser(0);
+        india.loadCensusData(CensusAnalyser.Country.INDIA, censusFiles.indiaCensus, censusFiles.indiaStateCodes);
+        us = this.analyser(0);
+        us.loadCensusData(CensusAnalyser.Country.US, censusFiles.usCensus);
+        cachedUS = this.analyser(Long.MAX_VALUE);
+        cachedUS.loadCensusData(CensusAnalyser.Country.US, censusFiles.usCensus);
+        loaded = new CensusAnalyser();
+        censusList = us.query(CensusQuery.orderBy(CensusField.POPULATION, true));
+    }
+
+    private CensusAnalyser analyser(long resultCacheBytes) {
+        CensusAnalyser censusAnalyser = new CensusAnalyser();
+        censusAnalyser.setSnapshotExporter(discardingExporter);
+        censusAnalyser.setResultCacheBytes(resultCacheBytes);
+        return censusAnalyser;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        censusFiles.delete();
+    }
+
+    @Benchmark
+    public String stateWiseSortedCensusData() throws CensusAnalyserException, IOException {
+        return india.getStateWiseSortedCensusData();
+    }
+
+    @Benchmark
+    public String stateWiseSortedStateCodeData() throws CensusAnalyserException {
+        return india.getStateWiseSortedStateCodeData();
+    }
+
+    @Benchmark
+    public String stateWiseSortedCensusDataOnPopulation() throws CensusAnalyserException {
+        return india.getStateWiseSortedCensusDataOnPopulation();
+    }
+
+    @Benchmark
+    public String stateWiseSortedCensusDataOnPopulationDensity() throws CensusAnalyserException {
+        return india.getStateWiseSortedCensusDataOnPopulationDensity();
+    }
+
+    @Benchmark
+    public String stateWiseSortedCensusDataOnArea() throws CensusAnalyserException, IOException {
+        return india.getStateWiseSortedCensusDataOnArea();
+    }
+
+    @Benchmark
+    public String populationWiseSortedUSCensusData() throws CensusAnalyserException, IOException {
+        return us.getPopulationWiseSortedUSCensusData();
+    }
+
+    @Benchmark
+    public String populationDensityWiseSortedUSCensusData() throws CensusAnalyserException {
+        return us.getPopulationDensityWiseSortedUSCensusData();
+    }
+
+    @Benchmark
+    public String housingUnitWiseSortedUSCensusData() throws CensusAnalyserException, IOException {
+        return us.getHousingUnitWiseSortedUSCensusData();
+    }
+
+    @Benchmark
+    public String totalAreaWiseSortedUSCensusData() throws CensusAnalyserException {
+        return us.getTotalAreaWiseSortedUSCensusData();
+    }
+
+    @Benchmark
+    public String waterAreaWiseSortedUSCensusData() throws CensusAnalyserException, IOException {
+        return us.getWaterAreaWiseSortedUSCensusData();
+    }
+
+    @Benchmark
+    public String housingDensityWiseSortedUSCensusData() throws CensusAnalyserException, IOException {
+        return us.getHousingDensityWiseSortedUSCensusData();
+    }
+
+    @Benchmark
+    public String sortedCached() throws CensusAnalyserException, IOException {
+        return cachedUS.getPopulationWiseSortedUSCensusData();
+    }
+
+    @Benchmark
+    public String gsonToJson() {
+        return GSON.toJson(censusList);
+    }
+
+    @Benchmark
+    public String mostPopulousStateCold() throws CensusAnalyserException, IOException {
+        return new CensusAnalyser(new CensusRegistry()).getMostPopulousState(censusFiles.indiaCensus,
+                censusFiles.usCensus);
+    }
+
+    @Benchmark
+    public String mostPopulousStateLoaded() throws CensusAnalyserException, IOException {
+        return loaded.getMostPopulousState(censusFiles.indiaCensus, censusFiles.usCensus);
+    }
+}
@@ -0,0 +1,82 @@
+package censusanalyser.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Writes synthetic census csv files in the layout of the real India and US files. The same seed and row count always
+ * give the same bytes, so benchmark inputs can be regenerated anywhere instead of being shipped.
+ */
+public class CensusDataGenerator {
+
+    private static final String[] NAME_PARTS = {"Arun", "Bhar", "Chan", "Dal", "Ganga", "Hima", "Jhar", "Kar",
+            "Madh", "Naga", "Oris", "Pun", "Raja", "Sik", "Tami", "Utta", "Ala", "Colo", "Kan", "Mon", "Neva", "Ore",
+            "Verm", "Wyo"};
+    private static final String[] NAME_ENDINGS = {"nachal", "pradesh", "garh", "land", "nadu", "sthan", "bama",
+            "rado", "sas", "tana", "ming", "gon", "ont", "ssa", "jab", "kim"};
+
+    private final long seed;
+
+    public CensusDataGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    public Path writeIndiaCensus(Path csvFile, int rows) throws IOException {
+        Random random = new Random(seed);
+        try (BufferedWriter writer = Files.newBufferedWriter(csvFile, StandardCharsets.UTF_8)) {
+            writer.write("State,Population,AreaInSqKm,DensityPerSqKm\n");
+            for (int row = 0; row < rows; row++) {
+                int population = 50_000 + random.nextInt(200_000_000);
+                int area = 100 + random.nextInt(350_000);
+                writer.write(stateName(row) + "," + population + "," + area + "," + population / area + "\n");
+            }
+        }
+        return csvFile;
+    }
+
+    // one code per generated state, in the order writeIndiaCensus names them
+    public Path writeIndiaStateCodes(Path csvFile, int rows) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(csvFile, StandardCharsets.UTF_8)) {
+            writer.write("SrNo,State Name,TIN,StateCode\n");
+            for (int row = 0; row < rows; row++)
+                writer.write((row + 1) + "," + stateName(row) + "," + (row % 100) + "," + stateCode(row) + "\n");
+        }
+        return csvFile;
+    }
+
+    public Path writeUSCensus(Path csvFile, int rows) throws IOException {
+        Random random = new Random(seed ^ 0x5553L);
+        try (BufferedWriter writer = Files.newBufferedWriter(csvFile, StandardCharsets.UTF_8)) {
+            writer.write("State Id,State,Population,Housing units,Total area,Water area,Land area,"
+                    + "Population Density,Housing Density\n");
+            for (int row = 0; row < rows; row++) {
+                int population = 500_000 + random.nextInt(40_000_000);
+                int housingUnits = population / (2 + random.nextInt(2));
+                double landArea = 1_000 + random.nextInt(1_500_000) + random.nextInt(100) / 100.0;
+                double waterArea = random.nextInt(250_000) + random.nextInt(100) / 100.0;
+                writer.write(String.format(Locale.ROOT, "%s,%s,%d,%d,%.2f,%.2f,%.2f,%.2f,%.2f\n", stateCode(row),
+                        stateName(row), population, housingUnits, landArea + waterArea, waterArea, landArea,
+                        population / landArea, housingUnits / landArea));
+            }
+        }
+        return csvFile;
+    }
+
+    static String stateName(int row) {
+        String name = NAME_PARTS[row % NAME_PARTS.length] + NAME_ENDINGS[row / NAME_PARTS.length % NAME_ENDINGS.length];
+        int series = row / (NAME_PARTS.length * NAME_ENDINGS.length);
+        return series == 0 ? name : name + " " + series;
+    }
+
+    static String stateCode(int row) {
+        StringBuilder code = new StringBuilder();
+        for (int value = row; code.length() < 2 || value > 0; value /= 26)
+            code.append((char) ('A' + value % 26));
+        return code.toString();
+    }
+}
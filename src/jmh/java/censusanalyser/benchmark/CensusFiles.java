@@ -0,0 +1,31 @@
+package censusanalyser.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// the generated India census, India state code and US census files of one row count, in a temp directory
+final class CensusFiles {
+
+    private static final long SEED = 42;
+
+    final String indiaCensus;
+    final String indiaStateCodes;
+    final String usCensus;
+    private final Path directory;
+
+    CensusFiles(int rows) throws IOException {
+        CensusDataGenerator generator = new CensusDataGenerator(SEED);
+        directory = Files.createTempDirectory("census-benchmark");
+        indiaCensus = generator.writeIndiaCensus(directory.resolve("india.csv"), rows).toString();
+        indiaStateCodes = generator.writeIndiaStateCodes(directory.resolve("india-codes.csv"), rows).toString();
+        usCensus = generator.writeUSCensus(directory.resolve("us.csv"), rows).toString();
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(directory.resolve("india.csv"));
+        Files.deleteIfExists(directory.resolve("india-codes.csv"));
+        Files.deleteIfExists(directory.resolve("us.csv"));
+        Files.deleteIfExists(directory);
+    }
+}
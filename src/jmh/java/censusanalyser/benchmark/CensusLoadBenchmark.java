@@ -0,0 +1,71 @@
+package censusanalyser.benchmark;
+
+import censusanalyser.exceptions.CensusAnalyserException;
+import censusanalyser.model.CensusDAO;
+import censusanalyser.service.CensusAnalyser;
+import censusanalyser.service.CensusLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times {@code loadCensusData} per loader mode over generated India and US files. OPEN_CSV is only run when asked for
+ * with {@code -p mode=OPEN_CSV}, it is far slower than the others and kept for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CensusLoadBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    @Param({"SEQUENTIAL", "PARALLEL", "MAPPED"})
+    public CensusLoader.Mode mode;
+
+    private CensusFiles censusFiles;
+    private CensusLoader censusLoader;
+
+    @Setup
+    public void setUp() throws IOException {
+        censusFiles = new CensusFiles(rows);
+        censusLoader = new CensusLoader(mode);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        censusFiles.delete();
+    }
+
+    @Benchmark
+    public Map<String, CensusDAO> loadIndia() throws CensusAnalyserException {
+        return censusLoader.loadCensusData(CensusAnalyser.Country.INDIA, censusFiles.indiaCensus);
+    }
+
+    @Benchmark
+    public Map<String, CensusDAO> loadIndiaWithStateCodes() throws CensusAnalyserException {
+        return censusLoader.loadCensusData(CensusAnalyser.Country.INDIA, censusFiles.indiaCensus,
+                censusFiles.indiaStateCodes);
+    }
+
+    @Benchmark
+    public Map<String, CensusDAO> loadUS() throws CensusAnalyserException {
+        return censusLoader.loadCensusData(CensusAnalyser.Country.US, censusFiles.usCensus);
+    }
+}
@@ -0,0 +1,44 @@
+package censusanalyser.model;
+
+public enum CensusField {
+    STATE, STATE_CODE, POPULATION, DENSITY, AREA, POPULATION_DENSITY,
+    HOUSING_UNITS, TOTAL_AREA, WATER_AREA, HOUSING_DENSITY;
+
+    public boolean isNumeric() {
+        return this != STATE && this != STATE_CODE;
+    }
+
+    public String textValue(CensusDAO census) {
+        switch (this) {
+            case STATE:
+                return census.state;
+            case STATE_CODE:
+                return census.stateCode;
+            default:
+                return String.valueOf(numericValue(census));
+        }
+    }
+
+    public double numericValue(CensusDAO census) {
+        switch (this) {
+            case POPULATION:
+                return census.population;
+            case DENSITY:
+                return census.densityPerSqKm;
+            case AREA:
+                return census.areaInSqKm;
+            case POPULATION_DENSITY:
+                return census.populationDensity;
+            case HOUSING_UNITS:
+                return census.housingUnits;
+            case TOTAL_AREA:
+                return census.totalArea;
+            case WATER_AREA:
+                return census.waterArea;
+            case HOUSING_DENSITY:
+                return census.housingDensity;
+            default:
+                throw new IllegalStateException(name() + " is not a numeric field");
+        }
+    }
+}
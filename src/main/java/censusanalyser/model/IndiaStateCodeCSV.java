@@ -5,7 +5,7 @@ public class IndiaStateCodeCSV {
     @CsvBindByName(column = "SrNo", required = true)
     public String SrNo;
     @CsvBindByName(column = "State Name", required = true)
-    public String StateName;
+    public String stateName;
     @CsvBindByName(column = "TIN", required = true)
     public int TIN;
     @CsvBindByName(column = "StateCode", required = true)
@@ -15,7 +15,7 @@ public class IndiaStateCodeCSV {
     public String toString() {
         return "IndiaStateCodeCSV{" +
                 "SrNo='" + SrNo + '\'' +
-                ", StateName=" + StateName +
+                ", StateName=" + stateName +
                 ", TIN=" + TIN +
                 ", StateCode=" + stateCode +
                 '}';
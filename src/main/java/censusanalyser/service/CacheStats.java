@@ -0,0 +1,58 @@
+package censusanalyser.service;
+
+/**
+ * Point in time counters of a result cache. Requests are all lookups, a hit served a stored result and a miss had to
+ * compute it.
+ */
+public final class CacheStats {
+
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final int entries;
+    private final long bytes;
+
+    CacheStats(long hits, long misses, long evictions, int entries, long bytes) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.entries = entries;
+        this.bytes = bytes;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public int getEntries() {
+        return entries;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public double getHitRatio() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    public double getMissRatio() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) misses / requests;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", entries=" + entries
+                + ", bytes=" + bytes + '}';
+    }
+}
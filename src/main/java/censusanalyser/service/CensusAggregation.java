@@ -0,0 +1,137 @@
+package censusanalyser.service;
+
+import censusanalyser.model.CensusField;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Group-by over loaded census data that returns one {@link CensusGroup} of statistics per key instead of rows. The
+ * table is cut into partitions that are summarized in parallel and their groups merged, every accumulator reads each
+ * row once.
+ * <pre>
+ *     CensusAggregation.groupByPrefix(CensusField.STATE_CODE, 1)
+ *             .statistics(CensusField.POPULATION, CensusField.WATER_AREA, CensusField.TOTAL_AREA)
+ *             .quantiles(CensusField.POPULATION_DENSITY);
+ * </pre>
+ */
+public class CensusAggregation {
+
+    private static final int MIN_PARTITION_ROWS = 16 * 1024;
+
+    private final CensusField groupField;
+    private final Function<String, String> classifier;
+    private final Set<CensusField> fields = EnumSet.noneOf(CensusField.class);
+    private final Set<CensusField> quantileFields = EnumSet.noneOf(CensusField.class);
+    private CensusQuery filter = CensusQuery.all();
+
+    private CensusAggregation(CensusField groupField, Function<String, String> classifier) {
+        this.groupField = groupField;
+        this.classifier = classifier;
+    }
+
+    public static CensusAggregation all() {
+        return new CensusAggregation(null, null);
+    }
+
+    public static CensusAggregation groupBy(CensusField field) {
+        return groupBy(field, Function.identity());
+    }
+
+    // classifier maps the field value to its group, for example a state to its region
+    public static CensusAggregation groupBy(CensusField field, Function<String, String> classifier) {
+        if (field.isNumeric())
+            throw new IllegalArgumentException(field + " is not a text field");
+        return new CensusAggregation(field, classifier);
+    }
+
+    public static CensusAggregation groupByPrefix(CensusField field, int length) {
+        if (length <= 0)
+            throw new IllegalArgumentException("prefix length must be positive: " + length);
+        return groupBy(field, value -> value == null || value.length() <= length ? value : value.substring(0, length));
+    }
+
+    public CensusAggregation statistics(CensusField... fields) {
+        for (CensusField field : fields) {
+            if (!field.isNumeric())
+                throw new IllegalArgumentException(field + " is not a numeric field");
+            this.fields.add(field);
+        }
+        return this;
+    }
+
+    public CensusAggregation quantiles(CensusField... fields) {
+        this.statistics(fields);
+        Collections.addAll(quantileFields, fields);
+        return this;
+    }
+
+    // only the filters of the query apply, its ordering and page window are ignored
+    public CensusAggregation where(CensusQuery filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    List<CensusGroup> execute(CensusTable censusTable) {
+        return this.execute(censusTable, MIN_PARTITION_ROWS, Runtime.getRuntime().availableProcessors());
+    }
+
+    // the table cut into partitions of at least partitionRows rows, at most maxPartitions of them
+    List<CensusGroup> execute(CensusTable censusTable, int partitionRows, int maxPartitions) {
+        int size = censusTable.size();
+        int partitions = (int) Math.max(1, Math.min(maxPartitions, (size + (long) partitionRows - 1) / partitionRows));
+        Map<String, CensusGroup> groups = partitions == 1
+                ? this.aggregate(censusTable, 0, size)
+                : IntStream.range(0, partitions).parallel()
+                        .mapToObj(partition -> this.aggregate(censusTable, (int) ((long) size * partition / partitions),
+                                (int) ((long) size * (partition + 1) / partitions)))
+                        .reduce(this::merge)
+                        .get();
+        return sorted(groups);
+    }
+
+    // adds one row to its group, for callers that see rows one at a time instead of as a table
+    CensusGroup accumulate(Map<String, CensusGroup> groups, CensusTable censusTable, int row, CensusGroup lastGroup) {
+        if (!filter.matches(censusTable, row))
+            return lastGroup;
+        String key = groupField == null ? null : classifier.apply(censusTable.text(groupField, row));
+        CensusGroup group = lastGroup != null && Objects.equals(lastGroup.key(), key) ? lastGroup : groups.get(key);
+        if (group == null) {
+            group = new CensusGroup(key, fields, quantileFields);
+            groups.put(key, group);
+        }
+        group.add(censusTable, row);
+        return group;
+    }
+
+    static List<CensusGroup> sorted(Map<String, CensusGroup> groups) {
+        List<CensusGroup> sortedGroups = new ArrayList<>(groups.values());
+        sortedGroups.sort((first, second) -> CensusIndex.compareText(first.key(), second.key()));
+        return sortedGroups;
+    }
+
+    private Map<String, CensusGroup> aggregate(CensusTable censusTable, int from, int to) {
+        Map<String, CensusGroup> groups = new HashMap<>();
+        CensusGroup lastGroup = null;
+        for (int row = from; row < to; row++)
+            lastGroup = this.accumulate(groups, censusTable, row, lastGroup);
+        return groups;
+    }
+
+    private Map<String, CensusGroup> merge(Map<String, CensusGroup> groups, Map<String, CensusGroup> otherGroups) {
+        for (CensusGroup otherGroup : otherGroups.values()) {
+            CensusGroup group = groups.putIfAbsent(otherGroup.key(), otherGroup);
+            if (group != null)
+                group.merge(otherGroup);
+        }
+        return groups;
+    }
+}
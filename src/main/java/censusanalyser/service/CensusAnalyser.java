@@ -2,189 +2,315 @@ package censusanalyser.service;
 
 import censusanalyser.exceptions.CensusAnalyserException;
 import censusanalyser.model.CensusDAO;
+import censusanalyser.model.CensusField;
+import censusanalyser.model.IndiaCensusCSV;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
 
-import java.io.FileWriter;
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Objects;
 
 public class CensusAnalyser {
 
     public enum Country{ INDIA, US };
-    Map<String, CensusDAO> censusMap = null;
+    public static final long DEFAULT_RESULT_CACHE_BYTES = 32L * 1024 * 1024;
+    private static final Gson GSON = new Gson();
+    private final CensusRegistry censusRegistry;
+    private volatile Country country = null;
+    private SnapshotExporter snapshotExporter = SnapshotExporter.getDefault();
+    private volatile ResultCache<SortedJsonKey, String> resultCache = newResultCache(DEFAULT_RESULT_CACHE_BYTES);
 
     public CensusAnalyser() {
-        this.censusMap= new HashMap<>();
+        this(CensusLoader.Mode.SEQUENTIAL);
     }
+
+    public CensusAnalyser(CensusLoader.Mode loadMode) {
+        this(loadMode, false);
+    }
+
+    public CensusAnalyser(CensusLoader.Mode loadMode, boolean columnarStore) {
+        this(new CensusRegistry(loadMode, columnarStore));
+    }
+
+    public CensusAnalyser(CensusRegistry censusRegistry) {
+        this.censusRegistry = censusRegistry;
+    }
+
+    public void setSnapshotExporter(SnapshotExporter snapshotExporter) {
+        this.snapshotExporter = snapshotExporter;
+    }
+
+    public CensusRegistry getCensusRegistry() {
+        return censusRegistry;
+    }
+
+    /**
+     * Bounds the cache of sorted json the getters return, replacing the current one; 0 turns caching off. Cached json
+     * is kept per dataset version, so a reload of the country is never answered from the old data.
+     */
+    public void setResultCacheBytes(long maxBytes) {
+        this.resultCache = newResultCache(maxBytes);
+    }
+
+    public CacheStats getResultCacheStats() {
+        return resultCache.stats();
+    }
+
+    private static ResultCache<SortedJsonKey, String> newResultCache(long maxBytes) {
+        return new ResultCache<>(maxBytes, json -> 2L * json.length());
+    }
+
     public int loadCensusData(Country country, String ... csvFilePath) throws CensusAnalyserException {
-        censusMap = new CensusLoader().loadCensusData(country, csvFilePath);
-        return  censusMap.size();
+        CensusDataset censusDataset = censusRegistry.load(country, csvFilePath);
+        this.country = country;
+        resultCache.removeIf(key -> key.country == country && key.version < censusDataset.version());
+        return  censusDataset.size();
     }
 
+    public void useCensusData(Country country) throws CensusAnalyserException {
+        censusRegistry.get(country);
+        this.country = country;
+    }
 
+    public void writeSortedCensusData(CensusField field, boolean descending, OutputStream outputStream)
+            throws CensusAnalyserException, IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        this.writeSortedCensusData(field, descending, writer);
+        writer.flush();
+    }
 
-    public String getStateWiseSortedCensusData() throws CensusAnalyserException, IOException {
-        if (censusMap == null || censusMap.size() == 0) {
-            throw new CensusAnalyserException("No census data found", CensusAnalyserException.ExceptionType.NO_CENSUS_DATA);
-        }
-        List<CensusDAO> censusDAOList =censusMap.values().stream()
-                .collect(Collectors.toList());
-        censusDAOList.sort(Comparator.comparing((CensusDAO c) -> c.state));
-        String sortedStateCensusJson = new Gson().toJson(censusDAOList);
-        writerJson(censusDAOList,"stateWiseIndiaSorted.json");
-        return sortedStateCensusJson;
+    public void writeSortedCensusData(CensusField field, boolean descending, Writer writer)
+            throws CensusAnalyserException, IOException {
+        this.writeCensusData(CensusQuery.orderBy(field, descending), writer);
     }
 
-    public String getStateWiseSortedStateCodeData() throws CensusAnalyserException {
-        if (censusMap == null || censusMap.size() == 0) {
-            throw new CensusAnalyserException("No census data found", CensusAnalyserException.ExceptionType.NO_CENSUS_DATA);
+    public void writeCensusData(CensusQuery query, Writer writer) throws CensusAnalyserException, IOException {
+        this.writeCensusData(this.loadedCensusData(), query, writer);
+    }
+
+    // rows are written as the query reaches them, through one reused DAO, so nothing grows with the row count
+    private void writeCensusData(CensusDataset censusDataset, CensusQuery query, Writer writer) throws IOException {
+        CensusMetrics metrics = CensusMetrics.current();
+        boolean timed = metrics.isEnabled();
+        long start = timed ? System.nanoTime() : 0;
+        long[] serializeNanos = new long[1];
+        CensusTable censusTable = censusDataset.table();
+        CensusDAO censusDAO = new CensusDAO(new IndiaCensusCSV());
+        JsonWriter jsonWriter = new JsonWriter(writer);
+        jsonWriter.beginArray();
+        int rows = query.forEach(censusDataset.index(), censusTable, row -> {
+            long rowStart = timed ? System.nanoTime() : 0;
+            censusTable.read(row, censusDAO);
+            GSON.toJson(censusDAO, CensusDAO.class, jsonWriter);
+            if (timed)
+                serializeNanos[0] += System.nanoTime() - rowStart;
+        });
+        jsonWriter.endArray();
+        jsonWriter.flush();
+        if (timed) {
+            metrics.sorted(query, rows, System.nanoTime() - start - serializeNanos[0]);
+            metrics.serialized(rows, serializeNanos[0]);
         }
-        List<CensusDAO> censusDAOList =censusMap.values().stream()
-                .collect(Collectors.toList());
-        censusDAOList.sort(Comparator.comparing((CensusDAO c) -> c.stateCode));
-        String sortedStateCensusJson = new Gson().toJson(censusDAOList);
+    }
+
+    public List<CensusDAO> query(CensusQuery query) throws CensusAnalyserException {
+        CensusDataset censusDataset = this.loadedCensusData();
+        CensusMetrics metrics = CensusMetrics.current();
+        if (!metrics.isEnabled())
+            return censusDataset.query(query);
+        long start = System.nanoTime();
+        List<CensusDAO> censusList = censusDataset.query(query);
+        metrics.sorted(query, censusList.size(), System.nanoTime() - start);
+        return censusList;
+    }
+
+    public List<CensusDAO> topK(CensusField field, int k) throws CensusAnalyserException {
+        return this.loadedCensusData().topK(field, k);
+    }
+
+    public List<CensusDAO> bottomK(CensusField field, int k) throws CensusAnalyserException {
+        return this.loadedCensusData().bottomK(field, k);
+    }
+
+    public List<CensusDAO> lookup(CensusField field, String value) throws CensusAnalyserException {
+        return this.loadedCensusData().lookup(field, value);
+    }
+
+    public List<CensusDAO> range(CensusField field, double min, double max) throws CensusAnalyserException {
+        return this.loadedCensusData().range(field, min, max);
+    }
+
+    public List<CensusDAO> sorted(DerivedColumn column, boolean descending) throws CensusAnalyserException {
+        return this.loadedCensusData().sorted(column, descending);
+    }
+
+    public List<CensusDAO> topK(DerivedColumn column, int k) throws CensusAnalyserException {
+        return this.loadedCensusData().topK(column, k);
+    }
+
+    public List<CensusDAO> bottomK(DerivedColumn column, int k) throws CensusAnalyserException {
+        return this.loadedCensusData().bottomK(column, k);
+    }
+
+    public List<CensusDAO> range(DerivedColumn column, double min, double max) throws CensusAnalyserException {
+        return this.loadedCensusData().range(column, min, max);
+    }
+
+    public List<CensusGroup> aggregate(CensusAggregation aggregation) throws CensusAnalyserException {
+        return this.loadedCensusData().aggregate(aggregation);
+    }
+
+    public String getCensusJson(CensusQuery query) throws CensusAnalyserException {
+        return this.getCensusJson(this.loadedCensusData(), query);
+    }
+
+    private String getCensusJson(CensusDataset censusDataset, CensusQuery query) {
+        StringWriter writer = new StringWriter();
         try {
-            writerJson(censusDAOList, "statecodeIndia.json");
+            this.writeCensusData(censusDataset, query, writer);
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new UncheckedIOException(e);
         }
-        return sortedStateCensusJson;
+        return writer.toString();
     }
 
-    public String getStateWiseSortedCensusDataOnPopulation() throws CensusAnalyserException {
-        if (censusMap == null || censusMap.size() == 0) {
+    // every query reads the active dataset once, so a reload published meanwhile can not mix two versions
+    private CensusDataset loadedCensusData() throws CensusAnalyserException {
+        Country country = this.country;
+        CensusDataset censusDataset = country == null ? null : censusRegistry.snapshot().get(country);
+        if (censusDataset == null || censusDataset.size() == 0) {
             throw new CensusAnalyserException("No census data found", CensusAnalyserException.ExceptionType.NO_CENSUS_DATA);
         }
-        Comparator<CensusDAO> populationComparator = Comparator.comparing(census -> census.population);
-        List<CensusDAO> censusDAOList =censusMap.values().stream()
-                .collect(Collectors.toList());
-        censusDAOList.sort((CensusDAO c1 , CensusDAO c2)-> c2.population-c1.population);
-        String sortedPopulation = new Gson().toJson(censusDAOList);
-        return sortedPopulation;
+        return censusDataset;
     }
 
-    public String getStateWiseSortedCensusDataOnPopulationDensity() throws CensusAnalyserException {
-        if (censusMap == null || censusMap.size() == 0) {
-            throw new CensusAnalyserException("No census data found", CensusAnalyserException.ExceptionType.NO_CENSUS_DATA);
+    private String getSortedCensusJson(CensusField field, boolean descending) throws CensusAnalyserException {
+        CensusDataset censusDataset = this.loadedCensusData();
+        ResultCache<SortedJsonKey, String> resultCache = this.resultCache;
+        SortedJsonKey key = new SortedJsonKey(censusDataset.country(), censusDataset.version(), field, descending);
+        String json = resultCache.get(key);
+        if (json == null) {
+            json = this.getCensusJson(censusDataset, CensusQuery.orderBy(field, descending));
+            resultCache.put(key, json);
         }
-        List<CensusDAO> censusDAOList =censusMap.values().stream()
-                .collect(Collectors.toList());
-        censusDAOList.sort((CensusDAO c1 ,CensusDAO c2)->c2.densityPerSqKm-c1.densityPerSqKm);
-        String sortedPopulationDensity = new Gson().toJson(censusDAOList);
-        try {
-            writerJson(censusDAOList,"densityIndiaPopulation.json");
-        } catch (IOException e) {
-            e.printStackTrace();
+        return json;
+    }
+
+    private static final class SortedJsonKey {
+        private final Country country;
+        private final long version;
+        private final CensusField field;
+        private final boolean descending;
+
+        SortedJsonKey(Country country, long version, CensusField field, boolean descending) {
+            this.country = country;
+            this.version = version;
+            this.field = field;
+            this.descending = descending;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof SortedJsonKey))
+                return false;
+            SortedJsonKey that = (SortedJsonKey) o;
+            return country == that.country && version == that.version && field == that.field
+                    && descending == that.descending;
         }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(country, version, field, descending);
+        }
+    }
+
+    public String getStateWiseSortedCensusData() throws CensusAnalyserException, IOException {
+        String sortedStateCensusJson = getSortedCensusJson(CensusField.STATE, false);
+        exportJson(sortedStateCensusJson, "stateWiseIndiaSorted.json");
+        return sortedStateCensusJson;
+    }
+
+    public String getStateWiseSortedStateCodeData() throws CensusAnalyserException {
+        String sortedStateCensusJson = getSortedCensusJson(CensusField.STATE_CODE, false);
+        exportJson(sortedStateCensusJson, "statecodeIndia.json");
+        return sortedStateCensusJson;
+    }
+
+    public String getStateWiseSortedCensusDataOnPopulation() throws CensusAnalyserException {
+        String sortedPopulation = getSortedCensusJson(CensusField.POPULATION, true);
+        return sortedPopulation;
+    }
+
+    public String getStateWiseSortedCensusDataOnPopulationDensity() throws CensusAnalyserException {
+        String sortedPopulationDensity = getSortedCensusJson(CensusField.DENSITY, true);
+        exportJson(sortedPopulationDensity, "densityIndiaPopulation.json");
         return sortedPopulationDensity;
     }
 
     public String getStateWiseSortedCensusDataOnArea() throws CensusAnalyserException, IOException {
-        if (censusMap == null || censusMap.size() == 0) {
-            throw new CensusAnalyserException("No census data found", CensusAnalyserException.ExceptionType.NO_CENSUS_DATA);
-        }
-        List<CensusDAO> censusDAOList =censusMap.values().stream()
-                .collect(Collectors.toList());
-        censusDAOList.sort((CensusDAO c1 ,CensusDAO c2)->c2.areaInSqKm-c1.areaInSqKm);
-        String sortedPopulationDensity = new Gson().toJson(censusDAOList);
-        writerJson(censusDAOList,"IndiaCensusSortedAreaList.json");
+        String sortedPopulationDensity = getSortedCensusJson(CensusField.AREA, true);
+        exportJson(sortedPopulationDensity, "IndiaCensusSortedAreaList.json");
         return sortedPopulationDensity;
     }
 
-    private void writerJson(List listTowriteJson, String filePath) throws IOException {
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        FileWriter fileWriter = new FileWriter(filePath);
-        gson.toJson(listTowriteJson, fileWriter);
-        fileWriter.close();
+    private void exportJson(String jsonToWrite, String filePath) {
+        snapshotExporter.submit(filePath, jsonToWrite);
     }
 
     public String getPopulationWiseSortedUSCensusData() throws CensusAnalyserException, IOException {
-        if (censusMap == null || censusMap.size() == 0) {
-            throw new CensusAnalyserException("No census data found", CensusAnalyserException.ExceptionType.NO_CENSUS_DATA);
-        }
-        List<CensusDAO> censusDAOList =censusMap.values().stream()
-                .collect(Collectors.toList());
-           censusDAOList.sort((CensusDAO c1, CensusDAO c2)-> c2.population-c1.population);
-            String sortedPopulation = new Gson().toJson(censusDAOList);
-            writerJson(censusDAOList,"USSorted.json");
-            return sortedPopulation;
+        String sortedPopulation = getSortedCensusJson(CensusField.POPULATION, true);
+        exportJson(sortedPopulation, "USSorted.json");
+        return sortedPopulation;
     }
 
     public String getPopulationDensityWiseSortedUSCensusData() throws CensusAnalyserException {
-        if (censusMap == null || censusMap.size() == 0) {
-            throw new CensusAnalyserException("No census data found", CensusAnalyserException.ExceptionType.NO_CENSUS_DATA);
-        }
-        List<CensusDAO> censusDAOList =censusMap.values().stream()
-                .collect(Collectors.toList());
-        censusDAOList.sort((CensusDAO c1 ,CensusDAO c2)-> (int) (c2.populationDensity-c1.populationDensity));
-       String sortedPopulation = new Gson().toJson(censusDAOList);
-        try {
-            writerJson(censusDAOList,"USSortedPopulationDensity.json");
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        String sortedPopulation = getSortedCensusJson(CensusField.POPULATION_DENSITY, true);
+        exportJson(sortedPopulation, "USSortedPopulationDensity.json");
         return sortedPopulation;
     }
 
     public String getHousingUnitWiseSortedUSCensusData() throws CensusAnalyserException, IOException {
-        if (censusMap == null || censusMap.size() == 0) {
-            throw new CensusAnalyserException("No census data found", CensusAnalyserException.ExceptionType.NO_CENSUS_DATA);
-        }
-        Comparator<CensusDAO> housingComparator = Comparator.comparing(census -> census.housingUnits);
-        List<CensusDAO> censusDAOList =censusMap.values().stream()
-                .collect(Collectors.toList());
-        censusDAOList.sort((CensusDAO c1 , CensusDAO c2)-> (int) (c2.housingUnits-c1.housingUnits));
-        String sortedPopulation = new Gson().toJson(censusDAOList);
-        writerJson(censusDAOList,"HousingUnitWiseSortedUS.json");
+        String sortedPopulation = getSortedCensusJson(CensusField.HOUSING_UNITS, true);
+        exportJson(sortedPopulation, "HousingUnitWiseSortedUS.json");
         return sortedPopulation;
     }
 
     public String getTotalAreaWiseSortedUSCensusData() throws CensusAnalyserException {
-        if (censusMap == null || censusMap.size() == 0) {
-            throw new CensusAnalyserException("No census data found", CensusAnalyserException.ExceptionType.NO_CENSUS_DATA);
-        }
-        Comparator<CensusDAO> totalAreaUSComparator = Comparator.comparing(census -> census.totalArea);
-        List<CensusDAO> censusDAOList =censusMap.values().stream()
-                .collect(Collectors.toList());
-        censusDAOList.sort((CensusDAO c1 , CensusDAO c2)-> (int) (c2.totalArea-c1.totalArea));
-        String sortedPopulation = new Gson().toJson(censusDAOList);
+        String sortedPopulation = getSortedCensusJson(CensusField.TOTAL_AREA, true);
         return sortedPopulation;
     }
 
     public String getWaterAreaWiseSortedUSCensusData() throws CensusAnalyserException, IOException {
-        if (censusMap == null || censusMap.size() == 0) {
-            throw new CensusAnalyserException("No census data found", CensusAnalyserException.ExceptionType.NO_CENSUS_DATA);
-        }
-        List<CensusDAO> censusDAOList =censusMap.values().stream()
-                .collect(Collectors.toList());
-        censusDAOList.sort((CensusDAO c1 , CensusDAO c2)-> (int) (c2.waterArea-c1.waterArea));
-        String sortedPopulation = new Gson().toJson(censusDAOList);
+        String sortedPopulation = getSortedCensusJson(CensusField.WATER_AREA, true);
         return sortedPopulation;
     }
 
     public String getHousingDensityWiseSortedUSCensusData() throws CensusAnalyserException, IOException {
-        if (censusMap == null || censusMap.size() == 0) {
-            throw new CensusAnalyserException("No census data found", CensusAnalyserException.ExceptionType.NO_CENSUS_DATA);
-        }
-        List<CensusDAO> censusDAOList =censusMap.values().stream()
-                .collect(Collectors.toList());
-        censusDAOList.sort((CensusDAO c1 , CensusDAO c2)-> (int) (c2.housingDensity-c1.housingDensity));
-        String sortedPopulation = new Gson().toJson(censusDAOList);
-        writerJson(censusDAOList,"housingDensityUS.json");
+        String sortedPopulation = getSortedCensusJson(CensusField.HOUSING_DENSITY, true);
+        exportJson(sortedPopulation, "housingDensityUS.json");
         return sortedPopulation;
     }
     public String getMostPopulousState(String...csvFilePath) throws CensusAnalyserException, IOException {
-        this.loadCensusData(Country.INDIA,csvFilePath[0]);
-        CensusDAO[] censusIndia = new Gson().fromJson(this.getStateWiseSortedCensusDataOnPopulation(),CensusDAO[].class);
-        this.loadCensusData(Country.US,csvFilePath[1]);
-        CensusDAO[] censusUS = new Gson().fromJson(this.getPopulationWiseSortedUSCensusData(), CensusDAO[].class);
-        if (Double.compare(censusIndia[0].population,censusUS[0].population)>0)
-            return censusIndia[0].state;
-        return censusUS[0].state;
-    }
-}
\ No newline at end of file
+        Map<Country, String[]> csvFilePaths = new EnumMap<>(Country.class);
+        csvFilePaths.put(Country.INDIA, new String[]{csvFilePath[0]});
+        csvFilePaths.put(Country.US, new String[]{csvFilePath[1]});
+        Map<Country, CensusDataset> censusDatasets = censusRegistry.loadAllIfAbsent(csvFilePaths);
+        CensusDAO mostPopulousIndia = censusDatasets.get(Country.INDIA).topK(CensusField.POPULATION, 1).get(0);
+        CensusDAO mostPopulousUS = censusDatasets.get(Country.US).topK(CensusField.POPULATION, 1).get(0);
+        if (Double.compare(mostPopulousIndia.population,mostPopulousUS.population)>0)
+            return mostPopulousIndia.state;
+        return mostPopulousUS.state;
+    }
+}
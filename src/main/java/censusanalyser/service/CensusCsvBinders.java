@@ -0,0 +1,99 @@
+package censusanalyser.service;
+
+import censusanalyser.model.IndiaCensusCSV;
+import censusanalyser.model.IndiaStateCodeCSV;
+import censusanalyser.model.USCensusCSV;
+
+/**
+ * Hand written bindings for the census csv models, replacing the reflective {@code @CsvBindByName} mapping.
+ */
+final class CensusCsvBinders {
+
+    static final CsvRowBinder<IndiaCensusCSV> INDIA_CENSUS = new CsvRowBinder<IndiaCensusCSV>() {
+        private final String[] columns = {"State", "Population", "AreaInSqKm", "DensityPerSqKm"};
+
+        @Override
+        public String[] columns() {
+            return columns;
+        }
+
+        @Override
+        public IndiaCensusCSV bind(CsvRow row) {
+            IndiaCensusCSV censusCSV = new IndiaCensusCSV();
+            censusCSV.state = row.getString(0);
+            censusCSV.population = row.getInt(1);
+            censusCSV.areaInSqKm = row.getInt(2);
+            censusCSV.densityPerSqKm = row.getInt(3);
+            return censusCSV;
+        }
+    };
+
+    // none of the OpenCSV bindings was required, only State is kept required as it keys the rows; a missing column
+    // or an empty cell reads as null text or as 0, since the loaded rows hold primitives
+    static final CsvRowBinder<USCensusCSV> US_CENSUS = new CsvRowBinder<USCensusCSV>() {
+        private final String[] columns = {"State Id", "State", "Population", "Housing units", "Total area",
+                "Water area", "Land area", "Population Density", "Housing Density"};
+
+        @Override
+        public String[] columns() {
+            return columns;
+        }
+
+        @Override
+        public boolean isOptional(int column) {
+            return column != 1;
+        }
+
+        @Override
+        public USCensusCSV bind(CsvRow row) {
+            USCensusCSV censusCSV = new USCensusCSV();
+            censusCSV.stateId = row.isEmpty(0) ? null : row.getString(0);
+            censusCSV.state = row.getString(1);
+            censusCSV.population = row.isEmpty(2) ? 0 : row.getInt(2);
+            censusCSV.housingUnits = row.isEmpty(3) ? 0 : row.getInt(3);
+            censusCSV.totalArea = doubleOrZero(row, 4);
+            censusCSV.waterArea = doubleOrZero(row, 5);
+            censusCSV.landArea = doubleOrZero(row, 6);
+            censusCSV.populationDensity = doubleOrZero(row, 7);
+            censusCSV.housingDensity = doubleOrZero(row, 8);
+            return censusCSV;
+        }
+    };
+
+    static final CsvRowBinder<IndiaStateCodeCSV> INDIA_STATE_CODE = new CsvRowBinder<IndiaStateCodeCSV>() {
+        private final String[] columns = {"SrNo", "State Name", "TIN", "StateCode"};
+
+        @Override
+        public String[] columns() {
+            return columns;
+        }
+
+        @Override
+        public IndiaStateCodeCSV bind(CsvRow row) {
+            IndiaStateCodeCSV stateCodeCSV = new IndiaStateCodeCSV();
+            stateCodeCSV.SrNo = row.getString(0);
+            stateCodeCSV.stateName = row.getString(1);
+            stateCodeCSV.TIN = row.getInt(2);
+            stateCodeCSV.stateCode = row.getString(3);
+            return stateCodeCSV;
+        }
+    };
+
+    private CensusCsvBinders() {
+    }
+
+    private static double doubleOrZero(CsvRow row, int column) {
+        return row.isEmpty(column) ? 0 : row.getDouble(column);
+    }
+
+    @SuppressWarnings("unchecked")
+    static <E> CsvRowBinder<E> forClass(Class<E> csvClass) {
+        if (csvClass == IndiaCensusCSV.class)
+            return (CsvRowBinder<E>) INDIA_CENSUS;
+        if (csvClass == USCensusCSV.class)
+            return (CsvRowBinder<E>) US_CENSUS;
+        if (csvClass == IndiaStateCodeCSV.class)
+            return (CsvRowBinder<E>) INDIA_STATE_CODE;
+        throw new IllegalArgumentException("No csv binding for " + csvClass.getName());
+    }
+}
@@ -0,0 +1,192 @@
+package censusanalyser.service;
+
+import censusanalyser.exceptions.CensusAnalyserException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reflection free csv reader: the header is resolved to column positions once and every record is handed to a
+ * {@link CsvRowBinder} as offsets into the read buffer, so cells only become objects when the binder asks for them.
+ * Quoted cells may contain delimiters and doubled quotes but not line breaks. Given {@link RowRejects}, rows with the
+ * wrong number of cells or a cell that is not a number are handed to it and skipped instead of failing the parse.
+ */
+class CensusCsvParser<T> {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final CsvRowBinder<T> binder;
+    private final RowRejects rowRejects;
+
+    CensusCsvParser(CsvRowBinder<T> binder) {
+        this(binder, null);
+    }
+
+    CensusCsvParser(CsvRowBinder<T> binder, RowRejects rowRejects) {
+        this.binder = binder;
+        this.rowRejects = rowRejects;
+    }
+
+    List<T> parse(String header, String chunk) throws IOException, CensusAnalyserException {
+        return parse(new StringReader(header + "\n" + chunk));
+    }
+
+    List<T> parse(Reader reader) throws IOException, CensusAnalyserException {
+        List<T> records = new ArrayList<>();
+        parse(reader, records::add);
+        return records;
+    }
+
+    void parse(Reader reader, Consumer<? super T> sink) throws IOException, CensusAnalyserException {
+        char[] buffer = new char[BUFFER_SIZE];
+        int length = 0;
+        int lineStart = 0;
+        int scanned = 0;
+        boolean endOfInput = false;
+        Row row = new Row();
+        while (true) {
+            int lineEnd = scanned;
+            while (lineEnd < length && buffer[lineEnd] != '\n')
+                lineEnd++;
+            if (lineEnd < length) {
+                processLine(row, buffer, lineStart, lineEnd, sink);
+                lineStart = lineEnd + 1;
+                scanned = lineStart;
+                continue;
+            }
+            if (endOfInput) {
+                if (lineStart < length)
+                    processLine(row, buffer, lineStart, length, sink);
+                break;
+            }
+            int pending = length - lineStart;
+            if (pending == buffer.length)
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            else
+                System.arraycopy(buffer, lineStart, buffer, 0, pending);
+            length = pending;
+            scanned = pending;
+            lineStart = 0;
+            int read = reader.read(buffer, length, buffer.length - length);
+            if (read < 0)
+                endOfInput = true;
+            else
+                length += read;
+        }
+        if (row.positions == null)
+            throw new CensusAnalyserException("Missing csv header", CensusAnalyserException.ExceptionType.WRONG_DELIMITER_HEADER);
+    }
+
+    private void processLine(Row row, char[] buffer, int from, int to, Consumer<? super T> sink) throws CensusAnalyserException {
+        row.lineNumber++;
+        if (to > from && buffer[to - 1] == '\r')
+            to--;
+        if (to == from)
+            return;
+        row.split(buffer, from, to);
+        if (row.positions == null) {
+            row.resolveHeader(binder);
+            return;
+        }
+        if (row.fieldCount != row.headerCount) {
+            if (rowRejects == null)
+                throw new CensusAnalyserException("Number of data fields does not match number of headers at line " + row.lineNumber,
+                        CensusAnalyserException.ExceptionType.WRONG_DELIMITER_HEADER);
+            rowRejects.reject(row.lineNumber, CensusAnalyserException.ExceptionType.WRONG_DELIMITER_HEADER,
+                    "Number of data fields does not match number of headers", new String(buffer, from, to - from));
+            return;
+        }
+        try {
+            sink.accept(binder.bind(row));
+        } catch (NumberFormatException e) {
+            if (rowRejects == null)
+                throw new CensusAnalyserException(e.getMessage() + " at line " + row.lineNumber,
+                        CensusAnalyserException.ExceptionType.WRONG_DELIMITER_HEADER);
+            rowRejects.reject(row.lineNumber, CensusAnalyserException.ExceptionType.UNABLE_TO_PARSE, e.getMessage(),
+                    new String(buffer, from, to - from));
+        }
+    }
+
+    static int[] resolveHeader(String[] header, CsvRowBinder<?> binder) throws CensusAnalyserException {
+        String[] columns = binder.columns();
+        int[] positions = new int[columns.length];
+        for (int column = 0; column < columns.length; column++) {
+            positions[column] = -1;
+            for (int field = 0; field < header.length && positions[column] < 0; field++) {
+                if (header[field].trim().equalsIgnoreCase(columns[column]))
+                    positions[column] = field;
+            }
+            if (positions[column] < 0 && !binder.isOptional(column))
+                throw new CensusAnalyserException("Header is missing required column " + columns[column],
+                        CensusAnalyserException.ExceptionType.WRONG_DELIMITER_HEADER);
+        }
+        return positions;
+    }
+
+    private static final class Row extends CsvCells implements CsvRow {
+        private char[] buffer;
+        private int headerCount;
+        private int[] positions;
+        private long lineNumber;
+
+        void split(char[] buffer, int from, int to) {
+            this.buffer = buffer;
+            split(from, to);
+        }
+
+        @Override
+        int charAt(int position) {
+            return buffer[position];
+        }
+
+        void resolveHeader(CsvRowBinder<?> binder) throws CensusAnalyserException {
+            String[] header = new String[fieldCount];
+            for (int field = 0; field < fieldCount; field++)
+                header[field] = getField(field);
+            positions = CensusCsvParser.resolveHeader(header, binder);
+            headerCount = fieldCount;
+        }
+
+        @Override
+        public long lineNumber() {
+            return lineNumber;
+        }
+
+        @Override
+        public boolean isEmpty(int column) {
+            return positions[column] < 0 || isBlank(positions[column]);
+        }
+
+        @Override
+        public String getString(int column) {
+            return positions[column] < 0 ? null : getField(positions[column]);
+        }
+
+        @Override
+        public int getInt(int column) {
+            int field = positions[column];
+            return CsvNumbers.parseInt(buffer, starts[field], ends[field]);
+        }
+
+        @Override
+        public long getLong(int column) {
+            int field = positions[column];
+            return CsvNumbers.parseLong(buffer, starts[field], ends[field]);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            int field = positions[column];
+            return CsvNumbers.parseDouble(buffer, starts[field], ends[field]);
+        }
+
+        private String getField(int field) {
+            return unquote(field, new String(buffer, starts[field], ends[field] - starts[field]));
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package censusanalyser.service;
+
+import censusanalyser.model.CensusDAO;
+import censusanalyser.model.CensusField;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One loaded country: its table, the index built over it and the files it was read from. A dataset is never
+ * changed once built, a reload creates a new one with a higher version.
+ */
+public class CensusDataset {
+
+    private final CensusAnalyser.Country country;
+    private final long version;
+    private final String[] csvFilePath;
+    private final CensusTable censusTable;
+    private final CensusIndex censusIndex;
+
+    CensusDataset(CensusAnalyser.Country country, long version, String[] csvFilePath, CensusTable censusTable) {
+        this(country, version, csvFilePath, censusTable, new CensusIndex(censusTable));
+    }
+
+    CensusDataset(CensusAnalyser.Country country, long version, String[] csvFilePath, CensusTable censusTable,
+                  CensusIndex censusIndex) {
+        this.country = country;
+        this.version = version;
+        this.csvFilePath = csvFilePath.clone();
+        this.censusTable = censusTable;
+        this.censusIndex = censusIndex;
+    }
+
+    public CensusAnalyser.Country country() {
+        return country;
+    }
+
+    public long version() {
+        return version;
+    }
+
+    public int size() {
+        return censusTable.size();
+    }
+
+    public CensusTable table() {
+        return censusTable;
+    }
+
+    public CensusIndex index() {
+        return censusIndex;
+    }
+
+    public boolean isLoadedFrom(String... csvFilePath) {
+        return Arrays.equals(this.csvFilePath, csvFilePath);
+    }
+
+    public List<CensusDAO> query(CensusQuery query) {
+        return rows(query.execute(censusIndex, censusTable));
+    }
+
+    public List<CensusDAO> topK(CensusField field, int k) {
+        return rows(TopK.select(censusTable, field, k, true));
+    }
+
+    public List<CensusDAO> bottomK(CensusField field, int k) {
+        return rows(TopK.select(censusTable, field, k, false));
+    }
+
+    public List<CensusDAO> lookup(CensusField field, String value) {
+        return censusIndex.lookup(field, value);
+    }
+
+    public List<CensusDAO> range(CensusField field, double min, double max) {
+        return censusIndex.range(field, min, max);
+    }
+
+    public List<CensusDAO> sorted(DerivedColumn column, boolean descending) {
+        return censusIndex.sorted(column, descending);
+    }
+
+    public List<CensusDAO> topK(DerivedColumn column, int k) {
+        return censusIndex.top(column, k, true);
+    }
+
+    public List<CensusDAO> bottomK(DerivedColumn column, int k) {
+        return censusIndex.top(column, k, false);
+    }
+
+    public List<CensusDAO> range(DerivedColumn column, double min, double max) {
+        return censusIndex.range(column, min, max);
+    }
+
+    /**
+     * The column's value on every row, in row order.
+     */
+    public double[] values(DerivedColumn column) {
+        return censusIndex.values(column).clone();
+    }
+
+    public List<CensusGroup> aggregate(CensusAggregation aggregation) {
+        return aggregation.execute(censusTable);
+    }
+
+    List<CensusDAO> rows(int[] rows) {
+        List<CensusDAO> censusDAOList = new ArrayList<>(rows.length);
+        for (int row : rows)
+            censusDAOList.add(censusTable.get(row));
+        return censusDAOList;
+    }
+}
@@ -0,0 +1,549 @@
+package censusanalyser.service;
+
+import censusanalyser.exceptions.CensusAnalyserException;
+import censusanalyser.model.CensusDAO;
+import censusanalyser.model.CensusField;
+import censusanalyser.model.IndiaCensusCSV;
+import censusanalyser.model.USCensusCSV;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps registry datasets in step with their csv files. A file is cut into chunks at content defined line
+ * boundaries, so an edit only changes the chunks around it. On a change only the new chunks are parsed, their rows
+ * are diffed against the loaded dataset by state and the dataset is patched together with its sorted index.
+ * <p>
+ * A patched dataset keeps the layout of the one it replaces. A new header, a changed state code file, states that
+ * repeat within the file or a dataset replaced by someone else fall back to building the whole dataset from the
+ * chunks, in the registry's layout and with its state code join. The file is read and parsed once either way. Gzip and zstd files are watched like plain
+ * ones, their decompressed content is what is cut into chunks.
+ */
+public class CensusFileWatcher implements Closeable {
+
+    public interface Listener {
+        void reloaded(CensusDataset censusDataset, int inserted, int updated, int deleted);
+
+        void failed(CensusAnalyser.Country country, Exception e);
+    }
+
+    private static final int MAX_CHUNK_SIZE = 64 * 1024;
+    private static final int BOUNDARY_MASK = 0x1F;
+    private static final Listener NO_LISTENER = new Listener() {
+        @Override
+        public void reloaded(CensusDataset censusDataset, int inserted, int updated, int deleted) {
+        }
+
+        @Override
+        public void failed(CensusAnalyser.Country country, Exception e) {
+        }
+    };
+
+    private final CensusRegistry censusRegistry;
+    private final Listener listener;
+    private final Map<CensusAnalyser.Country, WatchedCensus> watched = new EnumMap<>(CensusAnalyser.Country.class);
+    private WatchService watchService;
+    private Thread watcher;
+    private long incrementalReloads;
+    private long fullReloads;
+
+    public CensusFileWatcher(CensusRegistry censusRegistry) {
+        this(censusRegistry, NO_LISTENER);
+    }
+
+    public CensusFileWatcher(CensusRegistry censusRegistry, Listener listener) {
+        this.censusRegistry = censusRegistry;
+        this.listener = listener;
+    }
+
+    public synchronized CensusDataset watch(CensusAnalyser.Country country, String... csvFilePath)
+            throws CensusAnalyserException {
+        WatchedCensus watchedCensus = new WatchedCensus(country, csvFilePath);
+        watched.put(country, watchedCensus);
+        this.reload(watchedCensus);
+        if (watchService != null)
+            this.register(watchedCensus);
+        return watchedCensus.censusDataset;
+    }
+
+    public synchronized boolean refresh(CensusAnalyser.Country country) throws CensusAnalyserException {
+        WatchedCensus watchedCensus = watched.get(country);
+        if (watchedCensus == null)
+            throw new CensusAnalyserException(country + " census data is not watched",
+                    CensusAnalyserException.ExceptionType.NO_CENSUS_DATA);
+        return this.reload(watchedCensus);
+    }
+
+    public synchronized void start() throws IOException {
+        if (watchService != null)
+            return;
+        watchService = FileSystems.getDefault().newWatchService();
+        for (WatchedCensus watchedCensus : watched.values())
+            this.register(watchedCensus);
+        watcher = new Thread(this::watchFiles, "census-file-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    public synchronized long getIncrementalReloads() {
+        return incrementalReloads;
+    }
+
+    public synchronized long getFullReloads() {
+        return fullReloads;
+    }
+
+    @Override
+    public void close() throws IOException {
+        WatchService closing;
+        synchronized (this) {
+            closing = watchService;
+            watchService = null;
+        }
+        if (closing != null)
+            closing.close();
+    }
+
+    private void register(WatchedCensus watchedCensus) {
+        try {
+            for (Path path : watchedCensus.paths())
+                path.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            listener.failed(watchedCensus.country, e);
+        }
+    }
+
+    private void watchFiles() {
+        try {
+            while (true) {
+                WatchService service;
+                synchronized (this) {
+                    service = watchService;
+                }
+                if (service == null)
+                    return;
+                WatchKey key = service.take();
+                Path directory = (Path) key.watchable();
+                Set<Path> changed = new HashSet<>();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.context() instanceof Path)
+                        changed.add(directory.resolve((Path) event.context()));
+                }
+                key.reset();
+                this.refreshChanged(changed);
+            }
+        } catch (ClosedWatchServiceException e) {
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void refreshChanged(Set<Path> changed) {
+        for (WatchedCensus watchedCensus : watched.values()) {
+            if (Collections.disjoint(changed, watchedCensus.paths()))
+                continue;
+            try {
+                this.reload(watchedCensus);
+            } catch (CensusAnalyserException | RuntimeException e) {
+                listener.failed(watchedCensus.country, e);
+            }
+        }
+    }
+
+    private boolean reload(WatchedCensus watchedCensus) throws CensusAnalyserException {
+        try {
+            FileFingerprint stateCodeFingerprint = watchedCensus.stateCodeFingerprint;
+            StateCodeJoin stateCodeJoin = censusRegistry.stateCodeJoin();
+            List<String[]> stateCodeRows = watchedCensus.stateCodeRows;
+            boolean stateCodesChanged = stateCodeJoin != watchedCensus.stateCodeJoin;
+            if (watchedCensus.stateCodePath != null && (stateCodesChanged || stateCodeFingerprint == null
+                    || !stateCodeFingerprint.sameMetadata(watchedCensus.stateCodePath))) {
+                long lastModified = Files.getLastModifiedTime(watchedCensus.stateCodePath).toMillis();
+                byte[] content = Files.readAllBytes(watchedCensus.stateCodePath);
+                FileFingerprint fingerprint = FileFingerprint.of(lastModified, content);
+                stateCodesChanged |= stateCodeFingerprint == null || !fingerprint.sameContent(stateCodeFingerprint);
+                if (stateCodesChanged)
+                    stateCodeRows = readStateCodes(stateCodeJoin, CompressedInput.decompress(content));
+                stateCodeFingerprint = fingerprint;
+            }
+            if (!stateCodesChanged && watchedCensus.censusFingerprint != null
+                    && watchedCensus.censusFingerprint.sameMetadata(watchedCensus.censusPath)) {
+                watchedCensus.stateCodeFingerprint = stateCodeFingerprint;
+                return false;
+            }
+            long lastModified = Files.getLastModifiedTime(watchedCensus.censusPath).toMillis();
+            byte[] content = Files.readAllBytes(watchedCensus.censusPath);
+            FileFingerprint fingerprint = FileFingerprint.of(lastModified, content);
+            if (!stateCodesChanged && watchedCensus.censusFingerprint != null
+                    && fingerprint.sameContent(watchedCensus.censusFingerprint)) {
+                watchedCensus.stateCodeFingerprint = stateCodeFingerprint;
+                watchedCensus.censusFingerprint = fingerprint;
+                return false;
+            }
+            // the fingerprint is taken over the file as it is, the chunks over the csv it holds
+            content = CompressedInput.decompress(content);
+            long version = censusRegistry.nextVersion();
+            int headerEnd = lineEnd(content, 0);
+            String header = new String(content, 0, headerEnd, StandardCharsets.UTF_8).replace("\uFEFF", "");
+            List<Chunk> chunks = split(content, Math.min(headerEnd + 1, content.length));
+            CensusDataset loaded = censusRegistry.snapshot().get(watchedCensus.country);
+            boolean incremental = !stateCodesChanged && !watchedCensus.repeatedStates
+                    && header.equals(watchedCensus.header) && loaded != null && loaded == watchedCensus.censusDataset;
+            if (!incremental || !this.patch(watchedCensus, version, stateCodeJoin, stateCodeRows, content, header, chunks))
+                this.rebuild(watchedCensus, version, stateCodeJoin, stateCodeRows, content, header, chunks);
+            watchedCensus.stateCodeFingerprint = stateCodeFingerprint;
+            watchedCensus.stateCodeJoin = stateCodeJoin;
+            watchedCensus.stateCodeRows = stateCodeRows;
+            watchedCensus.header = header;
+            watchedCensus.chunks = chunks;
+            watchedCensus.censusFingerprint = fingerprint;
+            return true;
+        } catch (IOException e) {
+            throw new CensusAnalyserException(e.getMessage(), CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM);
+        }
+    }
+
+    // the whole dataset from the content already read, in the registry's layout and joined the way its loader joins
+    private void rebuild(WatchedCensus watchedCensus, long version, StateCodeJoin stateCodeJoin,
+                         List<String[]> stateCodeRows, byte[] content, String header, List<Chunk> chunks)
+            throws IOException, CensusAnalyserException {
+        CensusLoader censusLoader = censusRegistry.newLoader();
+        ColumnarCensusStore censusStore = censusRegistry.isColumnarStore()
+                ? new ColumnarCensusStore(watchedCensus.country) : null;
+        Map<String, CensusDAO> censusMap = new HashMap<>();
+        int rows = 0;
+        for (Chunk chunk : chunks) {
+            List<ParsedRow> parsedRows = this.parse(censusLoader, watchedCensus.country, null, null, header, content, chunk);
+            chunk.states = new String[parsedRows.size()];
+            for (int i = 0; i < parsedRows.size(); i++) {
+                ParsedRow parsedRow = parsedRows.get(i);
+                chunk.states[i] = parsedRow.censusDAO.state;
+                censusMap.put(parsedRow.censusDAO.state, parsedRow.censusDAO);
+                if (censusStore == null)
+                    continue;
+                if (parsedRow.censusCSV instanceof IndiaCensusCSV)
+                    censusStore.add((IndiaCensusCSV) parsedRow.censusCSV);
+                else
+                    censusStore.add((USCensusCSV) parsedRow.censusCSV);
+            }
+            rows += parsedRows.size();
+        }
+        watchedCensus.repeatedStates = censusMap.size() != rows;
+        CensusTable censusTable;
+        if (censusStore != null) {
+            if (stateCodeRows != null)
+                stateCodeJoin.join(censusStore.size(), row -> censusStore.text(CensusField.STATE, row), stateCodeRows,
+                        censusStore::setStateCode);
+            censusStore.trimToSize();
+            censusTable = censusStore;
+        } else {
+            if (stateCodeRows != null)
+                stateCodeJoin.join(new ArrayList<>(censusMap.values()), stateCodeRows);
+            censusTable = new CensusRowTable(censusMap.values());
+        }
+        CensusDataset censusDataset = new CensusDataset(watchedCensus.country, version, watchedCensus.csvFilePath,
+                censusTable);
+        this.publish(watchedCensus, censusDataset);
+        fullReloads++;
+        listener.reloaded(censusDataset, censusDataset.size(), 0, 0);
+    }
+
+    private boolean patch(WatchedCensus watchedCensus, long version, StateCodeJoin stateCodeJoin,
+                          List<String[]> stateCodeRows, byte[] content, String header, List<Chunk> chunks)
+            throws IOException, CensusAnalyserException {
+        CensusDataset loaded = watchedCensus.censusDataset;
+        CensusTable censusTable = loaded.table();
+        if (!(censusTable instanceof CensusRowTable) && !(censusTable instanceof ColumnarCensusStore))
+            return false;
+        CensusLoader censusLoader = censusRegistry.newLoader();
+        Map<Long, ArrayDeque<Chunk>> previous = new HashMap<>();
+        for (Chunk chunk : watchedCensus.chunks)
+            previous.computeIfAbsent(chunk.signature, signature -> new ArrayDeque<>()).add(chunk);
+        Map<String, ParsedRow> changed = new LinkedHashMap<>();
+        for (Chunk chunk : chunks) {
+            ArrayDeque<Chunk> same = previous.get(chunk.signature);
+            Chunk unchanged = same == null ? null : same.poll();
+            if (unchanged != null) {
+                chunk.states = unchanged.states;
+                continue;
+            }
+            List<ParsedRow> parsedRows = this.parse(censusLoader, watchedCensus.country, stateCodeJoin, stateCodeRows,
+                    header, content, chunk);
+            chunk.states = new String[parsedRows.size()];
+            for (int i = 0; i < parsedRows.size(); i++) {
+                chunk.states[i] = parsedRows.get(i).censusDAO.state;
+                if (changed.put(chunk.states[i], parsedRows.get(i)) != null)
+                    return false;
+            }
+        }
+        Set<String> removed = new HashSet<>();
+        for (ArrayDeque<Chunk> stale : previous.values()) {
+            for (Chunk chunk : stale)
+                Collections.addAll(removed, chunk.states);
+        }
+
+        int size = censusTable.size();
+        ParsedRow[] updates = new ParsedRow[size];
+        boolean[] deleted = new boolean[size];
+        List<ParsedRow> inserts = new ArrayList<>();
+        int updated = 0;
+        int deletedCount = 0;
+        for (ParsedRow parsedRow : changed.values()) {
+            int row = loaded.index().rowOf(parsedRow.censusDAO.state);
+            if (row < 0) {
+                inserts.add(parsedRow);
+            } else if (removed.contains(parsedRow.censusDAO.state)) {
+                updates[row] = parsedRow;
+                updated++;
+            } else {
+                return false;
+            }
+        }
+        for (String state : removed) {
+            if (changed.containsKey(state))
+                continue;
+            int row = loaded.index().rowOf(state);
+            if (row >= 0 && !deleted[row]) {
+                deleted[row] = true;
+                deletedCount++;
+            }
+        }
+
+        TableBuilder tableBuilder = censusTable instanceof ColumnarCensusStore
+                ? new ColumnarTableBuilder((ColumnarCensusStore) censusTable)
+                : new RowTableBuilder((CensusRowTable) censusTable, size - deletedCount + inserts.size());
+        int[] remap = new int[size];
+        int[] changedRows = new int[updated + inserts.size()];
+        int next = 0;
+        int changedCount = 0;
+        for (int row = 0; row < size; row++) {
+            if (deleted[row]) {
+                remap[row] = -1;
+                continue;
+            }
+            if (updates[row] != null) {
+                remap[row] = -1;
+                changedRows[changedCount++] = next++;
+                tableBuilder.add(updates[row]);
+            } else {
+                remap[row] = next++;
+                tableBuilder.keep(row);
+            }
+        }
+        for (ParsedRow parsedRow : inserts) {
+            changedRows[changedCount++] = next++;
+            tableBuilder.add(parsedRow);
+        }
+        CensusTable patchedTable = tableBuilder.build();
+        CensusDataset censusDataset = new CensusDataset(watchedCensus.country, version, watchedCensus.csvFilePath,
+                patchedTable, loaded.index().patch(patchedTable, remap, changedRows));
+        this.publish(watchedCensus, censusDataset);
+        incrementalReloads++;
+        listener.reloaded(censusDataset, inserts.size(), updated, deletedCount);
+        return true;
+    }
+
+    private void publish(WatchedCensus watchedCensus, CensusDataset censusDataset) {
+        watchedCensus.censusDataset = censusDataset;
+        censusRegistry.publish(Collections.singletonList(censusDataset));
+    }
+
+    // rows of a chunk, joined to the state code rows when there are any the way the loader joins a whole file
+    private List<ParsedRow> parse(CensusLoader censusLoader, CensusAnalyser.Country country,
+                                  StateCodeJoin stateCodeJoin, List<String[]> stateCodeRows, String header,
+                                  byte[] content, Chunk chunk) throws IOException, CensusAnalyserException {
+        String text = new String(content, chunk.offset, chunk.length, StandardCharsets.UTF_8);
+        List<ParsedRow> parsedRows = new ArrayList<>();
+        List<CensusDAO> censusRows = new ArrayList<>();
+        for (Object censusCSV : censusLoader.parseCensusCSV(country, header, text)) {
+            CensusDAO censusDAO = censusCSV instanceof IndiaCensusCSV
+                    ? new CensusDAO((IndiaCensusCSV) censusCSV) : new CensusDAO((USCensusCSV) censusCSV);
+            parsedRows.add(new ParsedRow(censusCSV, censusDAO));
+            censusRows.add(censusDAO);
+        }
+        if (stateCodeRows != null)
+            stateCodeJoin.join(censusRows, stateCodeRows);
+        return parsedRows;
+    }
+
+    private static List<String[]> readStateCodes(StateCodeJoin stateCodeJoin, byte[] content)
+            throws IOException, CensusAnalyserException {
+        return stateCodeJoin.readLookup(new StringReader(new String(content, StandardCharsets.UTF_8).replace("\uFEFF", "")));
+    }
+
+    // a chunk ends after a line whose hash hits the mask, so an edit moves no boundary outside the lines it touches
+    private static List<Chunk> split(byte[] content, int from) {
+        List<Chunk> chunks = new ArrayList<>();
+        int chunkStart = from;
+        int lineStart = from;
+        while (lineStart < content.length) {
+            int end = lineEnd(content, lineStart);
+            int hash = 0;
+            for (int i = lineStart; i < end; i++)
+                hash = 31 * hash + content[i];
+            hash ^= hash >>> 16;
+            lineStart = Math.min(end + 1, content.length);
+            if ((hash & BOUNDARY_MASK) == 0 || lineStart - chunkStart >= MAX_CHUNK_SIZE || lineStart == content.length) {
+                chunks.add(new Chunk(content, chunkStart, lineStart - chunkStart));
+                chunkStart = lineStart;
+            }
+        }
+        return chunks;
+    }
+
+    private static int lineEnd(byte[] content, int from) {
+        int end = from;
+        while (end < content.length && content[end] != '\n')
+            end++;
+        return end;
+    }
+
+    // a changed census row, as parsed for the columnar layout and as a row for the object layout
+    private static final class ParsedRow {
+        final Object censusCSV;
+        final CensusDAO censusDAO;
+
+        ParsedRow(Object censusCSV, CensusDAO censusDAO) {
+            this.censusCSV = censusCSV;
+            this.censusDAO = censusDAO;
+        }
+    }
+
+    // the patched table in the layout of the loaded one, its unchanged rows taken over as they are
+    private interface TableBuilder {
+        void keep(int row);
+
+        void add(ParsedRow parsedRow);
+
+        CensusTable build();
+    }
+
+    private static final class RowTableBuilder implements TableBuilder {
+        private final CensusRowTable source;
+        private final CensusDAO[] censusRows;
+        private int size;
+
+        RowTableBuilder(CensusRowTable source, int size) {
+            this.source = source;
+            this.censusRows = new CensusDAO[size];
+        }
+
+        @Override
+        public void keep(int row) {
+            censusRows[size++] = source.row(row);
+        }
+
+        @Override
+        public void add(ParsedRow parsedRow) {
+            censusRows[size++] = parsedRow.censusDAO;
+        }
+
+        @Override
+        public CensusTable build() {
+            return new CensusRowTable(censusRows);
+        }
+    }
+
+    private static final class ColumnarTableBuilder implements TableBuilder {
+        private final ColumnarCensusStore source;
+        private final ColumnarCensusStore censusStore;
+
+        ColumnarTableBuilder(ColumnarCensusStore source) {
+            this.source = source;
+            this.censusStore = new ColumnarCensusStore(source.country());
+        }
+
+        @Override
+        public void keep(int row) {
+            censusStore.add(source, row);
+        }
+
+        @Override
+        public void add(ParsedRow parsedRow) {
+            if (parsedRow.censusCSV instanceof IndiaCensusCSV)
+                censusStore.add((IndiaCensusCSV) parsedRow.censusCSV);
+            else
+                censusStore.add((USCensusCSV) parsedRow.censusCSV);
+            if (parsedRow.censusDAO.stateCode != null)
+                censusStore.setStateCode(censusStore.row(parsedRow.censusDAO.state), parsedRow.censusDAO.stateCode);
+        }
+
+        @Override
+        public CensusTable build() {
+            censusStore.trimToSize();
+            return censusStore;
+        }
+    }
+
+    private static final class Chunk {
+        final int offset;
+        final int length;
+        final long signature;
+        String[] states;
+
+        Chunk(byte[] content, int offset, int length) {
+            this.offset = offset;
+            this.length = length;
+            CRC32 crc = new CRC32();
+            crc.update(content, offset, length);
+            Adler32 adler = new Adler32();
+            adler.update(content, offset, length);
+            this.signature = crc.getValue() << 32 | adler.getValue();
+        }
+    }
+
+    private static final class WatchedCensus {
+        final CensusAnalyser.Country country;
+        final String[] csvFilePath;
+        final Path censusPath;
+        final Path stateCodePath;
+        FileFingerprint censusFingerprint;
+        FileFingerprint stateCodeFingerprint;
+        StateCodeJoin stateCodeJoin;
+        List<String[]> stateCodeRows;
+        String header;
+        List<Chunk> chunks = Collections.emptyList();
+        boolean repeatedStates;
+        CensusDataset censusDataset;
+
+        WatchedCensus(CensusAnalyser.Country country, String... csvFilePath) {
+            this.country = country;
+            this.csvFilePath = csvFilePath.clone();
+            this.censusPath = Paths.get(csvFilePath[0]).toAbsolutePath();
+            this.stateCodePath = csvFilePath.length > 1 ? Paths.get(csvFilePath[1]).toAbsolutePath() : null;
+        }
+
+        List<Path> paths() {
+            List<Path> paths = new ArrayList<>();
+            paths.add(censusPath);
+            if (stateCodePath != null)
+                paths.add(stateCodePath);
+            return paths;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package censusanalyser.service;
+
+import censusanalyser.model.CensusField;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Aggregated statistics of the rows sharing one group key of a {@link CensusAggregation}.
+ */
+public final class CensusGroup {
+
+    private final String key;
+    private final Map<CensusField, CensusStatistics> statistics = new EnumMap<>(CensusField.class);
+    private long rows;
+
+    CensusGroup(String key, Set<CensusField> fields, Set<CensusField> quantileFields) {
+        this.key = key;
+        for (CensusField field : fields)
+            statistics.put(field, new CensusStatistics(quantileFields.contains(field)));
+    }
+
+    void add(CensusTable censusTable, int row) {
+        rows++;
+        for (Map.Entry<CensusField, CensusStatistics> entry : statistics.entrySet())
+            entry.getValue().add(censusTable.value(entry.getKey(), row));
+    }
+
+    void merge(CensusGroup other) {
+        rows += other.rows;
+        for (Map.Entry<CensusField, CensusStatistics> entry : statistics.entrySet())
+            entry.getValue().merge(other.statistics.get(entry.getKey()));
+    }
+
+    /**
+     * The group key, null for rows whose grouping field or classification is null.
+     */
+    public String key() {
+        return key;
+    }
+
+    public long rows() {
+        return rows;
+    }
+
+    public CensusStatistics statistics(CensusField field) {
+        CensusStatistics fieldStatistics = statistics.get(field);
+        if (fieldStatistics == null)
+            throw new IllegalArgumentException(field + " was not aggregated");
+        return fieldStatistics;
+    }
+
+    // ratio of the two field totals, such as water area over total area
+    public double ratio(CensusField numerator, CensusField denominator) {
+        return statistics(numerator).sum() / statistics(denominator).sum();
+    }
+
+    @Override
+    public String toString() {
+        return "CensusGroup{key=" + key + ", rows=" + rows + ", statistics=" + statistics + '}';
+    }
+}
@@ -0,0 +1,353 @@
+package censusanalyser.service;
+
+import censusanalyser.exceptions.CensusAnalyserException;
+import censusanalyser.model.CensusDAO;
+import censusanalyser.model.CensusField;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serves the loaded datasets of a {@link CensusRegistry} as json over http:
+ * <pre>
+ *     GET /census/{country}/sorted?by=POPULATION&amp;order=desc&amp;offset=0&amp;limit=10
+ *     GET /census/{country}/top?by=POPULATION&amp;k=10
+ *     GET /census/{country}/bottom?by=AREA&amp;k=10
+ *     GET /census/{country}/state?name=Uttar Pradesh   or   ?code=UP
+ * </pre>
+ * Responses are cached as bytes per request and dataset version, so repeating a request neither sorts nor serializes
+ * again until the country is reloaded. The cache evicts the least recently used responses beyond its byte budget.
+ * Every response has an ETag of its content for conditional requests, and larger ones are sent gzipped to clients
+ * that accept it.
+ */
+public class CensusHttpServer implements Closeable {
+
+    public static final long DEFAULT_CACHE_BYTES = 64L * 1024 * 1024;
+
+    private static final int GZIP_MIN_BYTES = 512;
+    private static final Gson GSON = new Gson();
+
+    private final CensusRegistry censusRegistry;
+    private final HttpServer httpServer;
+    private final ExecutorService executor;
+    private final ResultCache<ResponseKey, Response> responseCache;
+    private final Map<CensusAnalyser.Country, Long> cachedVersions = new ConcurrentHashMap<>();
+
+    public CensusHttpServer(CensusRegistry censusRegistry, InetSocketAddress address) throws IOException {
+        this(censusRegistry, address, DEFAULT_CACHE_BYTES);
+    }
+
+    public CensusHttpServer(CensusRegistry censusRegistry, InetSocketAddress address, long cacheBytes)
+            throws IOException {
+        this.censusRegistry = censusRegistry;
+        this.responseCache = new ResultCache<>(cacheBytes, Response::weight);
+        this.executor = TaskExecutors.newPerTaskExecutor("census-http");
+        this.httpServer = HttpServer.create(address, 0);
+        this.httpServer.setExecutor(executor);
+        this.httpServer.createContext("/census/", this::handle);
+    }
+
+    public void start() {
+        httpServer.start();
+    }
+
+    public InetSocketAddress getAddress() {
+        return httpServer.getAddress();
+    }
+
+    public long getCacheHits() {
+        return responseCache.hits();
+    }
+
+    public long getCacheMisses() {
+        return responseCache.misses();
+    }
+
+    public CacheStats getCacheStats() {
+        return responseCache.stats();
+    }
+
+    @Override
+    public void close() {
+        httpServer.stop(0);
+        executor.shutdown();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                this.sendError(exchange, 405, "Only GET and HEAD are supported");
+                return;
+            }
+            Response response = this.response(exchange.getRequestURI());
+            boolean gzip = response.gzipped != null
+                    && acceptsGzip(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+            // the gzipped body is a different representation, so it has an ETag of its own
+            String etag = gzip ? response.gzippedETag : response.etag;
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("ETag", etag);
+            headers.set("Vary", "Accept-Encoding");
+            headers.set("Cache-Control", "no-cache");
+            if (matchesETag(exchange.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            byte[] body = gzip ? response.gzipped : response.json;
+            if (gzip)
+                headers.set("Content-Encoding", "gzip");
+            headers.set("Content-Type", "application/json; charset=utf-8");
+            if ("HEAD".equals(method)) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        } catch (CensusAnalyserException e) {
+            this.sendError(exchange, 404, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            this.sendError(exchange, 400, e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Response response(URI uri) throws CensusAnalyserException, IOException {
+        String[] path = uri.getPath().split("/");
+        if (path.length != 4)
+            throw new IllegalArgumentException("Expected /census/{country}/{sorted|top|bottom|state}");
+        CensusAnalyser.Country country = CensusAnalyser.Country.valueOf(path[2].toUpperCase(Locale.ROOT));
+        CensusRequest request = CensusRequest.parse(path[3], parameters(uri.getRawQuery()));
+        CensusDataset censusDataset = censusRegistry.get(country);
+        ResponseKey key = new ResponseKey(country, censusDataset.version(), request.key);
+        Response response = responseCache.get(key);
+        if (response != null)
+            return response;
+        long version = censusDataset.version();
+        Long cachedVersion = cachedVersions.get(country);
+        long newestVersion = cachedVersions.merge(country, version, Math::max);
+        if (cachedVersion != null && cachedVersion < version)
+            responseCache.removeIf(cached -> cached.country == country && cached.version < version);
+        response = new Response(toJson(censusDataset.table(), request.rows(censusDataset)));
+        // a request that read the dataset before a reload answers from it but leaves the cache to the newer version
+        if (version == newestVersion) {
+            responseCache.put(key, response);
+            if (cachedVersions.get(country) > version)
+                responseCache.removeIf(key::equals);
+        }
+        return response;
+    }
+
+    private static byte[] toJson(CensusTable censusTable, int[] rows) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonWriter jsonWriter = new JsonWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8));
+        jsonWriter.beginArray();
+        for (int row : rows)
+            GSON.toJson(censusTable.get(row), CensusDAO.class, jsonWriter);
+        jsonWriter.endArray();
+        jsonWriter.flush();
+        return bytes.toByteArray();
+    }
+
+    private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        Map<String, String> error = new HashMap<>();
+        error.put("error", String.valueOf(message));
+        byte[] body = GSON.toJson(error).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static Map<String, String> parameters(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty())
+            return parameters;
+        for (String parameter : rawQuery.split("&")) {
+            String[] pair = parameter.split("=", 2);
+            parameters.put(URLDecoder.decode(pair[0], "UTF-8"), pair.length == 2 ? URLDecoder.decode(pair[1], "UTF-8") : "");
+        }
+        return parameters;
+    }
+
+    private static boolean matchesETag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null)
+            return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/"))
+                candidate = candidate.substring(2);
+            if (candidate.equals("*") || candidate.equals(etag))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null)
+            return false;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip"))
+                return parts.length == 1 || !parts[1].replace(" ", "").matches("q=0(\\.0*)?");
+        }
+        return false;
+    }
+
+    // a request reduced to its canonical form, so spellings of the same query share one cached response
+    private static final class CensusRequest {
+        private final String key;
+        private final CensusField field;
+        private final CensusQuery query;
+        private final int k;
+        private final boolean largest;
+
+        private CensusRequest(String key, CensusField field, CensusQuery query, int k, boolean largest) {
+            this.key = key;
+            this.field = field;
+            this.query = query;
+            this.k = k;
+            this.largest = largest;
+        }
+
+        static CensusRequest parse(String operation, Map<String, String> parameters) {
+            switch (operation) {
+                case "sorted": {
+                    CensusField field = field(parameters);
+                    boolean descending = descending(parameters.getOrDefault("order", "asc"));
+                    int offset = number(parameters, "offset", 0);
+                    int limit = number(parameters, "limit", Integer.MAX_VALUE);
+                    CensusQuery query = CensusQuery.orderBy(field, descending).offset(offset).limit(limit);
+                    return new CensusRequest("sorted " + field + " " + descending + " " + offset + " " + limit,
+                            field, query, 0, false);
+                }
+                case "top":
+                case "bottom": {
+                    CensusField field = field(parameters);
+                    int k = number(parameters, "k", 10);
+                    return new CensusRequest(operation + " " + field + " " + k, field, null, k, "top".equals(operation));
+                }
+                case "state": {
+                    String name = parameters.get("name");
+                    String code = parameters.get("code");
+                    if ((name == null) == (code == null))
+                        throw new IllegalArgumentException("Expected one of the name or code parameters");
+                    if (name != null) {
+                        String stateName = JoinKeys.standard().normalize(name);
+                        CensusQuery query = CensusQuery.all().whereText(CensusField.STATE,
+                                state -> state != null && JoinKeys.standard().normalize(state).equals(stateName));
+                        return new CensusRequest("state name " + stateName, null, query, 0, false);
+                    }
+                    String stateCode = code.trim().toUpperCase(Locale.ROOT);
+                    CensusQuery query = CensusQuery.all().whereText(CensusField.STATE_CODE,
+                            state -> stateCode.equalsIgnoreCase(state));
+                    return new CensusRequest("state code " + stateCode, null, query, 0, false);
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown census operation " + operation);
+            }
+        }
+
+        int[] rows(CensusDataset censusDataset) {
+            if (query == null)
+                return TopK.select(censusDataset.table(), field, k, largest);
+            return query.execute(censusDataset.index(), censusDataset.table());
+        }
+
+        private static CensusField field(Map<String, String> parameters) {
+            String field = parameters.get("by");
+            if (field == null)
+                throw new IllegalArgumentException("Expected a by parameter naming a census field");
+            return CensusField.valueOf(field.toUpperCase(Locale.ROOT));
+        }
+
+        private static boolean descending(String order) {
+            if (order.equalsIgnoreCase("desc"))
+                return true;
+            if (order.equalsIgnoreCase("asc"))
+                return false;
+            throw new IllegalArgumentException("order must be asc or desc: " + order);
+        }
+
+        private static int number(Map<String, String> parameters, String name, int defaultValue) {
+            String value = parameters.get(name);
+            return value == null ? defaultValue : Integer.parseInt(value);
+        }
+    }
+
+    private static final class ResponseKey {
+        private final CensusAnalyser.Country country;
+        private final long version;
+        private final String request;
+
+        ResponseKey(CensusAnalyser.Country country, long version, String request) {
+            this.country = country;
+            this.version = version;
+            this.request = request;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof ResponseKey))
+                return false;
+            ResponseKey that = (ResponseKey) o;
+            return country == that.country && version == that.version && request.equals(that.request);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(country, version, request);
+        }
+    }
+
+    private static final class Response {
+        private final byte[] json;
+        private final byte[] gzipped;
+        private final String etag;
+        private final String gzippedETag;
+
+        Response(byte[] json) throws IOException {
+            this.json = json;
+            this.gzipped = json.length < GZIP_MIN_BYTES ? null : gzip(json);
+            CRC32 crc = new CRC32();
+            crc.update(json, 0, json.length);
+            String tag = Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(json.length);
+            this.etag = "\"" + tag + "\"";
+            this.gzippedETag = "\"" + tag + "-gz\"";
+        }
+
+        long weight() {
+            return json.length + (gzipped == null ? 0 : gzipped.length);
+        }
+
+        private static byte[] gzip(byte[] json) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(json.length / 4 + 64);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+                gzip.write(json);
+            }
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package censusanalyser.service;
+
+import censusanalyser.model.CensusDAO;
+import censusanalyser.model.CensusField;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * One precomputed ascending ordering per {@link CensusField}, built once when census data is loaded. The ordering of a
+ * numeric field doubles as its range index, searched by binary search. Text fields get a hash index on first lookup,
+ * mapping each value to the slice of the ordering holding its rows; on US data STATE_CODE holds the state id.
+ * A {@link DerivedColumn} is evaluated and ordered the same way on first use.
+ * <p>
+ * Descending walks reverse the values but not the ties, which stay in row order, and missing values (null text, NaN)
+ * come last in both directions.
+ */
+public class CensusIndex {
+
+    private final CensusTable censusTable;
+    private final Map<CensusField, int[]> orderings = new EnumMap<>(CensusField.class);
+    private final Map<CensusField, int[]> descendingOrderings =
+            Collections.synchronizedMap(new EnumMap<>(CensusField.class));
+    private final Map<CensusField, Map<String, int[]>> hashIndexes =
+            Collections.synchronizedMap(new EnumMap<>(CensusField.class));
+    private final Map<DerivedColumn, DerivedOrdering> derivedOrderings = Collections.synchronizedMap(new HashMap<>());
+
+    public CensusIndex(Collection<CensusDAO> censusData) {
+        this(new CensusRowTable(censusData));
+    }
+
+    public CensusIndex(CensusTable censusTable) {
+        this.censusTable = censusTable;
+        for (CensusField field : CensusField.values())
+            orderings.put(field, sortedOrder(field));
+    }
+
+    private CensusIndex(CensusTable censusTable, Map<CensusField, int[]> orderings) {
+        this.censusTable = censusTable;
+        this.orderings.putAll(orderings);
+    }
+
+    public int size() {
+        return censusTable.size();
+    }
+
+    public List<CensusDAO> sorted(CensusField field, boolean descending) {
+        return top(field, censusTable.size(), descending);
+    }
+
+    public List<CensusDAO> top(CensusField field, int limit, boolean descending) {
+        return this.top(this.ordering(field, descending), limit);
+    }
+
+    public List<CensusDAO> sorted(DerivedColumn column, boolean descending) {
+        return top(column, censusTable.size(), descending);
+    }
+
+    public List<CensusDAO> top(DerivedColumn column, int limit, boolean descending) {
+        DerivedOrdering derived = this.derivedOrdering(column);
+        return this.top(descending ? derived.descendingOrder : derived.order, limit);
+    }
+
+    private List<CensusDAO> top(int[] order, int limit) {
+        int count = Math.max(0, Math.min(limit, order.length));
+        List<CensusDAO> censusDAOList = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            censusDAOList.add(censusTable.get(order[i]));
+        return censusDAOList;
+    }
+
+    public CensusDAO get(CensusField field, boolean descending, int position) {
+        return censusTable.get(row(field, descending, position));
+    }
+
+    /**
+     * Rows whose text field equals {@code value}, in row order.
+     */
+    public List<CensusDAO> lookup(CensusField field, String value) {
+        return this.rows(orderings.get(field), this.lookupPositions(field, value));
+    }
+
+    /**
+     * Rows whose numeric field lies between {@code min} and {@code max} inclusive, ascending by the field.
+     */
+    public List<CensusDAO> range(CensusField field, double min, double max) {
+        return this.rows(orderings.get(field), this.rangePositions(field, min, max));
+    }
+
+    /**
+     * Rows whose derived column lies between {@code min} and {@code max} inclusive, ascending by the column.
+     */
+    public List<CensusDAO> range(DerivedColumn column, double min, double max) {
+        DerivedOrdering derived = this.derivedOrdering(column);
+        double[] values = derived.values;
+        return this.rows(derived.order, rangePositions(derived.order, row -> values[row], min, max));
+    }
+
+    // the column's value per row, shared with the index so not to be changed
+    double[] values(DerivedColumn column) {
+        return this.derivedOrdering(column).values;
+    }
+
+    private List<CensusDAO> rows(int[] order, int[] positions) {
+        List<CensusDAO> censusDAOList = new ArrayList<>(positions[1] - positions[0]);
+        for (int position = positions[0]; position < positions[1]; position++)
+            censusDAOList.add(censusTable.get(order[position]));
+        return censusDAOList;
+    }
+
+    // the slice [from, to) of the field's ascending ordering holding the rows equal to value, empty when there are none
+    int[] lookupPositions(CensusField field, String value) {
+        if (field.isNumeric())
+            throw new IllegalArgumentException(field + " is not a text field");
+        int[] positions = hashIndexes.computeIfAbsent(field, this::hashIndex).get(value);
+        return positions == null ? new int[]{0, 0} : positions;
+    }
+
+    // the slice [from, to) of the field's ascending ordering holding the rows between min and max inclusive
+    int[] rangePositions(CensusField field, double min, double max) {
+        if (!field.isNumeric())
+            throw new IllegalArgumentException(field + " is not a numeric field");
+        return rangePositions(orderings.get(field), row -> censusTable.value(field, row), min, max);
+    }
+
+    private static int[] rangePositions(int[] order, IntToDoubleFunction value, double min, double max) {
+        if (Double.isNaN(min) || Double.isNaN(max) || min > max)
+            return new int[]{0, 0};
+        // -0.0 and 0.0 are equal to a range test but ordered apart by Double.compare, so each bound takes the outer one
+        int from = firstPosition(order, value, min == 0 ? -0.0 : min, false);
+        int to = firstPosition(order, value, max == 0 ? 0.0 : max, true);
+        return new int[]{from, Math.max(from, to)};
+    }
+
+    // first position holding a value above the bound, or at least the bound when not exclusive
+    private static int firstPosition(int[] order, IntToDoubleFunction value, double bound, boolean exclusive) {
+        int low = 0;
+        int high = order.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int result = Double.compare(value.applyAsDouble(order[middle]), bound);
+            if (result < 0 || exclusive && result == 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    private DerivedOrdering derivedOrdering(DerivedColumn column) {
+        return derivedOrderings.computeIfAbsent(column, this::sortedOrder);
+    }
+
+    private DerivedOrdering sortedOrder(DerivedColumn column) {
+        double[] values = column.evaluate(censusTable);
+        int[] order = IndexSort.identity(values.length);
+        IndexSort.IntComparator comparator = (first, second) -> Double.compare(values[first], values[second]);
+        IndexSort.sort(order, comparator);
+        return new DerivedOrdering(values, order, descendingOrder(order, row -> Double.isNaN(values[row]), comparator));
+    }
+
+    private int[] ordering(CensusField field, boolean descending) {
+        if (!descending)
+            return orderings.get(field);
+        return descendingOrderings.computeIfAbsent(field, key -> descendingOrder(orderings.get(key),
+                key.isNumeric() ? row -> Double.isNaN(censusTable.value(key, row))
+                        : row -> censusTable.text(key, row) == null,
+                comparator(censusTable, key)));
+    }
+
+    // the ascending order with its groups of equal values reversed, each group keeping its row order, and the missing
+    // values that end the ascending order still at the end
+    private static int[] descendingOrder(int[] order, IntPredicate missing, IndexSort.IntComparator comparator) {
+        int present = order.length;
+        while (present > 0 && missing.test(order[present - 1]))
+            present--;
+        int[] descending = new int[order.length];
+        int target = 0;
+        for (int to = present; to > 0; ) {
+            int from = to - 1;
+            while (from > 0 && comparator.compare(order[from - 1], order[to - 1]) == 0)
+                from--;
+            System.arraycopy(order, from, descending, target, to - from);
+            target += to - from;
+            to = from;
+        }
+        System.arraycopy(order, present, descending, target, order.length - present);
+        return descending;
+    }
+
+    private static IndexSort.IntComparator comparator(CensusTable censusTable, CensusField field) {
+        return field.isNumeric()
+                ? (first, second) -> Double.compare(censusTable.value(field, first), censusTable.value(field, second))
+                : (first, second) -> compareText(censusTable.text(field, first), censusTable.text(field, second));
+    }
+
+    private Map<String, int[]> hashIndex(CensusField field) {
+        int[] order = orderings.get(field);
+        Map<String, int[]> hashIndex = new HashMap<>();
+        for (int from = 0; from < order.length; ) {
+            String value = censusTable.text(field, order[from]);
+            int to = from + 1;
+            while (to < order.length && compareText(censusTable.text(field, order[to]), value) == 0)
+                to++;
+            if (value != null)
+                hashIndex.put(value, new int[]{from, to});
+            from = to;
+        }
+        return hashIndex;
+    }
+
+    int row(CensusField field, boolean descending, int position) {
+        return this.ordering(field, descending)[position];
+    }
+
+    int rowOf(String state) {
+        int[] order = orderings.get(CensusField.STATE);
+        int low = 0;
+        int high = order.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int result = compareText(censusTable.text(CensusField.STATE, order[middle]), state);
+            if (result == 0)
+                return order[middle];
+            if (result < 0)
+                low = middle + 1;
+            else
+                high = middle - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Index over a patched table without sorting it again. Old rows keep their relative order through {@code remap},
+     * which holds the new row of every old row or -1 when it was removed or changed, and the changed rows are sorted
+     * on their own and merged in. Ties stay in row order, the same as after a full sort.
+     */
+    CensusIndex patch(CensusTable patchedTable, int[] remap, int[] changedRows) {
+        Map<CensusField, int[]> patched = new EnumMap<>(CensusField.class);
+        for (CensusField field : CensusField.values()) {
+            IndexSort.IntComparator comparator = comparator(patchedTable, field);
+            int[] changed = changedRows.clone();
+            IndexSort.sort(changed, comparator);
+            int[] kept = new int[patchedTable.size() - changed.length];
+            int size = 0;
+            for (int oldRow : orderings.get(field)) {
+                if (remap[oldRow] >= 0)
+                    kept[size++] = remap[oldRow];
+            }
+            int[] merged = new int[patchedTable.size()];
+            int from = 0;
+            int target = 0;
+            for (int row : changed) {
+                int low = from;
+                int high = kept.length;
+                while (low < high) {
+                    int middle = (low + high) >>> 1;
+                    if (compareRows(comparator, kept[middle], row) < 0)
+                        low = middle + 1;
+                    else
+                        high = middle;
+                }
+                System.arraycopy(kept, from, merged, target, low - from);
+                target += low - from;
+                merged[target++] = row;
+                from = low;
+            }
+            System.arraycopy(kept, from, merged, target, kept.length - from);
+            patched.put(field, merged);
+        }
+        return new CensusIndex(patchedTable, patched);
+    }
+
+    private static int compareRows(IndexSort.IntComparator comparator, int first, int second) {
+        int result = comparator.compare(first, second);
+        return result != 0 ? result : Integer.compare(first, second);
+    }
+
+    private int[] sortedOrder(CensusField field) {
+        int size = censusTable.size();
+        int[] order = IndexSort.identity(size);
+        if (field.isNumeric()) {
+            double[] keys = new double[size];
+            for (int i = 0; i < size; i++)
+                keys[i] = censusTable.value(field, i);
+            IndexSort.sort(order, (first, second) -> Double.compare(keys[first], keys[second]));
+        } else {
+            String[] keys = new String[size];
+            for (int i = 0; i < size; i++)
+                keys[i] = censusTable.text(field, i);
+            IndexSort.sort(order, (first, second) -> compareText(keys[first], keys[second]));
+        }
+        return order;
+    }
+
+    private static final class DerivedOrdering {
+        private final double[] values;
+        private final int[] order;
+        private final int[] descendingOrder;
+
+        DerivedOrdering(double[] values, int[] order, int[] descendingOrder) {
+            this.values = values;
+            this.order = order;
+            this.descendingOrder = descendingOrder;
+        }
+    }
+
+    // the order of two values in a sorted walk, see the class comment
+    static int compareValues(double first, double second, boolean descending) {
+        boolean firstMissing = Double.isNaN(first);
+        boolean secondMissing = Double.isNaN(second);
+        if (firstMissing || secondMissing)
+            return Boolean.compare(firstMissing, secondMissing);
+        int result = Double.compare(first, second);
+        return descending ? -result : result;
+    }
+
+    static int compareText(String first, String second, boolean descending) {
+        int result = compareText(first, second);
+        return descending && first != null && second != null ? -result : result;
+    }
+
+    static int compareText(String first, String second) {
+        if (first == null)
+            return second == null ? 0 : 1;
+        return second == null ? -1 : first.compareTo(second);
+    }
+}
@@ -5,44 +5,118 @@ import CsvBuilder.CsvBuilderFactory;
 import CsvBuilder.ICsvBuilder;
 import censusanalyser.exceptions.CensusAnalyserException;
 import censusanalyser.model.CensusDAO;
+import censusanalyser.model.CensusField;
 import censusanalyser.model.IndiaCensusCSV;
 import censusanalyser.model.IndiaStateCodeCSV;
 import censusanalyser.model.USCensusCSV;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
 import java.util.stream.StreamSupport;
 
 public class CensusLoader {
+
+    public enum Mode { SEQUENTIAL, PARALLEL, MAPPED, OPEN_CSV }
+
+    private final Mode mode;
+    private final Path snapshotDirectory;
+    private final StateCodeJoin stateCodeJoin;
+    private volatile StateCodeJoin.Report stateCodeJoinReport;
+    private volatile boolean lenient;
+    private volatile Path rejectFile;
+    private volatile LoadReport loadReport;
+
+    public CensusLoader() {
+        this(Mode.SEQUENTIAL);
+    }
+
+    public CensusLoader(Mode mode) {
+        this(mode, null);
+    }
+
+    /**
+     * A loader that keeps a binary snapshot of every load in {@code snapshotDirectory} and reads it back instead of
+     * the csv files as long as their content is unchanged.
+     */
+    public CensusLoader(Mode mode, Path snapshotDirectory) {
+        this(mode, snapshotDirectory, new StateCodeJoin());
+    }
+
+    /**
+     * A loader whose second csv file is joined to the census rows by {@code stateCodeJoin}, which may read a lookup
+     * file with other column names or match names through its own aliases.
+     */
+    public CensusLoader(Mode mode, Path snapshotDirectory, StateCodeJoin stateCodeJoin) {
+        this.mode = mode;
+        this.snapshotDirectory = snapshotDirectory;
+        this.stateCodeJoin = stateCodeJoin;
+    }
+
+    /**
+     * Matched and unmatched states of the last state code join this loader ran, null before the first one and after
+     * a load served from a snapshot.
+     */
+    public StateCodeJoin.Report getStateCodeJoinReport() {
+        return stateCodeJoinReport;
+    }
+
+    /**
+     * A lenient loader skips census rows with the wrong number of cells or a cell that is not a number and loads the
+     * rest, instead of failing on the first one; a bad header still fails the load. PARALLEL loads validate their
+     * chunks concurrently, and OPEN_CSV loads read with the hand written binders since OpenCSV stops at a bad row.
+     */
+    public void setLenient(boolean lenient) {
+        this.lenient = lenient;
+    }
+
+    /**
+     * File the rows skipped by a lenient load are written to, with their line number, error type and reason. It is
+     * replaced by every lenient load; without one the skipped rows are only counted.
+     */
+    public void setRejectFile(Path rejectFile) {
+        this.rejectFile = rejectFile;
+    }
+
+    /**
+     * Parsed and skipped rows of the last census file this loader parsed, null before the first one and after a load
+     * served from a snapshot.
+     */
+    public LoadReport getLoadReport() {
+        return loadReport;
+    }
+
     public Map<String , CensusDAO> loadCensusData(CensusAnalyser.Country country, String ... csvFilePath) throws CensusAnalyserException {
+         CensusSnapshotCache snapshotCache = snapshotDirectory == null
+                 ? null : CensusSnapshotCache.of(snapshotDirectory, country, this.snapshotVariant(), csvFilePath);
+         if (snapshotCache != null)
+             return this.toCensusMap(this.loadColumnarCensusData(snapshotCache, country, csvFilePath));
          if (country.equals(CensusAnalyser.Country.INDIA))
-             return this.loadCensusData(IndiaCensusCSV.class, csvFilePath);
+             return this.measured(country, csvFilePath, () -> this.loadCensusData(IndiaCensusCSV.class, csvFilePath), Map::size);
          else if (country.equals(CensusAnalyser.Country.US))
-             return  this.loadCensusData(USCensusCSV.class, csvFilePath);
+             return  this.measured(country, csvFilePath, () -> this.loadCensusData(USCensusCSV.class, csvFilePath), Map::size);
          throw new CensusAnalyserException("Country Not Present", CensusAnalyserException.ExceptionType.NO_SUCH_COUNTRY);
     }
 
     private   <E>  Map<String, CensusDAO> loadCensusData( Class<E> csvClass, String... csvFilePath) throws CensusAnalyserException {
         Map<String, CensusDAO> censusMap = new HashMap<>();
-        try (Reader reader = Files.newBufferedReader(Paths.get(csvFilePath[0]));) {
-            ICsvBuilder csvBuilder = CsvBuilderFactory.createCSVBuilder();
-            //censusDAOList = csvBuilder.getCSVFileList(reader, IndiaCensusCSV.class);
-            Iterator<E> csvFileIterator = csvBuilder.getCSVFileIterator(reader, csvClass);
-            Iterable<E> censusCSVIterable = () -> csvFileIterator;
-            if (csvClass.getName().equals("censusanalyser.model.IndiaCensusCSV")) {
-                StreamSupport.stream(censusCSVIterable.spliterator(), false)
-                        .map(IndiaCensusCSV.class::cast)
-                        .forEach(censusCSV -> censusMap.put(censusCSV.state, new CensusDAO(censusCSV)));
-            }else if (csvClass.getName().equals("censusanalyser.model.USCensusCSV")){
-                StreamSupport.stream(censusCSVIterable.spliterator(), false)
-                        .map(USCensusCSV.class::cast)
-                        .forEach(censusCSV -> censusMap.put(censusCSV.state, new CensusDAO(censusCSV)));
-            }
+        RowRejects rowRejects = lenient ? new RowRejects() : null;
+        try {
+            List<E> censusCSVList = this.readCensusCSV(csvClass, csvFilePath[0], rowRejects);
+            this.report(censusCSVList.size(), rowRejects);
+            this.putCensusData(censusMap, csvClass, censusCSVList);
             if (csvFilePath.length==1) return censusMap;
             this.loadIndiaStateData(censusMap,csvFilePath[1]);
             return censusMap;
@@ -54,14 +128,224 @@ public class CensusLoader {
             throw new CensusAnalyserException(e.getMessage(), e.type.name());
         }
     }
+
+    public ColumnarCensusStore loadColumnarCensusData(CensusAnalyser.Country country, String ... csvFilePath) throws CensusAnalyserException {
+        CensusSnapshotCache snapshotCache = snapshotDirectory == null
+                ? null : CensusSnapshotCache.of(snapshotDirectory, country, this.snapshotVariant(), csvFilePath);
+        if (snapshotCache == null)
+            return this.measured(country, csvFilePath, () -> this.readColumnarCensusData(country, csvFilePath),
+                    ColumnarCensusStore::size);
+        return this.loadColumnarCensusData(snapshotCache, country, csvFilePath);
+    }
+
+    private ColumnarCensusStore loadColumnarCensusData(CensusSnapshotCache snapshotCache, CensusAnalyser.Country country,
+                                                       String... csvFilePath) throws CensusAnalyserException {
+        ColumnarCensusStore censusStore = snapshotCache.read();
+        if (censusStore != null)
+            return censusStore;
+        censusStore = this.measured(country, csvFilePath, () -> this.readColumnarCensusData(country, csvFilePath),
+                ColumnarCensusStore::size);
+        try {
+            snapshotCache.write(censusStore);
+        } catch (IOException e) {
+            // without a snapshot the next load parses the csv files again, which is slower but still correct
+        }
+        return censusStore;
+    }
+
+    // lenient loads keep other rows than strict ones, so they must not share a snapshot
+    private String snapshotVariant() {
+        return lenient ? stateCodeJoin.signature() + ",lenient" : stateCodeJoin.signature();
+    }
+
+    private void report(int parsedRows, RowRejects rowRejects) throws IOException {
+        Path rejectFile = this.rejectFile;
+        if (rowRejects != null && rejectFile != null) {
+            try (Writer writer = Files.newBufferedWriter(rejectFile, StandardCharsets.UTF_8)) {
+                rowRejects.write(writer);
+            }
+        }
+        loadReport = rowRejects == null
+                ? new LoadReport(parsedRows, 0, Collections.emptyMap(), null)
+                : new LoadReport(parsedRows, rowRejects.size(), rowRejects.counts(), rejectFile);
+    }
+
+    private interface CensusRead<T> {
+        T read() throws CensusAnalyserException;
+    }
+
+    // reports a csv parse to the installed CensusMetrics, the clock and file sizes are only read when it is enabled
+    private <T> T measured(CensusAnalyser.Country country, String[] csvFilePath, CensusRead<T> censusRead,
+                           ToIntFunction<T> rows) throws CensusAnalyserException {
+        CensusMetrics metrics = CensusMetrics.current();
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
+        try {
+            T censusData = censusRead.read();
+            if (metrics.isEnabled()) {
+                long nanos = System.nanoTime() - start;
+                long bytes = 0;
+                for (String path : csvFilePath) {
+                    try {
+                        bytes += Files.size(Paths.get(path));
+                    } catch (IOException e) {
+                        // the file was read a moment ago, a size that can not be taken now is just not counted
+                    }
+                }
+                metrics.parsed(country, rows.applyAsInt(censusData), bytes, nanos);
+            }
+            return censusData;
+        } catch (CensusAnalyserException e) {
+            metrics.parseFailed(e.type);
+            throw e;
+        }
+    }
+
+    private Map<String, CensusDAO> toCensusMap(ColumnarCensusStore censusStore) {
+        Map<String, CensusDAO> censusMap = new HashMap<>();
+        for (int row = 0; row < censusStore.size(); row++) {
+            CensusDAO censusDAO = censusStore.get(row);
+            censusMap.put(censusDAO.state, censusDAO);
+        }
+        return censusMap;
+    }
+
+    private ColumnarCensusStore readColumnarCensusData(CensusAnalyser.Country country, String ... csvFilePath) throws CensusAnalyserException {
+        ColumnarCensusStore censusStore = new ColumnarCensusStore(country);
+        RowRejects rowRejects = lenient ? new RowRejects() : null;
+        try {
+            if (country.equals(CensusAnalyser.Country.INDIA))
+                this.forEachCensusCSV(IndiaCensusCSV.class, csvFilePath[0], rowRejects, censusStore::add);
+            else if (country.equals(CensusAnalyser.Country.US))
+                this.forEachCensusCSV(USCensusCSV.class, csvFilePath[0], rowRejects, censusStore::add);
+            this.report(censusStore.size(), rowRejects);
+            if (csvFilePath.length > 1)
+                stateCodeJoinReport = stateCodeJoin.join(censusStore.size(),
+                        row -> censusStore.text(CensusField.STATE, row), this.readStateCodeCSV(csvFilePath[1]),
+                        censusStore::setStateCode);
+            censusStore.trimToSize();
+            return censusStore;
+        } catch (IOException e) {
+            throw new CensusAnalyserException(e.getMessage(), CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM);
+        } catch (RuntimeException e) {
+            throw new CensusAnalyserException(e.getMessage(), CensusAnalyserException.ExceptionType.WRONG_DELIMITER_HEADER);
+        } catch (CsvBuilderException e) {
+            throw new CensusAnalyserException(e.getMessage(), e.type.name());
+        }
+    }
+
+    // census rows of a piece of a census file below its header, bound and checked as a whole file would be
+    List<?> parseCensusCSV(CensusAnalyser.Country country, String header, String text)
+            throws IOException, CensusAnalyserException {
+        RowRejects rowRejects = lenient ? new RowRejects() : null;
+        if (country.equals(CensusAnalyser.Country.INDIA))
+            return new CensusCsvParser<>(CensusCsvBinders.INDIA_CENSUS, rowRejects).parse(header, text);
+        if (country.equals(CensusAnalyser.Country.US))
+            return new CensusCsvParser<>(CensusCsvBinders.US_CENSUS, rowRejects).parse(header, text);
+        throw new CensusAnalyserException("Country Not Present", CensusAnalyserException.ExceptionType.NO_SUCH_COUNTRY);
+    }
+
+    private <E> List<E> readCensusCSV(Class<E> csvClass, String csvFilePath, RowRejects rowRejects)
+            throws IOException, CsvBuilderException, CensusAnalyserException {
+        List<E> censusCSVList = new ArrayList<>();
+        this.forEachCensusCSV(csvClass, csvFilePath, rowRejects, censusCSVList::add);
+        return censusCSVList;
+    }
+
+    private List<String[]> readStateCodeCSV(String csvFilePath) throws IOException, CsvBuilderException, CensusAnalyserException {
+        List<String[]> stateCodeRows = new ArrayList<>();
+        if (mode == Mode.OPEN_CSV && stateCodeJoin.hasStandardColumns())
+            this.forEachCensusCSV(IndiaStateCodeCSV.class, csvFilePath, null,
+                    csvState -> stateCodeRows.add(new String[]{csvState.stateName, csvState.stateCode}));
+        else
+            this.forEachCensusCSV(stateCodeJoin.lookupBinder(), null, csvFilePath, null, stateCodeRows::add);
+        return stateCodeRows;
+    }
+
+    private <E> void forEachCensusCSV(Class<E> csvClass, String csvFilePath, RowRejects rowRejects,
+                                      Consumer<E> censusCSVConsumer)
+            throws IOException, CsvBuilderException, CensusAnalyserException {
+        this.forEachCensusCSV(CensusCsvBinders.forClass(csvClass), csvClass, csvFilePath, rowRejects, censusCSVConsumer);
+    }
+
+    // without a csvClass there is no OpenCSV bean to bind, OPEN_CSV then reads with the hand written binder, as it
+    // does when bad rows are to be skipped; a compressed file is split by its decompression, not by PARALLEL chunks
+    private <E> void forEachCensusCSV(CsvRowBinder<E> binder, Class<E> csvClass, String csvFilePath,
+                                      RowRejects rowRejects, Consumer<E> censusCSVConsumer)
+            throws IOException, CsvBuilderException, CensusAnalyserException {
+        Mode readMode = (csvClass == null || rowRejects != null) && mode == Mode.OPEN_CSV ? Mode.SEQUENTIAL : mode;
+        if (readMode == Mode.PARALLEL && CompressedInput.isCompressed(Paths.get(csvFilePath)))
+            readMode = Mode.SEQUENTIAL;
+        switch (readMode) {
+            case PARALLEL:
+                if (rowRejects == null) {
+                    new ChunkedCsvReader(Paths.get(csvFilePath)).read(new CensusCsvParser<>(binder)::parse).forEach(censusCSVConsumer);
+                    break;
+                }
+                long lineOffset = 0;
+                for (ParsedChunk<E> chunk : new ChunkedCsvReader(Paths.get(csvFilePath)).read(
+                        (String header, String chunk) -> ParsedChunk.parse(binder, header, chunk))) {
+                    chunk.rows.forEach(censusCSVConsumer);
+                    rowRejects.addAll(chunk.rowRejects, lineOffset);
+                    lineOffset += chunk.lines;
+                }
+                break;
+            case MAPPED:
+                new MappedCsvParser<>(binder, rowRejects).parse(Paths.get(csvFilePath), censusCSVConsumer);
+                break;
+            case OPEN_CSV:
+                try (Reader reader = CompressedInput.newReader(Paths.get(csvFilePath))) {
+                    ICsvBuilder csvBuilder = CsvBuilderFactory.createCSVBuilder();
+                    Iterator<E> csvFileIterator = csvBuilder.getCSVFileIterator(reader, csvClass);
+                    csvFileIterator.forEachRemaining(censusCSVConsumer);
+                }
+                break;
+            default:
+                try (Reader reader = CompressedInput.newReader(Paths.get(csvFilePath))) {
+                    new CensusCsvParser<>(binder, rowRejects).parse(reader, censusCSVConsumer);
+                }
+        }
+    }
+
+    // rows and rejects of one chunk of a PARALLEL load; rejects are numbered from the chunk, whose first line is 2
+    private static final class ParsedChunk<E> {
+        private final List<E> rows;
+        private final RowRejects rowRejects;
+        private final long lines;
+
+        private ParsedChunk(List<E> rows, RowRejects rowRejects, long lines) {
+            this.rows = rows;
+            this.rowRejects = rowRejects;
+            this.lines = lines;
+        }
+
+        static <E> List<ParsedChunk<E>> parse(CsvRowBinder<E> binder, String header, String chunk)
+                throws IOException, CensusAnalyserException {
+            RowRejects rowRejects = new RowRejects();
+            List<E> rows = new CensusCsvParser<>(binder, rowRejects).parse(header, chunk);
+            long lines = 0;
+            for (int i = 0; i < chunk.length(); i++) {
+                if (chunk.charAt(i) == '\n')
+                    lines++;
+            }
+            return Collections.singletonList(new ParsedChunk<>(rows, rowRejects, lines));
+        }
+    }
+
+    private <E> void putCensusData(Map<String, CensusDAO> censusMap, Class<E> csvClass, Iterable<E> censusCSVIterable) {
+        if (csvClass.getName().equals("censusanalyser.model.IndiaCensusCSV")) {
+            StreamSupport.stream(censusCSVIterable.spliterator(), false)
+                    .map(IndiaCensusCSV.class::cast)
+                    .forEach(censusCSV -> censusMap.put(censusCSV.state, new CensusDAO(censusCSV)));
+        }else if (csvClass.getName().equals("censusanalyser.model.USCensusCSV")){
+            StreamSupport.stream(censusCSVIterable.spliterator(), false)
+                    .map(USCensusCSV.class::cast)
+                    .forEach(censusCSV -> censusMap.put(censusCSV.state, new CensusDAO(censusCSV)));
+        }
+    }
+
     private int loadIndiaStateData(Map<String, CensusDAO> censusMap, String csvFilePath) throws CensusAnalyserException {
-        try (Reader reader = Files.newBufferedReader(Paths.get(csvFilePath));) {
-            ICsvBuilder csvBuilder = CsvBuilderFactory.createCSVBuilder();
-            Iterator<IndiaStateCodeCSV> csvStateFileIterator = csvBuilder.getCSVFileIterator(reader, IndiaStateCodeCSV.class);
-            Iterable<IndiaStateCodeCSV> csvIterable = () -> csvStateFileIterator;
-            StreamSupport.stream(csvIterable.spliterator(),false)
-                    .filter( csvState -> censusMap.get(csvState.stateName)!=null)
-                    .forEach(csvState -> censusMap.get(csvState.stateName).stateCode=csvState.stateCode );
+        try {
+            stateCodeJoinReport = stateCodeJoin.join(new ArrayList<>(censusMap.values()), this.readStateCodeCSV(csvFilePath));
             return censusMap.size();
 
         } catch (RuntimeException | CsvBuilderException | IOException e) {
@@ -70,5 +354,43 @@ public class CensusLoader {
         }
     }
 
+    /**
+     * Outcome of parsing a census file: the rows loaded and, for a lenient load, the rows skipped per error type.
+     */
+    public static final class LoadReport {
+        private final int parsedRows;
+        private final long rejectedRows;
+        private final Map<CensusAnalyserException.ExceptionType, Long> rejectCounts;
+        private final Path rejectFile;
+
+        LoadReport(int parsedRows, long rejectedRows, Map<CensusAnalyserException.ExceptionType, Long> rejectCounts,
+                   Path rejectFile) {
+            this.parsedRows = parsedRows;
+            this.rejectedRows = rejectedRows;
+            this.rejectCounts = rejectCounts;
+            this.rejectFile = rejectFile;
+        }
 
+        public int getParsedRows() {
+            return parsedRows;
+        }
+
+        public long getRejectedRows() {
+            return rejectedRows;
+        }
+
+        public Map<CensusAnalyserException.ExceptionType, Long> getRejectCounts() {
+            return rejectCounts;
+        }
+
+        public Path getRejectFile() {
+            return rejectFile;
+        }
+
+        @Override
+        public String toString() {
+            return "LoadReport{parsedRows=" + parsedRows + ", rejectedRows=" + rejectedRows
+                    + ", rejectCounts=" + rejectCounts + ", rejectFile=" + rejectFile + '}';
+        }
+    }
 }
@@ -0,0 +1,53 @@
+package censusanalyser.service;
+
+import censusanalyser.exceptions.CensusAnalyserException;
+
+import java.nio.file.Path;
+
+/**
+ * Receives timing and volume events from loading, joining, querying and snapshot exports. Every method does nothing by default and
+ * {@link #NONE} is installed until another implementation is, so uninstrumented code pays one volatile read and a call
+ * the JIT removes. Callers only read the clock when {@link #isEnabled()} is true.
+ */
+public interface CensusMetrics {
+
+    CensusMetrics NONE = new CensusMetrics() {
+    };
+
+    static CensusMetrics current() {
+        return InstalledCensusMetrics.metrics;
+    }
+
+    static void install(CensusMetrics metrics) {
+        InstalledCensusMetrics.metrics = metrics == null ? NONE : metrics;
+    }
+
+    default boolean isEnabled() {
+        return false;
+    }
+
+    default void parsed(CensusAnalyser.Country country, long rows, long bytes, long nanos) {
+    }
+
+    default void parseFailed(CensusAnalyserException.ExceptionType type) {
+    }
+
+    default void joined(long matchedRows, long unmatchedRows, long unmatchedLookupRows) {
+    }
+
+    default void sorted(CensusQuery query, int rows, long nanos) {
+    }
+
+    default void serialized(int rows, long nanos) {
+    }
+
+    default void snapshotExported(Path target, long bytes) {
+    }
+
+    default void snapshotFailed(Path target, Exception e) {
+    }
+
+    // the snapshot was dropped unwritten because the export queue was full or the exporter closed
+    default void snapshotRejected(Path target) {
+    }
+}
@@ -0,0 +1,52 @@
+package censusanalyser.service;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link JmxCensusMetrics}. Latency histograms have one count per power of two nanoseconds, entry i counts
+ * latencies below 2^i ns.
+ */
+public interface CensusMetricsMXBean {
+
+    long getLoads();
+
+    long getRowsParsed();
+
+    long getBytesRead();
+
+    double getRowsParsedPerSecond();
+
+    Map<String, Long> getParseErrors();
+
+    long getJoinHits();
+
+    long getJoinMisses();
+
+    long getJoinLookupMisses();
+
+    long getSortCount();
+
+    double getSortMeanMicros();
+
+    double getSortP99Micros();
+
+    long[] getSortLatencyHistogram();
+
+    long getSerializeCount();
+
+    double getSerializeMeanMicros();
+
+    double getSerializeP99Micros();
+
+    long[] getSerializeLatencyHistogram();
+
+    long getSnapshotsExported();
+
+    long getSnapshotBytesWritten();
+
+    long getSnapshotsFailed();
+
+    long getSnapshotsRejected();
+
+    void reset();
+}
@@ -0,0 +1,268 @@
+package censusanalyser.service;
+
+import censusanalyser.model.CensusDAO;
+import censusanalyser.model.CensusField;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.DoublePredicate;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Sort keys, filters and a page window over loaded census data. The first key walks its precomputed
+ * {@link CensusIndex} ordering, so only rows tied on it are sorted again by the following keys. Missing values come
+ * last and rows tied on every key stay in row order, whichever way each key sorts.
+ * <p>
+ * Filters added with {@link #whereEquals} or {@link #whereBetween} can be answered from an index: when one of them
+ * selects few enough rows, only those rows are checked and sorted instead of walking the whole ordering.
+ */
+public class CensusQuery {
+
+    private final List<CensusField> sortFields = new ArrayList<>();
+    private final List<Boolean> sortDescending = new ArrayList<>();
+    private final List<CensusField> numericFilterFields = new ArrayList<>();
+    private final List<DoublePredicate> numericFilters = new ArrayList<>();
+    private final List<CensusField> textFilterFields = new ArrayList<>();
+    private final List<Predicate<String>> textFilters = new ArrayList<>();
+    private final List<CensusField> equalityFields = new ArrayList<>();
+    private final List<String> equalityValues = new ArrayList<>();
+    private final List<CensusField> rangeFields = new ArrayList<>();
+    private final List<double[]> ranges = new ArrayList<>();
+    private int offset = 0;
+    private int limit = Integer.MAX_VALUE;
+
+    public static CensusQuery all() {
+        return new CensusQuery();
+    }
+
+    public static CensusQuery orderBy(CensusField field, boolean descending) {
+        return new CensusQuery().thenBy(field, descending);
+    }
+
+    public CensusQuery thenBy(CensusField field, boolean descending) {
+        sortFields.add(field);
+        sortDescending.add(descending);
+        return this;
+    }
+
+    public CensusQuery where(CensusField field, DoublePredicate predicate) {
+        if (!field.isNumeric())
+            throw new IllegalArgumentException(field + " is not a numeric field");
+        numericFilterFields.add(field);
+        numericFilters.add(predicate);
+        return this;
+    }
+
+    public CensusQuery whereBetween(CensusField field, double min, double max) {
+        where(field, value -> value >= min && value <= max);
+        rangeFields.add(field);
+        ranges.add(new double[]{min, max});
+        return this;
+    }
+
+    public CensusQuery whereEquals(CensusField field, String value) {
+        if (field.isNumeric())
+            throw new IllegalArgumentException(field + " is not a text field");
+        Objects.requireNonNull(value, "value");
+        whereText(field, value::equals);
+        equalityFields.add(field);
+        equalityValues.add(value);
+        return this;
+    }
+
+    public CensusQuery whereText(CensusField field, Predicate<String> predicate) {
+        textFilterFields.add(field);
+        textFilters.add(predicate);
+        return this;
+    }
+
+    public CensusQuery offset(int offset) {
+        if (offset < 0)
+            throw new IllegalArgumentException("offset must not be negative: " + offset);
+        this.offset = offset;
+        return this;
+    }
+
+    public CensusQuery limit(int limit) {
+        if (limit < 0)
+            throw new IllegalArgumentException("limit must not be negative: " + limit);
+        this.limit = limit;
+        return this;
+    }
+
+    // rows the query can return at most, counting the skipped offset
+    long window() {
+        return limit == Integer.MAX_VALUE ? Long.MAX_VALUE : (long) offset + limit;
+    }
+
+    int offset() {
+        return offset;
+    }
+
+    // the order execute() returns rows in, for rows read one by one; the sequence stands in for the row number
+    int compare(CensusDAO first, long firstSequence, CensusDAO second, long secondSequence) {
+        for (int key = 0; key < sortFields.size(); key++) {
+            CensusField field = sortFields.get(key);
+            boolean descending = sortDescending.get(key);
+            int result = field.isNumeric()
+                    ? CensusIndex.compareValues(field.numericValue(first), field.numericValue(second), descending)
+                    : CensusIndex.compareText(field.textValue(first), field.textValue(second), descending);
+            if (result != 0)
+                return result;
+        }
+        return Long.compare(firstSequence, secondSequence);
+    }
+
+    int[] execute(CensusIndex censusIndex, CensusTable censusTable) {
+        int[] positions = this.plan(censusIndex, censusTable.size());
+        if (positions != null)
+            return this.executeIndexed(censusIndex, censusTable, positions);
+        long end = Math.min(window(), censusTable.size());
+        int[] rows = new int[(int) Math.max(0, end - offset)];
+        if (rows.length == 0)
+            return rows;
+        int[] collected = new int[1];
+        this.walk(censusIndex, censusTable, row -> rows[collected[0]++] = row);
+        return collected[0] == rows.length ? rows : Arrays.copyOf(rows, collected[0]);
+    }
+
+    /**
+     * Hands the rows {@link #execute} returns to consumer one at a time and returns their count. Walking an ordering
+     * only buffers rows tied on the first key, an indexed filter still sorts the rows it selected.
+     */
+    int forEach(CensusIndex censusIndex, CensusTable censusTable, IntConsumer consumer) {
+        int[] positions = this.plan(censusIndex, censusTable.size());
+        if (positions == null)
+            return this.walk(censusIndex, censusTable, consumer);
+        int[] rows = this.executeIndexed(censusIndex, censusTable, positions);
+        for (int row : rows)
+            consumer.accept(row);
+        return rows.length;
+    }
+
+    private int walk(CensusIndex censusIndex, CensusTable censusTable, IntConsumer consumer) {
+        int size = censusTable.size();
+        long end = Math.min(window(), size);
+        int[] run = new int[16];
+        int matched = 0;
+        int collected = 0;
+        for (int position = 0; position < size && matched < end; ) {
+            int runLength = 0;
+            int first = rowAt(censusIndex, position);
+            do {
+                int row = rowAt(censusIndex, position++);
+                if (!matches(censusTable, row))
+                    continue;
+                if (runLength == run.length)
+                    run = Arrays.copyOf(run, runLength * 2);
+                run[runLength++] = row;
+            } while (position < size && sortFields.size() > 1
+                    && compare(censusTable, 0, first, rowAt(censusIndex, position)) == 0);
+            if (runLength > 1 && sortFields.size() > 1)
+                sortRun(censusTable, run, runLength);
+            for (int i = 0; i < runLength && matched < end; i++, matched++) {
+                if (matched >= offset) {
+                    consumer.accept(run[i]);
+                    collected++;
+                }
+            }
+        }
+        return collected;
+    }
+
+    /**
+     * Picks the indexed filter selecting the fewest rows, as a slice of its field's ordering, or null when walking the
+     * ordering is cheaper: that walk stops once the page is full, the indexed rows all have to be sorted.
+     */
+    private int[] plan(CensusIndex censusIndex, int size) {
+        int[] best = null;
+        CensusField bestField = null;
+        for (int i = 0; i < equalityFields.size(); i++) {
+            int[] positions = censusIndex.lookupPositions(equalityFields.get(i), equalityValues.get(i));
+            if (best == null || positions[1] - positions[0] < best[1] - best[0]) {
+                best = positions;
+                bestField = equalityFields.get(i);
+            }
+        }
+        for (int i = 0; i < rangeFields.size(); i++) {
+            int[] positions = censusIndex.rangePositions(rangeFields.get(i), ranges.get(i)[0], ranges.get(i)[1]);
+            if (best == null || positions[1] - positions[0] < best[1] - best[0]) {
+                best = positions;
+                bestField = rangeFields.get(i);
+            }
+        }
+        if (best == null)
+            return null;
+        long selected = best[1] - best[0];
+        long scanned = Math.min(size, window() >= size ? size : window() * size / Math.max(1, selected));
+        long sorted = selected * (64 - Long.numberOfLeadingZeros(selected));
+        if (selected > 0 && sorted >= scanned)
+            return null;
+        return new int[]{bestField.ordinal(), best[0], best[1]};
+    }
+
+    private int[] executeIndexed(CensusIndex censusIndex, CensusTable censusTable, int[] plan) {
+        CensusField field = CensusField.values()[plan[0]];
+        int[] rows = new int[plan[2] - plan[1]];
+        int matched = 0;
+        for (int position = plan[1]; position < plan[2]; position++) {
+            int row = censusIndex.row(field, false, position);
+            if (matches(censusTable, row))
+                rows[matched++] = row;
+        }
+        rows = Arrays.copyOf(rows, matched);
+        IndexSort.sort(rows, (first, second) -> {
+            for (int key = 0; key < sortFields.size(); key++) {
+                int result = compare(censusTable, key, first, second);
+                if (result != 0)
+                    return result;
+            }
+            return Integer.compare(first, second);
+        });
+        long end = Math.min(window(), rows.length);
+        return offset >= end ? new int[0] : Arrays.copyOfRange(rows, offset, (int) end);
+    }
+
+    private int rowAt(CensusIndex censusIndex, int position) {
+        if (sortFields.isEmpty())
+            return position;
+        return censusIndex.row(sortFields.get(0), sortDescending.get(0), position);
+    }
+
+    boolean matches(CensusTable censusTable, int row) {
+        for (int i = 0; i < numericFilters.size(); i++) {
+            if (!numericFilters.get(i).test(censusTable.value(numericFilterFields.get(i), row)))
+                return false;
+        }
+        for (int i = 0; i < textFilters.size(); i++) {
+            if (!textFilters.get(i).test(censusTable.text(textFilterFields.get(i), row)))
+                return false;
+        }
+        return true;
+    }
+
+    // rows in a run already share the first key and keep its index order, so the stable sort only applies the rest
+    private void sortRun(CensusTable censusTable, int[] run, int runLength) {
+        int[] sortedRun = Arrays.copyOf(run, runLength);
+        IndexSort.sort(sortedRun, (first, second) -> {
+            for (int key = 1; key < sortFields.size(); key++) {
+                int result = compare(censusTable, key, first, second);
+                if (result != 0)
+                    return result;
+            }
+            return 0;
+        });
+        System.arraycopy(sortedRun, 0, run, 0, runLength);
+    }
+
+    private int compare(CensusTable censusTable, int key, int first, int second) {
+        CensusField field = sortFields.get(key);
+        boolean descending = sortDescending.get(key);
+        return field.isNumeric()
+                ? CensusIndex.compareValues(censusTable.value(field, first), censusTable.value(field, second), descending)
+                : CensusIndex.compareText(censusTable.text(field, first), censusTable.text(field, second), descending);
+    }
+}
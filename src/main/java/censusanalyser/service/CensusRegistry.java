@@ -0,0 +1,196 @@
+package censusanalyser.service;
+
+import censusanalyser.exceptions.CensusAnalyserException;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps one loaded {@link CensusDataset} per country, so several countries can be queried without reading their
+ * files again. Countries passed to {@link #loadAll} are loaded concurrently.
+ * <p>
+ * The loaded datasets are an immutable map swapped by compare-and-set. Reloads are built off to the side and then
+ * published, so readers never wait and always see complete datasets from one {@link #snapshot()}.
+ */
+public class CensusRegistry {
+
+    private static final ExecutorService LOADER_EXECUTOR = TaskExecutors.newPerTaskExecutor("census-loader");
+
+    private final AtomicReference<Map<CensusAnalyser.Country, CensusDataset>> datasets =
+            new AtomicReference<>(Collections.emptyMap());
+    private final AtomicLong versions = new AtomicLong();
+    private final CensusLoader.Mode loadMode;
+    private final boolean columnarStore;
+    private final Executor executor;
+    private volatile Path snapshotDirectory;
+    private volatile StateCodeJoin stateCodeJoin = new StateCodeJoin();
+
+    public CensusRegistry() {
+        this(CensusLoader.Mode.SEQUENTIAL, false);
+    }
+
+    public CensusRegistry(CensusLoader.Mode loadMode, boolean columnarStore) {
+        this(loadMode, columnarStore, LOADER_EXECUTOR);
+    }
+
+    public CensusRegistry(CensusLoader.Mode loadMode, boolean columnarStore, Executor executor) {
+        this.loadMode = loadMode;
+        this.columnarStore = columnarStore;
+        this.executor = executor;
+    }
+
+    public void setSnapshotDirectory(Path snapshotDirectory) {
+        this.snapshotDirectory = snapshotDirectory;
+    }
+
+    /**
+     * The join that gives census rows the codes of a state code file, for loads and for the reloads of a
+     * {@link CensusFileWatcher} on this registry.
+     */
+    public void setStateCodeJoin(StateCodeJoin stateCodeJoin) {
+        this.stateCodeJoin = stateCodeJoin;
+    }
+
+    StateCodeJoin stateCodeJoin() {
+        return stateCodeJoin;
+    }
+
+    public CensusDataset load(CensusAnalyser.Country country, String... csvFilePath) throws CensusAnalyserException {
+        CensusDataset censusDataset = this.read(country, csvFilePath);
+        this.publish(Collections.singletonList(censusDataset));
+        return censusDataset;
+    }
+
+    public Map<CensusAnalyser.Country, CensusDataset> loadAll(Map<CensusAnalyser.Country, String[]> csvFilePaths)
+            throws CensusAnalyserException {
+        return this.loadAll(csvFilePaths, false);
+    }
+
+    public Map<CensusAnalyser.Country, CensusDataset> loadAllIfAbsent(Map<CensusAnalyser.Country, String[]> csvFilePaths)
+            throws CensusAnalyserException {
+        return this.loadAll(csvFilePaths, true);
+    }
+
+    public CensusDataset get(CensusAnalyser.Country country) throws CensusAnalyserException {
+        CensusDataset censusDataset = datasets.get().get(country);
+        if (censusDataset == null)
+            throw new CensusAnalyserException(country + " census data is not loaded",
+                    CensusAnalyserException.ExceptionType.NO_CENSUS_DATA);
+        return censusDataset;
+    }
+
+    public Map<CensusAnalyser.Country, CensusDataset> snapshot() {
+        return datasets.get();
+    }
+
+    public boolean isLoaded(CensusAnalyser.Country country) {
+        return datasets.get().containsKey(country);
+    }
+
+    public Set<CensusAnalyser.Country> countries() {
+        return datasets.get().keySet();
+    }
+
+    public void unload(CensusAnalyser.Country country) {
+        Map<CensusAnalyser.Country, CensusDataset> current;
+        Map<CensusAnalyser.Country, CensusDataset> next;
+        do {
+            current = datasets.get();
+            if (!current.containsKey(country))
+                return;
+            next = new EnumMap<>(current);
+            next.remove(country);
+        } while (!datasets.compareAndSet(current, next.isEmpty()
+                ? Collections.emptyMap() : Collections.unmodifiableMap(next)));
+    }
+
+    private Map<CensusAnalyser.Country, CensusDataset> loadAll(Map<CensusAnalyser.Country, String[]> csvFilePaths,
+                                                               boolean reuseLoaded) throws CensusAnalyserException {
+        Map<CensusAnalyser.Country, CensusDataset> loaded = new EnumMap<>(CensusAnalyser.Country.class);
+        List<CompletableFuture<CensusDataset>> pending = new ArrayList<>();
+        for (Map.Entry<CensusAnalyser.Country, String[]> source : csvFilePaths.entrySet()) {
+            CensusDataset current = datasets.get().get(source.getKey());
+            if (reuseLoaded && current != null && current.isLoadedFrom(source.getValue())) {
+                loaded.put(source.getKey(), current);
+                continue;
+            }
+            pending.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return this.read(source.getKey(), source.getValue());
+                } catch (CensusAnalyserException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor));
+        }
+        List<CensusDataset> read = new ArrayList<>(pending.size());
+        for (CompletableFuture<CensusDataset> future : pending)
+            read.add(join(future));
+        Map<CensusAnalyser.Country, CensusDataset> published = this.publish(read);
+        for (CensusDataset censusDataset : read)
+            loaded.put(censusDataset.country(), published.get(censusDataset.country()));
+        return loaded;
+    }
+
+    // a dataset never replaces one whose read started later, so concurrent reloads of a country keep the newest
+    Map<CensusAnalyser.Country, CensusDataset> publish(List<CensusDataset> censusDatasets) {
+        Map<CensusAnalyser.Country, CensusDataset> current;
+        Map<CensusAnalyser.Country, CensusDataset> next;
+        do {
+            current = datasets.get();
+            next = current.isEmpty() ? new EnumMap<>(CensusAnalyser.Country.class) : new EnumMap<>(current);
+            for (CensusDataset censusDataset : censusDatasets) {
+                CensusDataset loaded = next.get(censusDataset.country());
+                if (loaded == null || loaded.version() < censusDataset.version())
+                    next.put(censusDataset.country(), censusDataset);
+            }
+        } while (!datasets.compareAndSet(current, Collections.unmodifiableMap(next)));
+        return next;
+    }
+
+    long nextVersion() {
+        return versions.incrementAndGet();
+    }
+
+    // a full read with this registry's mode, layout and snapshots, not yet published
+    CensusDataset read(CensusAnalyser.Country country, String... csvFilePath) throws CensusAnalyserException {
+        long version = this.nextVersion();
+        CensusLoader censusLoader = this.newLoader();
+        CensusTable censusTable = columnarStore
+                ? censusLoader.loadColumnarCensusData(country, csvFilePath)
+                : new CensusRowTable(censusLoader.loadCensusData(country, csvFilePath).values());
+        return new CensusDataset(country, version, csvFilePath, censusTable);
+    }
+
+    boolean isColumnarStore() {
+        return columnarStore;
+    }
+
+    CensusLoader newLoader() {
+        return new CensusLoader(loadMode, snapshotDirectory, stateCodeJoin);
+    }
+
+    private static CensusDataset join(CompletableFuture<CensusDataset> future) throws CensusAnalyserException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof CensusAnalyserException)
+                throw (CensusAnalyserException) e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw e;
+        }
+    }
+}
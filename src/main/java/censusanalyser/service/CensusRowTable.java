@@ -0,0 +1,73 @@
+package censusanalyser.service;
+
+import censusanalyser.model.CensusDAO;
+import censusanalyser.model.CensusField;
+import censusanalyser.model.IndiaCensusCSV;
+
+import java.util.Collection;
+
+/**
+ * The object layout: one {@link CensusDAO} per row. The rows are never handed out, {@link #get} returns a copy, so a
+ * caller changing a row it got back can not change the table other readers see.
+ */
+public class CensusRowTable implements CensusTable {
+
+    private final CensusDAO[] censusRows;
+
+    public CensusRowTable(Collection<CensusDAO> censusData) {
+        this.censusRows = censusData.toArray(new CensusDAO[0]);
+    }
+
+    CensusRowTable(CensusDAO[] censusRows) {
+        this.censusRows = censusRows;
+    }
+
+    @Override
+    public int size() {
+        return censusRows.length;
+    }
+
+    @Override
+    public CensusDAO get(int row) {
+        return copy(censusRows[row]);
+    }
+
+    @Override
+    public void read(int row, CensusDAO censusDAO) {
+        copy(censusRows[row], censusDAO);
+    }
+
+    // the table's own row, for building another table that shares it
+    CensusDAO row(int row) {
+        return censusRows[row];
+    }
+
+    static CensusDAO copy(CensusDAO censusDAO) {
+        CensusDAO copy = new CensusDAO(new IndiaCensusCSV());
+        copy(censusDAO, copy);
+        return copy;
+    }
+
+    private static void copy(CensusDAO censusDAO, CensusDAO copy) {
+        copy.state = censusDAO.state;
+        copy.stateCode = censusDAO.stateCode;
+        copy.population = censusDAO.population;
+        copy.densityPerSqKm = censusDAO.densityPerSqKm;
+        copy.areaInSqKm = censusDAO.areaInSqKm;
+        copy.populationDensity = censusDAO.populationDensity;
+        copy.housingUnits = censusDAO.housingUnits;
+        copy.totalArea = censusDAO.totalArea;
+        copy.waterArea = censusDAO.waterArea;
+        copy.housingDensity = censusDAO.housingDensity;
+    }
+
+    @Override
+    public double value(CensusField field, int row) {
+        return field.numericValue(censusRows[row]);
+    }
+
+    @Override
+    public String text(CensusField field, int row) {
+        return field.textValue(censusRows[row]);
+    }
+}
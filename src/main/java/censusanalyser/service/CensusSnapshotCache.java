@@ -0,0 +1,138 @@
+package censusanalyser.service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Binary columnar snapshot of a {@link ColumnarCensusStore}, stamped with the length and CRC32 of every source csv.
+ * A snapshot whose stamp still matches the sources is memory mapped and copied into the columns in bulk instead of
+ * parsing the csv files again.
+ * <p>
+ * The snapshot file name is derived from the country, the source paths and a variant naming how the sources were
+ * combined, so differently configured loads keep separate snapshots.
+ * <p>
+ * Layout: magic, format version, country, source count, length and checksum per source, payload length, payload.
+ */
+class CensusSnapshotCache {
+
+    private static final int MAGIC = 0x43534e50;
+    private static final int FORMAT_VERSION = 1;
+    private static final long CHECKSUM_WINDOW = 256L * 1024 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final CensusAnalyser.Country country;
+    private final Path snapshotPath;
+    private final long[] sourceLengths;
+    private final long[] sourceChecksums;
+
+    private CensusSnapshotCache(CensusAnalyser.Country country, Path snapshotPath, long[] sourceLengths,
+                                long[] sourceChecksums) {
+        this.country = country;
+        this.snapshotPath = snapshotPath;
+        this.sourceLengths = sourceLengths;
+        this.sourceChecksums = sourceChecksums;
+    }
+
+    // null when a source can not be read, the csv load then reports the problem as it always did
+    static CensusSnapshotCache of(Path snapshotDirectory, CensusAnalyser.Country country, String variant,
+                                  String... csvFilePath) {
+        long[] sourceLengths = new long[csvFilePath.length];
+        long[] sourceChecksums = new long[csvFilePath.length];
+        StringBuilder sources = new StringBuilder(country.name()).append('\n').append(variant);
+        try {
+            for (int i = 0; i < csvFilePath.length; i++) {
+                Path source = Paths.get(csvFilePath[i]).toAbsolutePath().normalize();
+                sources.append('\n').append(source);
+                try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+                    sourceLengths[i] = channel.size();
+                    sourceChecksums[i] = checksum(channel);
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        CRC32 key = new CRC32();
+        key.update(sources.toString().getBytes(StandardCharsets.UTF_8));
+        String fileName = country.name().toLowerCase() + "-" + Long.toHexString(key.getValue()) + ".snapshot";
+        return new CensusSnapshotCache(country, snapshotDirectory.resolve(fileName), sourceLengths, sourceChecksums);
+    }
+
+    // null when there is no snapshot or it was written for other source content or by another format version
+    ColumnarCensusStore read() {
+        if (!Files.isRegularFile(snapshotPath))
+            return null;
+        try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION || in.getInt() != country.ordinal()
+                    || in.getInt() != sourceLengths.length)
+                return null;
+            for (int i = 0; i < sourceLengths.length; i++) {
+                if (in.getLong() != sourceLengths[i] || in.getLong() != sourceChecksums[i])
+                    return null;
+            }
+            if (in.getLong() != in.remaining())
+                return null;
+            return ColumnarCensusStore.readFrom(country, in);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    void write(ColumnarCensusStore censusStore) throws IOException {
+        Files.createDirectories(snapshotPath.getParent());
+        Path temporary = Files.createTempFile(snapshotPath.getParent(), snapshotPath.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel),
+                        WRITE_BUFFER_SIZE));
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(country.ordinal());
+                out.writeInt(sourceLengths.length);
+                for (int i = 0; i < sourceLengths.length; i++) {
+                    out.writeLong(sourceLengths[i]);
+                    out.writeLong(sourceChecksums[i]);
+                }
+                long payloadLengthPosition = out.size();
+                out.writeLong(0);
+                censusStore.writeTo(out);
+                out.flush();
+                long payloadLength = channel.position() - payloadLengthPosition - Long.BYTES;
+                ByteBuffer length = ByteBuffer.allocate(Long.BYTES);
+                length.putLong(0, payloadLength);
+                channel.write(length, payloadLengthPosition);
+            }
+            try {
+                Files.move(temporary, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, snapshotPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static long checksum(FileChannel channel) throws IOException {
+        CRC32 crc = new CRC32();
+        long size = channel.size();
+        for (long position = 0; position < size; position += CHECKSUM_WINDOW) {
+            ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(CHECKSUM_WINDOW, size - position));
+            crc.update(window);
+        }
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,77 @@
+package censusanalyser.service;
+
+/**
+ * Count, sum, extremes and optionally approximate quantiles of one numeric field over a group of rows.
+ */
+public final class CensusStatistics {
+
+    private final QuantileSketch sketch;
+    private long count;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    CensusStatistics(boolean quantiles) {
+        this.sketch = quantiles ? new QuantileSketch() : null;
+    }
+
+    void add(double value) {
+        if (Double.isNaN(value))
+            return;
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        if (sketch != null)
+            sketch.add(value);
+    }
+
+    void merge(CensusStatistics other) {
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        if (sketch != null)
+            sketch.merge(other.sketch);
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public double sum() {
+        return sum;
+    }
+
+    public double min() {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    public double max() {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    public double mean() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    /**
+     * Value at the given fraction of the sorted values, within 1% of an exact answer. Only available for fields
+     * named in {@link CensusAggregation#quantiles}.
+     */
+    public double quantile(double fraction) {
+        if (sketch == null)
+            throw new IllegalStateException("No quantiles were requested for this field");
+        if (fraction < 0 || fraction > 1)
+            throw new IllegalArgumentException("fraction must be between 0 and 1: " + fraction);
+        if (count == 0)
+            return Double.NaN;
+        return Math.max(min, Math.min(max, sketch.quantile(fraction)));
+    }
+
+    @Override
+    public String toString() {
+        return "CensusStatistics{count=" + count + ", sum=" + sum + ", min=" + min() + ", max=" + max()
+                + ", mean=" + mean() + '}';
+    }
+}
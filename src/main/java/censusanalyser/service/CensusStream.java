@@ -0,0 +1,215 @@
+package censusanalyser.service;
+
+import censusanalyser.exceptions.CensusAnalyserException;
+import censusanalyser.model.CensusDAO;
+import censusanalyser.model.CensusField;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Answers queries in one pass over a census csv without loading it, for files too large to keep in memory. Queries
+ * are registered first and all of them are fed by the same {@link #run()}; each keeps only what its answer needs,
+ * the groups of an aggregation or the offset plus limit best rows of a query.
+ * <pre>
+ *     CensusStream censusStream = new CensusStream(CensusAnalyser.Country.US, csvFilePath);
+ *     CensusStream.Result&lt;List&lt;CensusDAO&gt;&gt; mostPopulous = censusStream.topK(CensusField.POPULATION, 10);
+ *     CensusStream.Result&lt;List&lt;CensusGroup&gt;&gt; totals = censusStream.aggregate(CensusAggregation.all());
+ *     censusStream.run();
+ * </pre>
+ */
+public class CensusStream {
+
+    private interface Sink {
+        void accept(CensusTable censusRow, CensusDAO censusDAO, long sequence);
+
+        void finish();
+    }
+
+    private final CensusAnalyser.Country country;
+    private final StateCodeJoin stateCodeJoin;
+    private final String[] csvFilePath;
+    private final List<Sink> sinks = new ArrayList<>();
+    private boolean ran;
+
+    /**
+     * @param csvFilePath the census csv, optionally followed by a state code csv that is small enough to keep
+     */
+    public CensusStream(CensusAnalyser.Country country, String... csvFilePath) {
+        this(country, new StateCodeJoin(), csvFilePath);
+    }
+
+    /**
+     * A stream whose rows get the codes of the state code csv through {@code stateCodeJoin}, a batch of rows at a
+     * time.
+     */
+    public CensusStream(CensusAnalyser.Country country, StateCodeJoin stateCodeJoin, String... csvFilePath) {
+        this.country = country;
+        this.stateCodeJoin = stateCodeJoin;
+        this.csvFilePath = csvFilePath.clone();
+    }
+
+    public Result<List<CensusGroup>> aggregate(CensusAggregation aggregation) {
+        Result<List<CensusGroup>> result = new Result<>();
+        this.register(new Sink() {
+            private final Map<String, CensusGroup> groups = new HashMap<>();
+            private CensusGroup lastGroup;
+
+            @Override
+            public void accept(CensusTable censusRow, CensusDAO censusDAO, long sequence) {
+                lastGroup = aggregation.accumulate(groups, censusRow, 0, lastGroup);
+            }
+
+            @Override
+            public void finish() {
+                result.value = CensusAggregation.sorted(groups);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Rows of the query in the order {@link CensusAnalyser#query} would return them. The query must have a limit,
+     * the rows it keeps while streaming are bounded by its offset plus limit.
+     */
+    public Result<List<CensusDAO>> query(CensusQuery query) {
+        long window = query.window();
+        if (window > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("A streamed query needs a limit");
+        Result<List<CensusDAO>> result = new Result<>();
+        this.register(new Sink() {
+            private final CensusDAO[] heap = new CensusDAO[(int) window];
+            private final long[] sequences = new long[(int) window];
+            private int size;
+
+            // the heap root is the row that would be dropped first
+            @Override
+            public void accept(CensusTable censusRow, CensusDAO censusDAO, long sequence) {
+                if (heap.length == 0 || !query.matches(censusRow, 0))
+                    return;
+                int position;
+                if (size < heap.length) {
+                    position = size++;
+                    while (position > 0) {
+                        int parent = (position - 1) >>> 1;
+                        if (query.compare(heap[parent], sequences[parent], censusDAO, sequence) >= 0)
+                            break;
+                        heap[position] = heap[parent];
+                        sequences[position] = sequences[parent];
+                        position = parent;
+                    }
+                } else {
+                    if (query.compare(censusDAO, sequence, heap[0], sequences[0]) >= 0)
+                        return;
+                    position = 0;
+                    while (true) {
+                        int child = 2 * position + 1;
+                        if (child >= size)
+                            break;
+                        if (child + 1 < size && query.compare(heap[child + 1], sequences[child + 1], heap[child], sequences[child]) > 0)
+                            child++;
+                        if (query.compare(heap[child], sequences[child], censusDAO, sequence) <= 0)
+                            break;
+                        heap[position] = heap[child];
+                        sequences[position] = sequences[child];
+                        position = child;
+                    }
+                }
+                heap[position] = censusDAO;
+                sequences[position] = sequence;
+            }
+
+            @Override
+            public void finish() {
+                Integer[] order = new Integer[size];
+                for (int i = 0; i < size; i++)
+                    order[i] = i;
+                Arrays.sort(order, (first, second) -> query.compare(heap[first], sequences[first], heap[second], sequences[second]));
+                List<CensusDAO> censusList = new ArrayList<>(Math.max(0, size - query.offset()));
+                for (int i = query.offset(); i < size; i++)
+                    censusList.add(heap[order[i]]);
+                result.value = censusList;
+            }
+        });
+        return result;
+    }
+
+    public Result<List<CensusDAO>> topK(CensusField field, int k) {
+        return this.query(CensusQuery.orderBy(field, true).limit(k));
+    }
+
+    public Result<List<CensusDAO>> bottomK(CensusField field, int k) {
+        return this.query(CensusQuery.orderBy(field, false).limit(k));
+    }
+
+    /**
+     * Reads the csv once and completes every registered result.
+     *
+     * @return the number of census rows read
+     */
+    public long run() throws CensusAnalyserException {
+        if (ran)
+            throw new IllegalStateException("A census stream can only be run once");
+        ran = true;
+        try {
+            CensusDAO[] current = new CensusDAO[1];
+            CensusTable censusRow = new CensusRowTable(current);
+            long[] sequence = {0};
+            Consumer<CensusDAO> rows = censusDAO -> this.accept(current, censusDAO, censusRow, sequence);
+            StateCodeJoin.BatchJoin<CensusDAO> batchJoin = csvFilePath.length > 1
+                    ? stateCodeJoin.batchJoin(stateCodeJoin.readLookup(csvFilePath[1]), Function.identity(), rows)
+                    : null;
+            Consumer<CensusDAO> censusRows = batchJoin == null ? rows : batchJoin::accept;
+            if (country == CensusAnalyser.Country.INDIA)
+                new MappedCsvParser<>(CensusCsvBinders.INDIA_CENSUS).parse(Paths.get(csvFilePath[0]),
+                        censusCSV -> censusRows.accept(new CensusDAO(censusCSV)));
+            else if (country == CensusAnalyser.Country.US)
+                new MappedCsvParser<>(CensusCsvBinders.US_CENSUS).parse(Paths.get(csvFilePath[0]),
+                        censusCSV -> censusRows.accept(new CensusDAO(censusCSV)));
+            else
+                throw new CensusAnalyserException("Country Not Present", CensusAnalyserException.ExceptionType.NO_SUCH_COUNTRY);
+            if (batchJoin != null)
+                batchJoin.flush();
+            for (Sink sink : sinks)
+                sink.finish();
+            return sequence[0];
+        } catch (IOException e) {
+            throw new CensusAnalyserException(e.getMessage(), CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM);
+        } catch (RuntimeException e) {
+            throw new CensusAnalyserException(e.getMessage(), CensusAnalyserException.ExceptionType.WRONG_DELIMITER_HEADER);
+        }
+    }
+
+    private void register(Sink sink) {
+        if (ran)
+            throw new IllegalStateException("Queries must be added before the census stream is run");
+        sinks.add(sink);
+    }
+
+    private void accept(CensusDAO[] current, CensusDAO censusDAO, CensusTable censusRow, long[] sequence) {
+        current[0] = censusDAO;
+        for (Sink sink : sinks)
+            sink.accept(censusRow, censusDAO, sequence[0]);
+        sequence[0]++;
+    }
+
+    /**
+     * The answer of one registered query, available once the stream has run.
+     */
+    public static final class Result<T> {
+        private T value;
+
+        public T get() {
+            if (value == null)
+                throw new IllegalStateException("The census stream has not been run yet");
+            return value;
+        }
+    }
+}
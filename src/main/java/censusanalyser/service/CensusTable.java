@@ -0,0 +1,27 @@
+package censusanalyser.service;
+
+import censusanalyser.model.CensusDAO;
+import censusanalyser.model.CensusField;
+
+/**
+ * Row addressed view over loaded census data, so indexes and queries work the same on every storage layout.
+ */
+public interface CensusTable {
+
+    int size();
+
+    CensusDAO get(int row);
+
+    // copies the row into censusDAO, setting every field the way get does, so one DAO can be reused across rows
+    void read(int row, CensusDAO censusDAO);
+
+    double value(CensusField field, int row);
+
+    String text(CensusField field, int row);
+
+    // the field's values of count rows from row from on, written to out from offset on
+    default void values(CensusField field, int from, int count, double[] out, int offset) {
+        for (int i = 0; i < count; i++)
+            out[offset + i] = value(field, from + i);
+    }
+}
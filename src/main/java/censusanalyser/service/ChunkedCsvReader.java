@@ -0,0 +1,141 @@
+package censusanalyser.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Splits a csv file into byte ranges that start and end on line boundaries and parses them on a fork-join pool.
+ * Chunks are at most 64 MB and only twice the pool's parallelism of them are decoded or parsed at once, so a large
+ * file never has more than that in memory as text. Quoted cells spanning several lines are not supported, which holds
+ * for the census files.
+ */
+class ChunkedCsvReader {
+
+    interface ChunkParser<T, X extends Exception> {
+        List<T> parse(String header, String chunk) throws IOException, X;
+    }
+
+    private static final int MIN_CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    private final Path csvFilePath;
+    private final ForkJoinPool pool;
+    private final int maxChunkSize;
+    private final int maxChunksInFlight;
+
+    ChunkedCsvReader(Path csvFilePath) {
+        this(csvFilePath, ForkJoinPool.commonPool());
+    }
+
+    ChunkedCsvReader(Path csvFilePath, ForkJoinPool pool) {
+        this(csvFilePath, pool, MAX_CHUNK_SIZE, pool.getParallelism() * 2);
+    }
+
+    ChunkedCsvReader(Path csvFilePath, ForkJoinPool pool, int maxChunkSize, int maxChunksInFlight) {
+        this.csvFilePath = csvFilePath;
+        this.pool = pool;
+        this.maxChunkSize = maxChunkSize;
+        this.maxChunksInFlight = Math.max(1, maxChunksInFlight);
+    }
+
+    <T, X extends Exception> List<T> read(ChunkParser<T, X> chunkParser) throws IOException, X {
+        try (FileChannel channel = FileChannel.open(csvFilePath, StandardOpenOption.READ)) {
+            long headerEnd = nextLineStart(channel, 0);
+            String header = stripLineEnd(decode(channel, 0, headerEnd));
+            // chunks are joined in file order, the next one is submitted as the oldest finishes
+            Deque<ForkJoinTask<List<T>>> tasks = new ArrayDeque<>();
+            List<T> rows = new ArrayList<>();
+            try {
+                for (long[] range : split(channel, headerEnd)) {
+                    if (tasks.size() == maxChunksInFlight)
+                        rows.addAll(this.<T, X>join(tasks.poll()));
+                    tasks.add(pool.submit(() -> chunkParser.parse(header, decode(channel, range[0], range[1]))));
+                }
+                while (!tasks.isEmpty())
+                    rows.addAll(this.<T, X>join(tasks.poll()));
+            } finally {
+                for (ForkJoinTask<List<T>> task : tasks)
+                    task.cancel(false);
+            }
+            return rows;
+        }
+    }
+
+    private List<long[]> split(FileChannel channel, long dataStart) throws IOException {
+        long size = channel.size();
+        long chunkSize = Math.min(maxChunkSize,
+                Math.max(MIN_CHUNK_SIZE, (size - dataStart) / (pool.getParallelism() * 4L) + 1));
+        List<long[]> ranges = new ArrayList<>();
+        long start = dataStart;
+        do {
+            long end = start + chunkSize >= size ? size : nextLineStart(channel, start + chunkSize);
+            if (end - start > Integer.MAX_VALUE)
+                throw new IOException("Line at byte " + start + " of " + csvFilePath + " is longer than 2 GB");
+            ranges.add(new long[]{start, end});
+            start = end;
+        } while (start < size);
+        return ranges;
+    }
+
+    private static long nextLineStart(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long size = channel.size();
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n')
+                    return position + i + 1;
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private static String decode(FileChannel channel, long start, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0)
+                break;
+        }
+        return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+    }
+
+    private static String stripLineEnd(String line) {
+        int end = line.length();
+        while (end > 0 && (line.charAt(end - 1) == '\n' || line.charAt(end - 1) == '\r'))
+            end--;
+        return line.substring(0, end);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T, X extends Exception> List<T> join(ForkJoinTask<List<T>> task) throws IOException, X {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw (X) cause;
+        }
+    }
+}
@@ -0,0 +1,501 @@
+package censusanalyser.service;
+
+import censusanalyser.model.CensusDAO;
+import censusanalyser.model.CensusField;
+import censusanalyser.model.IndiaCensusCSV;
+import censusanalyser.model.USCensusCSV;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Census data kept as primitive columns with dictionary encoded state and state code columns. Rows are keyed by
+ * state like the census map, and {@link CensusDAO} objects are only created for rows a query returns.
+ */
+public class ColumnarCensusStore implements CensusTable {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final CensusAnalyser.Country country;
+    private final StringDictionary states = new StringDictionary();
+    private final StringDictionary stateCodes = new StringDictionary();
+    private int size;
+    private int[] stateIds = new int[0];
+    private int[] stateCodeIds = new int[0];
+    private int[] population = new int[0];
+    private int[] housingUnits = new int[0];
+    private int[] areaInSqKm = new int[0];
+    private int[] densityPerSqKm = new int[0];
+    private double[] totalArea = new double[0];
+    private double[] waterArea = new double[0];
+    private double[] landArea = new double[0];
+    private double[] populationDensity = new double[0];
+    private double[] housingDensity = new double[0];
+
+    public ColumnarCensusStore(CensusAnalyser.Country country) {
+        this.country = country;
+        resize(INITIAL_CAPACITY);
+    }
+
+    void add(IndiaCensusCSV censusCSV) {
+        int row = rowFor(censusCSV.state);
+        stateCodeIds[row] = -1;
+        population[row] = censusCSV.population;
+        areaInSqKm[row] = censusCSV.areaInSqKm;
+        densityPerSqKm[row] = censusCSV.densityPerSqKm;
+    }
+
+    void add(USCensusCSV censusCSV) {
+        int row = rowFor(censusCSV.state);
+        stateCodeIds[row] = censusCSV.stateId == null ? -1 : stateCodes.id(censusCSV.stateId);
+        population[row] = censusCSV.population;
+        housingUnits[row] = censusCSV.housingUnits;
+        totalArea[row] = censusCSV.totalArea;
+        waterArea[row] = censusCSV.waterArea;
+        landArea[row] = censusCSV.landArea;
+        populationDensity[row] = censusCSV.populationDensity;
+        housingDensity[row] = censusCSV.housingDensity;
+    }
+
+    // a row of another store of the same country, as it is there
+    void add(ColumnarCensusStore source, int sourceRow) {
+        int row = rowFor(source.states.value(source.stateIds[sourceRow]));
+        int stateCodeId = source.stateCodeIds[sourceRow];
+        stateCodeIds[row] = stateCodeId < 0 ? -1 : stateCodes.id(source.stateCodes.value(stateCodeId));
+        population[row] = source.population[sourceRow];
+        if (country == CensusAnalyser.Country.US) {
+            housingUnits[row] = source.housingUnits[sourceRow];
+            totalArea[row] = source.totalArea[sourceRow];
+            waterArea[row] = source.waterArea[sourceRow];
+            landArea[row] = source.landArea[sourceRow];
+            populationDensity[row] = source.populationDensity[sourceRow];
+            housingDensity[row] = source.housingDensity[sourceRow];
+        } else {
+            areaInSqKm[row] = source.areaInSqKm[sourceRow];
+            densityPerSqKm[row] = source.densityPerSqKm[sourceRow];
+        }
+    }
+
+    void setStateCode(int row, String stateCode) {
+        stateCodeIds[row] = stateCodes.id(stateCode);
+    }
+
+    public CensusAnalyser.Country country() {
+        return country;
+    }
+
+    public int row(String state) {
+        return states.find(state);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public CensusDAO get(int row) {
+        if (country == CensusAnalyser.Country.US) {
+            USCensusCSV censusCSV = new USCensusCSV();
+            censusCSV.stateId = stateCodes.value(stateCodeIds[row]);
+            censusCSV.state = states.value(stateIds[row]);
+            censusCSV.population = population[row];
+            censusCSV.housingUnits = housingUnits[row];
+            censusCSV.totalArea = totalArea[row];
+            censusCSV.waterArea = waterArea[row];
+            censusCSV.landArea = landArea[row];
+            censusCSV.populationDensity = populationDensity[row];
+            censusCSV.housingDensity = housingDensity[row];
+            return new CensusDAO(censusCSV);
+        }
+        IndiaCensusCSV censusCSV = new IndiaCensusCSV();
+        censusCSV.state = states.value(stateIds[row]);
+        censusCSV.population = population[row];
+        censusCSV.areaInSqKm = areaInSqKm[row];
+        censusCSV.densityPerSqKm = densityPerSqKm[row];
+        CensusDAO censusDAO = new CensusDAO(censusCSV);
+        if (stateCodeIds[row] >= 0)
+            censusDAO.stateCode = stateCodes.value(stateCodeIds[row]);
+        return censusDAO;
+    }
+
+    @Override
+    public void read(int row, CensusDAO censusDAO) {
+        boolean us = country == CensusAnalyser.Country.US;
+        censusDAO.state = states.value(stateIds[row]);
+        censusDAO.stateCode = stateCodeIds[row] >= 0 ? stateCodes.value(stateCodeIds[row]) : null;
+        censusDAO.population = population[row];
+        censusDAO.areaInSqKm = us ? 0 : areaInSqKm[row];
+        censusDAO.densityPerSqKm = us ? 0 : densityPerSqKm[row];
+        censusDAO.housingUnits = us ? housingUnits[row] : 0;
+        censusDAO.totalArea = us ? totalArea[row] : 0;
+        censusDAO.waterArea = us ? waterArea[row] : 0;
+        censusDAO.populationDensity = us ? populationDensity[row] : 0;
+        censusDAO.housingDensity = us ? housingDensity[row] : 0;
+    }
+
+    @Override
+    public double value(CensusField field, int row) {
+        switch (field) {
+            case POPULATION:
+                return population[row];
+            case DENSITY:
+                return valueAt(densityPerSqKm, row);
+            case AREA:
+                return valueAt(areaInSqKm, row);
+            case POPULATION_DENSITY:
+                return valueAt(populationDensity, row);
+            case HOUSING_UNITS:
+                return valueAt(housingUnits, row);
+            case TOTAL_AREA:
+                return valueAt(totalArea, row);
+            case WATER_AREA:
+                return valueAt(waterArea, row);
+            case HOUSING_DENSITY:
+                return valueAt(housingDensity, row);
+            default:
+                throw new IllegalStateException(field + " is not a numeric field");
+        }
+    }
+
+    // copies straight out of the column arrays, without the per row switch of value()
+    @Override
+    public void values(CensusField field, int from, int count, double[] out, int offset) {
+        switch (field) {
+            case POPULATION:
+                copyColumn(population, from, count, out, offset);
+                break;
+            case DENSITY:
+                copyColumn(densityPerSqKm, from, count, out, offset);
+                break;
+            case AREA:
+                copyColumn(areaInSqKm, from, count, out, offset);
+                break;
+            case POPULATION_DENSITY:
+                copyColumn(populationDensity, from, count, out, offset);
+                break;
+            case HOUSING_UNITS:
+                copyColumn(housingUnits, from, count, out, offset);
+                break;
+            case TOTAL_AREA:
+                copyColumn(totalArea, from, count, out, offset);
+                break;
+            case WATER_AREA:
+                copyColumn(waterArea, from, count, out, offset);
+                break;
+            case HOUSING_DENSITY:
+                copyColumn(housingDensity, from, count, out, offset);
+                break;
+            default:
+                throw new IllegalStateException(field + " is not a numeric field");
+        }
+    }
+
+    @Override
+    public String text(CensusField field, int row) {
+        switch (field) {
+            case STATE:
+                return states.value(stateIds[row]);
+            case STATE_CODE:
+                return stateCodes.value(stateCodeIds[row]);
+            default:
+                return String.valueOf(value(field, row));
+        }
+    }
+
+    public int[] filter(CensusField field, double min, double max) {
+        int[] rows = new int[size];
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            double value = value(field, row);
+            if (value >= min && value <= max)
+                rows[count++] = row;
+        }
+        return Arrays.copyOf(rows, count);
+    }
+
+    public double sum(CensusField field) {
+        double sum = 0;
+        for (int row = 0; row < size; row++)
+            sum += value(field, row);
+        return sum;
+    }
+
+    public double min(CensusField field) {
+        double min = Double.POSITIVE_INFINITY;
+        for (int row = 0; row < size; row++)
+            min = Math.min(min, value(field, row));
+        return min;
+    }
+
+    public double max(CensusField field) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int row = 0; row < size; row++)
+            max = Math.max(max, value(field, row));
+        return max;
+    }
+
+    public double mean(CensusField field) {
+        return size == 0 ? Double.NaN : sum(field) / size;
+    }
+
+    // bytes held by the column arrays and dictionaries, assuming compressed references and latin-1 strings
+    public long retainedBytes() {
+        long columns = (long) Integer.BYTES * (stateIds.length + stateCodeIds.length + population.length
+                + housingUnits.length + areaInSqKm.length + densityPerSqKm.length)
+                + (long) Double.BYTES * (totalArea.length + waterArea.length + landArea.length
+                + populationDensity.length + housingDensity.length);
+        return columns + states.retainedBytes() + stateCodes.retainedBytes();
+    }
+
+    public double retainedBytesPerRow() {
+        return size == 0 ? 0 : (double) retainedBytes() / size;
+    }
+
+    void trimToSize() {
+        resize(size);
+    }
+
+    // the columns the country has, in a fixed order, after the two dictionaries in id order
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+        states.writeTo(out);
+        stateCodes.writeTo(out);
+        writeColumn(out, stateIds);
+        writeColumn(out, stateCodeIds);
+        writeColumn(out, population);
+        if (country == CensusAnalyser.Country.US) {
+            writeColumn(out, housingUnits);
+            writeColumn(out, totalArea);
+            writeColumn(out, waterArea);
+            writeColumn(out, landArea);
+            writeColumn(out, populationDensity);
+            writeColumn(out, housingDensity);
+        } else {
+            writeColumn(out, areaInSqKm);
+            writeColumn(out, densityPerSqKm);
+        }
+    }
+
+    static ColumnarCensusStore readFrom(CensusAnalyser.Country country, ByteBuffer in) {
+        ColumnarCensusStore censusStore = new ColumnarCensusStore(country);
+        censusStore.size = in.getInt();
+        censusStore.resize(censusStore.size);
+        censusStore.states.readFrom(in);
+        censusStore.stateCodes.readFrom(in);
+        readColumn(in, censusStore.stateIds);
+        readColumn(in, censusStore.stateCodeIds);
+        readColumn(in, censusStore.population);
+        if (country == CensusAnalyser.Country.US) {
+            readColumn(in, censusStore.housingUnits);
+            readColumn(in, censusStore.totalArea);
+            readColumn(in, censusStore.waterArea);
+            readColumn(in, censusStore.landArea);
+            readColumn(in, censusStore.populationDensity);
+            readColumn(in, censusStore.housingDensity);
+        } else {
+            readColumn(in, censusStore.areaInSqKm);
+            readColumn(in, censusStore.densityPerSqKm);
+        }
+        return censusStore;
+    }
+
+    private void writeColumn(DataOutputStream out, int[] column) throws IOException {
+        writeColumn(out, column, size);
+    }
+
+    private void writeColumn(DataOutputStream out, double[] column) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Double.BYTES * size);
+        buffer.asDoubleBuffer().put(column, 0, size);
+        out.write(buffer.array());
+    }
+
+    private static void writeColumn(DataOutputStream out, int[] column, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES * length);
+        buffer.asIntBuffer().put(column, 0, length);
+        out.write(buffer.array());
+    }
+
+    private static void readColumn(ByteBuffer in, int[] column) {
+        in.asIntBuffer().get(column);
+        in.position(in.position() + Integer.BYTES * column.length);
+    }
+
+    private static void readColumn(ByteBuffer in, double[] column) {
+        in.asDoubleBuffer().get(column);
+        in.position(in.position() + Double.BYTES * column.length);
+    }
+
+    // rows are keyed by state, so a state's dictionary id is also its row and a repeated state overwrites its row
+    private int rowFor(String state) {
+        int stateId = states.id(state);
+        if (stateId < size)
+            return stateId;
+        if (size == stateIds.length)
+            resize(Math.max(INITIAL_CAPACITY, size * 2));
+        stateIds[size] = stateId;
+        return size++;
+    }
+
+    // only the columns the country's csv actually has are allocated, the others stay empty and read as zero
+    private void resize(int capacity) {
+        stateIds = Arrays.copyOf(stateIds, capacity);
+        stateCodeIds = Arrays.copyOf(stateCodeIds, capacity);
+        population = Arrays.copyOf(population, capacity);
+        if (country == CensusAnalyser.Country.US) {
+            housingUnits = Arrays.copyOf(housingUnits, capacity);
+            totalArea = Arrays.copyOf(totalArea, capacity);
+            waterArea = Arrays.copyOf(waterArea, capacity);
+            landArea = Arrays.copyOf(landArea, capacity);
+            populationDensity = Arrays.copyOf(populationDensity, capacity);
+            housingDensity = Arrays.copyOf(housingDensity, capacity);
+        } else {
+            areaInSqKm = Arrays.copyOf(areaInSqKm, capacity);
+            densityPerSqKm = Arrays.copyOf(densityPerSqKm, capacity);
+        }
+    }
+
+    private static void copyColumn(int[] column, int from, int count, double[] out, int offset) {
+        int available = Math.max(0, Math.min(count, column.length - from));
+        for (int i = 0; i < available; i++)
+            out[offset + i] = column[from + i];
+        Arrays.fill(out, offset + available, offset + count, 0);
+    }
+
+    private static void copyColumn(double[] column, int from, int count, double[] out, int offset) {
+        int available = Math.max(0, Math.min(count, column.length - from));
+        System.arraycopy(column, from, out, offset, available);
+        Arrays.fill(out, offset + available, offset + count, 0);
+    }
+
+    private static double valueAt(int[] column, int row) {
+        return row < column.length ? column[row] : 0;
+    }
+
+    private static double valueAt(double[] column, int row) {
+        return row < column.length ? column[row] : 0;
+    }
+
+    // open addressing over the distinct values, so a dictionary entry costs a slot in two int/reference arrays
+    private static final class StringDictionary {
+        private String[] values = new String[16];
+        private int[] table = newTable(32);
+        private int count;
+        private byte[] encoded;
+        private int[] encodedOffsets;
+        private int[] encodedLengths;
+        private Charset encodedCharset;
+
+        int id(String value) {
+            int slot = slot(value);
+            if (table[slot] >= 0)
+                return table[slot];
+            if (count == values.length)
+                values = Arrays.copyOf(values, count * 2);
+            values[count] = value;
+            table[slot] = count;
+            if (++count * 2 > table.length)
+                rehash();
+            return count - 1;
+        }
+
+        int find(String value) {
+            return table[slot(value)];
+        }
+
+        // values read from a snapshot stay encoded until they are first asked for
+        String value(int id) {
+            if (id < 0)
+                return null;
+            String value = values[id];
+            if (value == null && encoded != null && id < encodedLengths.length && encodedLengths[id] >= 0) {
+                value = new String(encoded, encodedOffsets[id], encodedLengths[id], encodedCharset);
+                values[id] = value;
+            }
+            return value;
+        }
+
+        long retainedBytes() {
+            long bytes = 4L * values.length + 4L * table.length;
+            for (int id = 0; id < count; id++)
+                bytes += values[id] == null ? 0 : 40 + ((values[id].length() + 7) & ~7);
+            if (encoded != null)
+                bytes += encoded.length + 8L * encodedLengths.length;
+            return bytes;
+        }
+
+        private int slot(String value) {
+            int mask = table.length - 1;
+            int slot = Objects.hashCode(value) * 0x9E3779B9 >>> 1 & mask;
+            while (table[slot] >= 0 && !Objects.equals(value(table[slot]), value))
+                slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        private void rehash() {
+            table = newTable(table.length * 2);
+            for (int id = 0; id < count; id++)
+                table[slot(value(id))] = id;
+        }
+
+        // the hash table is written as it is, so reading a dictionary back needs no hashing
+        void writeTo(DataOutputStream out) throws IOException {
+            boolean latin1 = true;
+            for (int id = 0; id < count && latin1; id++)
+                latin1 = value(id) == null || isLatin1(value(id));
+            Charset charset = latin1 ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8;
+            byte[][] encodedValues = new byte[count][];
+            int[] lengths = new int[count];
+            for (int id = 0; id < count; id++) {
+                encodedValues[id] = value(id) == null ? null : value(id).getBytes(charset);
+                lengths[id] = encodedValues[id] == null ? -1 : encodedValues[id].length;
+            }
+            out.writeInt(count);
+            out.writeInt(table.length);
+            writeColumn(out, table, table.length);
+            out.writeBoolean(latin1);
+            writeColumn(out, lengths, count);
+            for (byte[] bytes : encodedValues) {
+                if (bytes != null)
+                    out.write(bytes);
+            }
+        }
+
+        void readFrom(ByteBuffer in) {
+            count = in.getInt();
+            table = new int[in.getInt()];
+            readColumn(in, table);
+            encodedCharset = in.get() != 0 ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8;
+            encodedLengths = new int[count];
+            readColumn(in, encodedLengths);
+            encodedOffsets = new int[count];
+            int total = 0;
+            for (int id = 0; id < count; id++) {
+                encodedOffsets[id] = total;
+                total += Math.max(0, encodedLengths[id]);
+            }
+            encoded = new byte[total];
+            in.get(encoded);
+            values = new String[Math.max(16, count)];
+        }
+
+        private static boolean isLatin1(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                if (value.charAt(i) > 0xFF)
+                    return false;
+            }
+            return true;
+        }
+
+        private static int[] newTable(int size) {
+            int[] table = new int[size];
+            Arrays.fill(table, -1);
+            return table;
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package censusanalyser.service;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens census files that may be gzip or zstd compressed, told apart from plain csv by their magic bytes rather than
+ * their name. Compressed files are decompressed on a thread of their own that runs ahead of the parser through a
+ * bounded queue of blocks. A gzip file made of several members, as written by bgzip or by concatenating gzip files,
+ * is split at member boundaries and its members are inflated on several threads.
+ * <p>
+ * The JDK has no zstd decoder, one has to be installed with {@link #setZstdDecoder} before zstd files can be read.
+ */
+public final class CompressedInput {
+
+    /**
+     * Turns a compressed stream into the stream of its decompressed bytes.
+     */
+    public interface Decoder {
+        InputStream decode(InputStream compressed) throws IOException;
+    }
+
+    enum Format { PLAIN, GZIP, ZSTD }
+
+    private static final int BLOCK_SIZE = 256 * 1024;
+    private static final int QUEUED_BLOCKS = 16;
+    private static final int SEGMENT_BLOCKS = 4;
+    private static final long SEGMENT_SIZE = 4L * 1024 * 1024;
+    private static final int MEMBER_SCAN_LIMIT = 256 * 1024;
+    private static final byte[] END_OF_INPUT = new byte[0];
+
+    private static volatile Decoder zstdDecoder;
+
+    private CompressedInput() {
+    }
+
+    public static void setZstdDecoder(Decoder decoder) {
+        zstdDecoder = decoder;
+    }
+
+    static Format detect(Path path) throws IOException {
+        byte[] magic = new byte[4];
+        int read = 0;
+        try (InputStream in = Files.newInputStream(path)) {
+            for (int n; read < magic.length && (n = in.read(magic, read, magic.length - read)) > 0; )
+                read += n;
+        }
+        return detect(magic, read);
+    }
+
+    private static Format detect(byte[] magic, int read) {
+        if (read >= 2 && (magic[0] & 0xFF) == 0x1F && (magic[1] & 0xFF) == 0x8B)
+            return Format.GZIP;
+        if (read >= 4 && (magic[0] & 0xFF) == 0x28 && (magic[1] & 0xFF) == 0xB5 && (magic[2] & 0xFF) == 0x2F
+                && (magic[3] & 0xFF) == 0xFD)
+            return Format.ZSTD;
+        return Format.PLAIN;
+    }
+
+    static boolean isCompressed(Path path) throws IOException {
+        return detect(path) != Format.PLAIN;
+    }
+
+    static BufferedReader newReader(Path path) throws IOException {
+        if (!isCompressed(path))
+            return Files.newBufferedReader(path);
+        return new BufferedReader(new InputStreamReader(open(path), StandardCharsets.UTF_8), BLOCK_SIZE);
+    }
+
+    // the decompressed content of a whole file already read into memory, the content itself when it is plain
+    static byte[] decompress(byte[] content) throws IOException {
+        Format format = detect(content, content.length);
+        if (format == Format.PLAIN)
+            return content;
+        InputStream compressed = new ByteArrayInputStream(content);
+        Decoder decoder = zstdDecoder;
+        if (format == Format.ZSTD && decoder == null)
+            throw new IOException("Content is zstd compressed, but no zstd decoder is installed");
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream(4 * content.length);
+        try (InputStream in = format == Format.GZIP
+                ? new GZIPInputStream(compressed, BLOCK_SIZE) : decoder.decode(compressed)) {
+            byte[] buffer = new byte[BLOCK_SIZE];
+            for (int read; (read = in.read(buffer)) > 0; )
+                decompressed.write(buffer, 0, read);
+        }
+        return decompressed.toByteArray();
+    }
+
+    // the decompressed bytes of a compressed file, produced ahead of the reader on a background thread
+    static InputStream open(Path path) throws IOException {
+        return open(path, SEGMENT_SIZE);
+    }
+
+    // as open(path), with gzip members inflated in parallel once the file spans two segments of segmentSize bytes
+    static InputStream open(Path path, long segmentSize) throws IOException {
+        switch (detect(path)) {
+            case GZIP:
+                long size = Files.size(path);
+                List<Long> segments = size < 2 * segmentSize ? null : memberSegments(path, size, segmentSize);
+                if (segments == null || segments.size() < 2)
+                    return new PipelinedInputStream(() -> new GZIPInputStream(Files.newInputStream(path), BLOCK_SIZE), null);
+                return new PipelinedInputStream(null, new ParallelGzip(path, segments));
+            case ZSTD:
+                Decoder decoder = zstdDecoder;
+                if (decoder == null)
+                    throw new IOException(path + " is zstd compressed, but no zstd decoder is installed");
+                return new PipelinedInputStream(() -> decoder.decode(Files.newInputStream(path)), null);
+            default:
+                return Files.newInputStream(path);
+        }
+    }
+
+    // offsets of likely gzip member starts roughly segmentSize apart, the first always 0
+    static List<Long> memberSegments(Path path, long size, long segmentSize) throws IOException {
+        List<Long> segments = new ArrayList<>();
+        segments.add(0L);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(MEMBER_SCAN_LIMIT + 10);
+            for (long target = segmentSize; target < size; target += segmentSize) {
+                if (target <= segments.get(segments.size() - 1))
+                    continue;
+                buffer.clear();
+                int read;
+                do {
+                    read = channel.read(buffer, target + buffer.position());
+                } while (read > 0 && buffer.hasRemaining());
+                for (int i = 0; i + 10 <= buffer.position(); i++) {
+                    if (isMemberHeader(buffer, i)) {
+                        segments.add(target + i);
+                        break;
+                    }
+                }
+            }
+        }
+        return segments;
+    }
+
+    private static boolean isMemberHeader(ByteBuffer buffer, int at) {
+        int extraFlags = buffer.get(at + 8) & 0xFF;
+        int os = buffer.get(at + 9) & 0xFF;
+        return (buffer.get(at) & 0xFF) == 0x1F && (buffer.get(at + 1) & 0xFF) == 0x8B && buffer.get(at + 2) == 8
+                && (buffer.get(at + 3) & 0xE0) == 0 && (extraFlags == 0 || extraFlags == 2 || extraFlags == 4)
+                && (os <= 13 || os == 255);
+    }
+
+    private interface StreamSource {
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * Inflates the segments of a multi member gzip file concurrently and hands them over in file order. Each segment
+     * streams into a bounded queue of its own and at most one more segment than there are threads is started, so the
+     * inflated bytes held at once stay bounded whatever the size of a segment.
+     */
+    private static final class ParallelGzip {
+        private final Path path;
+        private final List<Long> segments;
+
+        ParallelGzip(Path path, List<Long> segments) {
+            this.path = path;
+            this.segments = segments;
+        }
+
+        void produce(BlockingQueue<byte[]> blocks) throws IOException, InterruptedException {
+            int parallelism = Runtime.getRuntime().availableProcessors();
+            ExecutorService inflaters = Executors.newFixedThreadPool(parallelism, task -> {
+                Thread thread = new Thread(task, "census-inflate");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long size = Files.size(path);
+            ArrayDeque<InflatingSegment> inflating = new ArrayDeque<>();
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                int next = 0;
+                for (int segment = 0; segment < segments.size(); segment++) {
+                    while (next < segments.size() && inflating.size() <= parallelism) {
+                        long start = segments.get(next);
+                        long end = next + 1 < segments.size() ? segments.get(next + 1) : size;
+                        InflatingSegment inflatingSegment = new InflatingSegment();
+                        inflaters.execute(() -> inflatingSegment.inflate(channel, start, end));
+                        inflating.add(inflatingSegment);
+                        next++;
+                    }
+                    InflatingSegment head = inflating.poll();
+                    long handedOver = 0;
+                    for (byte[] block; (block = head.blocks.take()) != END_OF_INPUT; handedOver += block.length)
+                        blocks.put(block);
+                    if (head.failure != null) {
+                        // a member start that was only compressed data looking like a header cut the member before
+                        // it short: the segments from here on are read as one stream, past what was handed over
+                        InputStream remaining = new RangeInputStream(channel, segments.get(segment), size);
+                        try (InputStream rest = new GZIPInputStream(remaining, BLOCK_SIZE)) {
+                            skip(rest, handedOver);
+                            copy(rest, blocks);
+                        }
+                        return;
+                    }
+                }
+            } finally {
+                inflaters.shutdownNow();
+            }
+        }
+
+        private static void skip(InputStream in, long bytes) throws IOException {
+            byte[] buffer = new byte[BLOCK_SIZE];
+            while (bytes > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, bytes));
+                if (read < 0)
+                    throw new IOException("Unexpected end of gzip file");
+                bytes -= read;
+            }
+        }
+    }
+
+    private static final class InflatingSegment {
+        private final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<>(SEGMENT_BLOCKS);
+        private volatile IOException failure;
+
+        void inflate(FileChannel channel, long start, long end) {
+            try (InputStream in = new GZIPInputStream(new RangeInputStream(channel, start, end), BLOCK_SIZE)) {
+                copy(in, blocks);
+            } catch (IOException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = new IOException(e);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                blocks.put(END_OF_INPUT);
+            } catch (InterruptedException e) {
+                // the producer stopped, nobody takes the rest of this segment
+            }
+        }
+    }
+
+    // a byte range of a file, read at its own position so several ranges of one channel can be read at once
+    private static final class RangeInputStream extends InputStream {
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+
+        RangeInputStream(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0)
+                return 0;
+            if (position >= end)
+                return -1;
+            int read = channel.read(ByteBuffer.wrap(buffer, offset, (int) Math.min(length, end - position)), position);
+            if (read > 0)
+                position += read;
+            return read;
+        }
+    }
+
+    private static void copy(InputStream in, BlockingQueue<byte[]> blocks) throws IOException, InterruptedException {
+        while (true) {
+            byte[] block = new byte[BLOCK_SIZE];
+            int length = 0;
+            for (int read; length < block.length && (read = in.read(block, length, block.length - length)) > 0; )
+                length += read;
+            if (length == 0)
+                return;
+            blocks.put(length == block.length ? block : Arrays.copyOf(block, length));
+        }
+    }
+
+    private static final class PipelinedInputStream extends InputStream {
+        private final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<>(QUEUED_BLOCKS);
+        private final Thread producer;
+        private volatile IOException failure;
+        private byte[] block = new byte[0];
+        private int position;
+        private boolean finished;
+
+        PipelinedInputStream(StreamSource source, ParallelGzip parallelGzip) {
+            producer = new Thread(() -> {
+                try {
+                    if (parallelGzip != null) {
+                        parallelGzip.produce(blocks);
+                    } else {
+                        try (InputStream in = source.open()) {
+                            copy(in, blocks);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    failure = e;
+                } catch (RuntimeException e) {
+                    failure = new IOException(e);
+                }
+                try {
+                    blocks.put(END_OF_INPUT);
+                } catch (InterruptedException e) {
+                    // closed by the reader, nobody waits for the end any more
+                }
+            }, "census-decompress");
+            producer.setDaemon(true);
+            producer.start();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0)
+                return 0;
+            while (position == block.length) {
+                if (finished)
+                    return -1;
+                try {
+                    block = blocks.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(e.getMessage());
+                }
+                position = 0;
+                if (block == END_OF_INPUT) {
+                    finished = true;
+                    if (failure != null)
+                        throw failure;
+                }
+            }
+            int read = Math.min(length, block.length - position);
+            System.arraycopy(block, position, buffer, offset, read);
+            position += read;
+            return read;
+        }
+
+        @Override
+        public void close() {
+            finished = true;
+            block = END_OF_INPUT;
+            position = 0;
+            producer.interrupt();
+            blocks.clear();
+        }
+    }
+}
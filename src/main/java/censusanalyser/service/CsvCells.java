@@ -0,0 +1,68 @@
+package censusanalyser.service;
+
+import java.util.Arrays;
+
+/**
+ * Cell bounds of one csv line, shared by {@link CensusCsvParser} over chars and {@link MappedCsvParser} over mapped
+ * bytes, which only differ in how the character at a position is read. A quoted cell spans the text between its
+ * quotes and may contain delimiters and doubled quotes, which {@link #unquote} turns back into one.
+ */
+abstract class CsvCells {
+
+    private static final int DELIMITER = ',';
+    private static final int QUOTE = '"';
+
+    int[] starts = new int[16];
+    int[] ends = new int[16];
+    boolean[] quoted = new boolean[16];
+    int fieldCount;
+
+    abstract int charAt(int position);
+
+    void split(int from, int to) {
+        fieldCount = 0;
+        int position = from;
+        while (true) {
+            if (fieldCount == starts.length) {
+                starts = Arrays.copyOf(starts, fieldCount * 2);
+                ends = Arrays.copyOf(ends, fieldCount * 2);
+                quoted = Arrays.copyOf(quoted, fieldCount * 2);
+            }
+            int end;
+            if (position < to && charAt(position) == QUOTE) {
+                int close = position + 1;
+                while (close < to && (charAt(close) != QUOTE || close + 1 < to && charAt(close + 1) == QUOTE))
+                    close += charAt(close) == QUOTE ? 2 : 1;
+                starts[fieldCount] = position + 1;
+                ends[fieldCount] = Math.min(close, to);
+                quoted[fieldCount] = true;
+                end = close + 1;
+                while (end < to && charAt(end) != DELIMITER)
+                    end++;
+            } else {
+                end = position;
+                while (end < to && charAt(end) != DELIMITER)
+                    end++;
+                starts[fieldCount] = position;
+                ends[fieldCount] = end;
+                quoted[fieldCount] = false;
+            }
+            fieldCount++;
+            if (end >= to)
+                return;
+            position = end + 1;
+        }
+    }
+
+    boolean isBlank(int field) {
+        for (int position = starts[field]; position < ends[field]; position++) {
+            if (charAt(position) > ' ')
+                return false;
+        }
+        return true;
+    }
+
+    String unquote(int field, String value) {
+        return quoted[field] ? value.replace("\"\"", "\"") : value;
+    }
+}
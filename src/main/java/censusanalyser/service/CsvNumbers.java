@@ -0,0 +1,89 @@
+package censusanalyser.service;
+
+/**
+ * Parses numbers straight out of a character buffer so that no intermediate String is created per cell.
+ */
+final class CsvNumbers {
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private CsvNumbers() {
+    }
+
+    static int parseInt(char[] buffer, int from, int to) {
+        long value = parseLong(buffer, from, to);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+            throw invalid(buffer, from, to);
+        return (int) value;
+    }
+
+    static long parseLong(char[] buffer, int from, int to) {
+        while (from < to && buffer[from] <= ' ')
+            from++;
+        while (to > from && buffer[to - 1] <= ' ')
+            to--;
+        boolean negative = from < to && buffer[from] == '-';
+        int position = negative || from < to && buffer[from] == '+' ? from + 1 : from;
+        if (position == to)
+            throw invalid(buffer, from, to);
+        long value = 0;
+        for (; position < to; position++) {
+            int digit = buffer[position] - '0';
+            if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10)
+                throw invalid(buffer, from, to);
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    // exact for up to 15 significant digits and small exponents, everything else goes through the JDK parser
+    static double parseDouble(char[] buffer, int from, int to) {
+        while (from < to && buffer[from] <= ' ')
+            from++;
+        while (to > from && buffer[to - 1] <= ' ')
+            to--;
+        boolean negative = from < to && buffer[from] == '-';
+        int position = negative || from < to && buffer[from] == '+' ? from + 1 : from;
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean seenPoint = false;
+        for (; position < to; position++) {
+            char c = buffer[position];
+            if (c >= '0' && c <= '9') {
+                if (mantissa >= MAX_EXACT_MANTISSA / 10)
+                    return slowParseDouble(buffer, from, to);
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (seenPoint)
+                    exponent--;
+            } else if (c == '.' && !seenPoint) {
+                seenPoint = true;
+            } else if ((c == 'e' || c == 'E') && digits > 0) {
+                long explicitExponent = parseLong(buffer, position + 1, to);
+                if (Math.abs(explicitExponent) > POWERS_OF_TEN.length)
+                    return slowParseDouble(buffer, from, to);
+                exponent += (int) explicitExponent;
+                break;
+            } else {
+                return slowParseDouble(buffer, from, to);
+            }
+        }
+        if (digits == 0 || Math.abs(exponent) >= POWERS_OF_TEN.length)
+            return slowParseDouble(buffer, from, to);
+        double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        return negative ? -value : value;
+    }
+
+    private static double slowParseDouble(char[] buffer, int from, int to) {
+        return Double.parseDouble(new String(buffer, from, to - from));
+    }
+
+    private static NumberFormatException invalid(char[] buffer, int from, int to) {
+        return new NumberFormatException("For input string: \"" + new String(buffer, from, to - from) + "\"");
+    }
+}
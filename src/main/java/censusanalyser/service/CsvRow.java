@@ -0,0 +1,22 @@
+package censusanalyser.service;
+
+/**
+ * One csv record as seen by a {@link CsvRowBinder}; columns are addressed by their position in
+ * {@link CsvRowBinder#columns()}, not by their position in the file.
+ */
+interface CsvRow {
+
+    long lineNumber();
+
+    // true when the column is missing from the header or the row's cell holds nothing but blanks
+    boolean isEmpty(int column);
+
+    // null when the column is missing from the header
+    String getString(int column);
+
+    int getInt(int column);
+
+    long getLong(int column);
+
+    double getDouble(int column);
+}
@@ -0,0 +1,13 @@
+package censusanalyser.service;
+
+interface CsvRowBinder<T> {
+
+    String[] columns();
+
+    // an optional column may be missing from the header, rows then read it as empty
+    default boolean isOptional(int column) {
+        return false;
+    }
+
+    T bind(CsvRow row);
+}
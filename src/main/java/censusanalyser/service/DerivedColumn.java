@@ -0,0 +1,184 @@
+package censusanalyser.service;
+
+import censusanalyser.model.CensusField;
+
+import java.util.Arrays;
+
+/**
+ * A numeric column computed from the numeric fields of loaded census data, such as population over land area. A
+ * column is built from fields and constants with the four arithmetic operators and is evaluated a batch of rows at a
+ * time, each operator being one loop over primitive arrays that the JIT can unroll and vectorize. Division by zero
+ * gives an infinity or NaN as in plain double arithmetic; NaN sorts after every number in both directions.
+ * <pre>
+ *     DerivedColumn waterShare = DerivedColumn.of(CensusField.WATER_AREA).dividedBy(CensusField.TOTAL_AREA);
+ *     List&lt;CensusDAO&gt; wettest = censusAnalyser.topK(waterShare, 5);
+ * </pre>
+ * Columns are equal when their formulas are, whatever their names.
+ */
+public final class DerivedColumn {
+
+    public static final DerivedColumn LAND_AREA =
+            of(CensusField.TOTAL_AREA).minus(CensusField.WATER_AREA).named("landArea");
+    public static final DerivedColumn POPULATION_PER_LAND_AREA =
+            of(CensusField.POPULATION).dividedBy(LAND_AREA).named("populationPerLandArea");
+    public static final DerivedColumn HOUSING_UNITS_PER_LAND_AREA =
+            of(CensusField.HOUSING_UNITS).dividedBy(LAND_AREA).named("housingUnitsPerLandArea");
+    public static final DerivedColumn WATER_SHARE =
+            of(CensusField.WATER_AREA).dividedBy(CensusField.TOTAL_AREA).named("waterShare");
+
+    static final int BATCH_SIZE = 1024;
+
+    private enum Operator {
+        PLUS("+"), MINUS("-"), TIMES("*"), DIVIDED_BY("/");
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+    }
+
+    private final String name;
+    private final String formula;
+    private final CensusField field;
+    private final double constant;
+    private final Operator operator;
+    private final DerivedColumn left;
+    private final DerivedColumn right;
+    // scratch batches an evaluation needs, one per operator level
+    private final int depth;
+
+    private DerivedColumn(String name, String formula, CensusField field, double constant, Operator operator,
+                          DerivedColumn left, DerivedColumn right) {
+        this.name = name;
+        this.formula = formula;
+        this.field = field;
+        this.constant = constant;
+        this.operator = operator;
+        this.left = left;
+        this.right = right;
+        this.depth = operator == null ? 0 : 1 + Math.max(left.depth, right.depth);
+    }
+
+    public static DerivedColumn of(CensusField field) {
+        if (!field.isNumeric())
+            throw new IllegalArgumentException(field + " is not a numeric field");
+        return new DerivedColumn(field.name(), field.name(), field, 0, null, null, null);
+    }
+
+    public static DerivedColumn constant(double value) {
+        String formula = String.valueOf(value);
+        return new DerivedColumn(formula, formula, null, value, null, null, null);
+    }
+
+    public DerivedColumn plus(DerivedColumn column) {
+        return this.combine(Operator.PLUS, column);
+    }
+
+    public DerivedColumn plus(CensusField field) {
+        return this.plus(of(field));
+    }
+
+    public DerivedColumn minus(DerivedColumn column) {
+        return this.combine(Operator.MINUS, column);
+    }
+
+    public DerivedColumn minus(CensusField field) {
+        return this.minus(of(field));
+    }
+
+    public DerivedColumn times(DerivedColumn column) {
+        return this.combine(Operator.TIMES, column);
+    }
+
+    public DerivedColumn times(CensusField field) {
+        return this.times(of(field));
+    }
+
+    public DerivedColumn dividedBy(DerivedColumn column) {
+        return this.combine(Operator.DIVIDED_BY, column);
+    }
+
+    public DerivedColumn dividedBy(CensusField field) {
+        return this.dividedBy(of(field));
+    }
+
+    public DerivedColumn named(String name) {
+        return new DerivedColumn(name, formula, field, constant, operator, left, right);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public String formula() {
+        return formula;
+    }
+
+    private DerivedColumn combine(Operator operator, DerivedColumn column) {
+        String formula = "(" + this.formula + " " + operator.symbol + " " + column.formula + ")";
+        return new DerivedColumn(formula, formula, null, 0, operator, this, column);
+    }
+
+    // the column's value on every row of the table
+    double[] evaluate(CensusTable censusTable) {
+        int size = censusTable.size();
+        double[] values = new double[size];
+        double[][] scratch = new double[depth][Math.min(BATCH_SIZE, size)];
+        for (int from = 0; from < size; from += BATCH_SIZE)
+            this.evaluate(censusTable, from, Math.min(BATCH_SIZE, size - from), values, from, scratch, 0);
+        return values;
+    }
+
+    // the left operand is computed in place and the right one into this level's scratch batch, then combined
+    private void evaluate(CensusTable censusTable, int from, int count, double[] out, int offset, double[][] scratch,
+                          int level) {
+        if (field != null) {
+            censusTable.values(field, from, count, out, offset);
+            return;
+        }
+        if (operator == null) {
+            Arrays.fill(out, offset, offset + count, constant);
+            return;
+        }
+        left.evaluate(censusTable, from, count, out, offset, scratch, level + 1);
+        double[] operand = scratch[level];
+        right.evaluate(censusTable, from, count, operand, 0, scratch, level + 1);
+        switch (operator) {
+            case PLUS:
+                for (int i = 0; i < count; i++)
+                    out[offset + i] += operand[i];
+                break;
+            case MINUS:
+                for (int i = 0; i < count; i++)
+                    out[offset + i] -= operand[i];
+                break;
+            case TIMES:
+                for (int i = 0; i < count; i++)
+                    out[offset + i] *= operand[i];
+                break;
+            default:
+                for (int i = 0; i < count; i++)
+                    out[offset + i] /= operand[i];
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof DerivedColumn))
+            return false;
+        return formula.equals(((DerivedColumn) o).formula);
+    }
+
+    @Override
+    public int hashCode() {
+        return formula.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return name.equals(formula) ? formula : name + " = " + formula;
+    }
+}
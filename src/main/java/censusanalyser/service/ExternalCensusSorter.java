@@ -0,0 +1,495 @@
+package censusanalyser.service;
+
+import censusanalyser.exceptions.CensusAnalyserException;
+import censusanalyser.model.CensusDAO;
+import censusanalyser.model.IndiaCensusCSV;
+import censusanalyser.model.USCensusCSV;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Sorted json or csv export of census files larger than the heap. Matching rows are collected into runs of
+ * {@code rowsPerRun}, each run is sorted and spilled to a temporary file on a pool of {@code parallelism} threads
+ * while parsing goes on, and the runs are merged k ways straight into the writer. Rows come out in the order
+ * {@link CensusAnalyser#writeCensusData} gives them for the same query.
+ * <p>
+ * Spill files hold rows back to back, each a marker byte, its sequence number in the file, its state code and then
+ * its csv fields in binary.
+ */
+public class ExternalCensusSorter {
+
+    public static final int DEFAULT_ROWS_PER_RUN = 256 * 1024;
+
+    private static final int MAX_MERGE_WIDTH = 64;
+    private static final int SPILL_BUFFER_SIZE = 64 * 1024;
+    private static final Gson GSON = new Gson();
+
+    private final Path spillDirectory;
+    private final int rowsPerRun;
+    private final int parallelism;
+    private final StateCodeJoin stateCodeJoin;
+    private volatile int spilledRuns;
+
+    public ExternalCensusSorter() {
+        this(Paths.get(System.getProperty("java.io.tmpdir")), DEFAULT_ROWS_PER_RUN,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    public ExternalCensusSorter(Path spillDirectory, int rowsPerRun, int parallelism) {
+        this(spillDirectory, rowsPerRun, parallelism, new StateCodeJoin());
+    }
+
+    /**
+     * A sorter whose rows get the codes of a state code csv, when one is given, through {@code stateCodeJoin}.
+     */
+    public ExternalCensusSorter(Path spillDirectory, int rowsPerRun, int parallelism, StateCodeJoin stateCodeJoin) {
+        if (rowsPerRun <= 0 || parallelism <= 0)
+            throw new IllegalArgumentException("rowsPerRun and parallelism must be positive");
+        this.spillDirectory = spillDirectory;
+        this.rowsPerRun = rowsPerRun;
+        this.parallelism = parallelism;
+        this.stateCodeJoin = stateCodeJoin;
+    }
+
+    /**
+     * Number of runs the last export spilled, zero when all its rows fit in one run and were sorted in memory.
+     */
+    public int getSpilledRuns() {
+        return spilledRuns;
+    }
+
+    public long writeJson(CensusQuery query, Writer writer, CensusAnalyser.Country country, String... csvFilePath)
+            throws CensusAnalyserException, IOException {
+        JsonWriter jsonWriter = new JsonWriter(writer);
+        jsonWriter.beginArray();
+        long rows = this.sort(query, country, csvFilePath,
+                sortRow -> GSON.toJson(sortRow.censusDAO, CensusDAO.class, jsonWriter));
+        jsonWriter.endArray();
+        jsonWriter.flush();
+        return rows;
+    }
+
+    /**
+     * Writes the rows in the layout of the census csv they came from, with a StateCode column added to India rows
+     * when a state code file is given.
+     */
+    public long writeCsv(CensusQuery query, Writer writer, CensusAnalyser.Country country, String... csvFilePath)
+            throws CensusAnalyserException, IOException {
+        RowCodec codec = RowCodec.of(country);
+        boolean stateCodeColumn = country == CensusAnalyser.Country.INDIA && csvFilePath.length > 1;
+        writer.write(String.join(",", codec.columns()) + (stateCodeColumn ? ",StateCode" : "") + "\n");
+        StringBuilder line = new StringBuilder();
+        long rows = this.sort(query, country, csvFilePath, sortRow -> {
+            line.setLength(0);
+            codec.appendCsv(line, sortRow.censusCSV);
+            if (stateCodeColumn)
+                line.append(',').append(csvCell(sortRow.censusDAO.stateCode));
+            line.append('\n');
+            writer.write(line.toString());
+        });
+        writer.flush();
+        return rows;
+    }
+
+    private long sort(CensusQuery query, CensusAnalyser.Country country, String[] csvFilePath, RowSink rowSink)
+            throws CensusAnalyserException, IOException {
+        RowCodec codec = RowCodec.of(country);
+        Comparator<SortRow> comparator = (first, second) ->
+                query.compare(first.censusDAO, first.sequence, second.censusDAO, second.sequence);
+        List<Path> runs = new ArrayList<>();
+        ExecutorService spillExecutor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "census-run-spill");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            SortRow[] lastRun = this.spill(query, codec, comparator, csvFilePath, runs, spillExecutor);
+            spilledRuns = runs.size();
+            if (runs.isEmpty())
+                return this.emit(query, lastRun, rowSink);
+            while (runs.size() > MAX_MERGE_WIDTH) {
+                List<Path> merged = new ArrayList<>(runs.subList(0, MAX_MERGE_WIDTH));
+                runs.removeAll(merged);
+                Path run = Files.createTempFile(spillDirectory, "census-run", ".bin");
+                runs.add(run);
+                try (DataOutputStream out = openRun(run)) {
+                    this.merge(codec, comparator, merged, query.window(), sortRow -> codec.write(out, sortRow));
+                }
+                for (Path mergedRun : merged)
+                    Files.deleteIfExists(mergedRun);
+            }
+            long[] position = {0};
+            long merged = this.merge(codec, comparator, runs, query.window(), sortRow -> {
+                if (position[0]++ >= query.offset())
+                    rowSink.accept(sortRow);
+            });
+            return Math.max(0, merged - query.offset());
+        } finally {
+            spillExecutor.shutdownNow();
+            for (Path run : runs)
+                Files.deleteIfExists(run);
+        }
+    }
+
+    // parses every file row, spills full runs in the background and returns the rows of a final run never spilled
+    private SortRow[] spill(CensusQuery query, RowCodec codec, Comparator<SortRow> comparator, String[] csvFilePath,
+                            List<Path> runs, ExecutorService spillExecutor) throws CensusAnalyserException, IOException {
+        Semaphore runsInFlight = new Semaphore(parallelism);
+        AtomicReference<IOException> spillFailure = new AtomicReference<>();
+        CensusDAO[] current = new CensusDAO[1];
+        CensusTable censusRow = new CensusRowTable(current);
+        SortRow[][] buffer = {new SortRow[Math.min(rowsPerRun, 1024)]};
+        int[] size = {0};
+        int[] spilled = {0};
+        long[] sequence = {0};
+        try {
+            Consumer<SortRow> rows = sortRow -> {
+                current[0] = sortRow.censusDAO;
+                if (!query.matches(censusRow, 0))
+                    return;
+                if (size[0] == buffer[0].length) {
+                    if (size[0] == rowsPerRun) {
+                        this.spillAsync(buffer[0], comparator, codec, runs, spillExecutor, runsInFlight, spillFailure);
+                        spilled[0]++;
+                        buffer[0] = new SortRow[buffer[0].length];
+                        size[0] = 0;
+                    } else {
+                        buffer[0] = Arrays.copyOf(buffer[0], (int) Math.min(rowsPerRun, buffer[0].length * 2L));
+                    }
+                }
+                buffer[0][size[0]++] = sortRow;
+            };
+            StateCodeJoin.BatchJoin<SortRow> batchJoin = csvFilePath.length > 1
+                    ? stateCodeJoin.batchJoin(stateCodeJoin.readLookup(csvFilePath[1]), sortRow -> sortRow.censusDAO, rows)
+                    : null;
+            Consumer<SortRow> sortRows = batchJoin == null ? rows : batchJoin::accept;
+            codec.parse(Paths.get(csvFilePath[0]), censusCSV ->
+                    sortRows.accept(new SortRow(censusCSV, codec.newCensusDAO(censusCSV), sequence[0]++)));
+            if (batchJoin != null)
+                batchJoin.flush();
+        } catch (IOException e) {
+            throw new CensusAnalyserException(e.getMessage(), CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM);
+        } catch (SpillException e) {
+            throw e.getCause();
+        } catch (RuntimeException e) {
+            throw new CensusAnalyserException(e.getMessage(), CensusAnalyserException.ExceptionType.WRONG_DELIMITER_HEADER);
+        } finally {
+            runsInFlight.acquireUninterruptibly(parallelism);
+            runsInFlight.release(parallelism);
+        }
+        SortRow[] lastRun = Arrays.copyOf(buffer[0], size[0]);
+        if (spilled[0] == 0) {
+            Arrays.sort(lastRun, comparator);
+            return lastRun;
+        }
+        if (lastRun.length > 0)
+            this.spillAsync(lastRun, comparator, codec, runs, spillExecutor, runsInFlight, spillFailure);
+        runsInFlight.acquireUninterruptibly(parallelism);
+        runsInFlight.release(parallelism);
+        if (spillFailure.get() != null)
+            throw spillFailure.get();
+        return null;
+    }
+
+    private void spillAsync(SortRow[] run, Comparator<SortRow> comparator, RowCodec codec, List<Path> runs,
+                            ExecutorService spillExecutor, Semaphore runsInFlight,
+                            AtomicReference<IOException> spillFailure) {
+        if (spillFailure.get() != null)
+            throw new SpillException(spillFailure.get());
+        runsInFlight.acquireUninterruptibly();
+        spillExecutor.execute(() -> {
+            try {
+                Arrays.sort(run, comparator);
+                Path runFile = Files.createTempFile(spillDirectory, "census-run", ".bin");
+                synchronized (runs) {
+                    runs.add(runFile);
+                }
+                try (DataOutputStream out = openRun(runFile)) {
+                    for (SortRow sortRow : run)
+                        codec.write(out, sortRow);
+                }
+            } catch (IOException e) {
+                spillFailure.compareAndSet(null, e);
+            } catch (RuntimeException e) {
+                spillFailure.compareAndSet(null, new IOException("Could not spill a sorted run", e));
+            } finally {
+                runsInFlight.release();
+            }
+        });
+    }
+
+    private long emit(CensusQuery query, SortRow[] sortedRows, RowSink rowSink) throws IOException {
+        long end = Math.min(query.window(), sortedRows.length);
+        for (int i = query.offset(); i < end; i++)
+            rowSink.accept(sortedRows[i]);
+        return Math.max(0, end - query.offset());
+    }
+
+    // merges the runs until limit rows are written, none past the query window can be part of the result; returns the
+    // number of rows written
+    private long merge(RowCodec codec, Comparator<SortRow> comparator, List<Path> runs, long limit, RowSink rowSink)
+            throws IOException {
+        List<RunReader> readers = new ArrayList<>(runs.size());
+        PriorityQueue<RunReader> heads = new PriorityQueue<>(Math.max(1, runs.size()),
+                (first, second) -> comparator.compare(first.current, second.current));
+        try {
+            for (Path run : runs) {
+                RunReader reader = new RunReader(codec, run);
+                readers.add(reader);
+                if (reader.advance())
+                    heads.add(reader);
+            }
+            long written = 0;
+            for (; written < limit && !heads.isEmpty(); written++) {
+                RunReader reader = heads.poll();
+                rowSink.accept(reader.current);
+                if (reader.advance())
+                    heads.add(reader);
+            }
+            return written;
+        } finally {
+            for (RunReader reader : readers)
+                reader.in.close();
+        }
+    }
+
+    private static DataOutputStream openRun(Path run) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), SPILL_BUFFER_SIZE));
+    }
+
+    private static String csvCell(String value) {
+        if (value == null)
+            return "";
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0)
+            return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    // a csv number the way the census files write it, plain digits without trailing zeros where appending the double
+    // would add ".0" and switch to scientific notation from 1e7 up
+    private static String csvNumber(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+            return String.valueOf(value);
+        return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeUTF(value);
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    // carries a failed background spill out of the parser callback
+    private static final class SpillException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        SpillException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+
+    private interface RowSink {
+        void accept(SortRow sortRow) throws IOException;
+    }
+
+    private static final class SortRow {
+        final Object censusCSV;
+        final CensusDAO censusDAO;
+        final long sequence;
+
+        SortRow(Object censusCSV, CensusDAO censusDAO, long sequence) {
+            this.censusCSV = censusCSV;
+            this.censusDAO = censusDAO;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final class RunReader {
+        private final RowCodec codec;
+        private final DataInputStream in;
+        private SortRow current;
+
+        RunReader(RowCodec codec, Path run) throws IOException {
+            this.codec = codec;
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), SPILL_BUFFER_SIZE));
+        }
+
+        boolean advance() throws IOException {
+            current = codec.read(in);
+            return current != null;
+        }
+    }
+
+    // the csv fields of one country, rows are written from and rebuilt into its csv model
+    private abstract static class RowCodec {
+
+        private static final RowCodec INDIA = new RowCodec() {
+            @Override
+            String[] columns() {
+                return CensusCsvBinders.INDIA_CENSUS.columns();
+            }
+
+            @Override
+            void parse(Path csvFilePath, Consumer<Object> sink) throws IOException, CensusAnalyserException {
+                new MappedCsvParser<>(CensusCsvBinders.INDIA_CENSUS).parse(csvFilePath, sink::accept);
+            }
+
+            @Override
+            CensusDAO newCensusDAO(Object censusCSV) {
+                return new CensusDAO((IndiaCensusCSV) censusCSV);
+            }
+
+            @Override
+            void writeFields(DataOutputStream out, Object row) throws IOException {
+                IndiaCensusCSV censusCSV = (IndiaCensusCSV) row;
+                writeNullable(out, censusCSV.state);
+                out.writeInt(censusCSV.population);
+                out.writeInt(censusCSV.areaInSqKm);
+                out.writeInt(censusCSV.densityPerSqKm);
+            }
+
+            @Override
+            Object readFields(DataInputStream in) throws IOException {
+                IndiaCensusCSV censusCSV = new IndiaCensusCSV();
+                censusCSV.state = readNullable(in);
+                censusCSV.population = in.readInt();
+                censusCSV.areaInSqKm = in.readInt();
+                censusCSV.densityPerSqKm = in.readInt();
+                return censusCSV;
+            }
+
+            @Override
+            void appendCsv(StringBuilder line, Object row) {
+                IndiaCensusCSV censusCSV = (IndiaCensusCSV) row;
+                line.append(csvCell(censusCSV.state)).append(',').append(censusCSV.population).append(',')
+                        .append(censusCSV.areaInSqKm).append(',').append(censusCSV.densityPerSqKm);
+            }
+        };
+
+        private static final RowCodec US = new RowCodec() {
+            @Override
+            String[] columns() {
+                return CensusCsvBinders.US_CENSUS.columns();
+            }
+
+            @Override
+            void parse(Path csvFilePath, Consumer<Object> sink) throws IOException, CensusAnalyserException {
+                new MappedCsvParser<>(CensusCsvBinders.US_CENSUS).parse(csvFilePath, sink::accept);
+            }
+
+            @Override
+            CensusDAO newCensusDAO(Object censusCSV) {
+                return new CensusDAO((USCensusCSV) censusCSV);
+            }
+
+            @Override
+            void writeFields(DataOutputStream out, Object row) throws IOException {
+                USCensusCSV censusCSV = (USCensusCSV) row;
+                writeNullable(out, censusCSV.stateId);
+                writeNullable(out, censusCSV.state);
+                out.writeInt(censusCSV.population);
+                out.writeInt(censusCSV.housingUnits);
+                out.writeDouble(censusCSV.totalArea);
+                out.writeDouble(censusCSV.waterArea);
+                out.writeDouble(censusCSV.landArea);
+                out.writeDouble(censusCSV.populationDensity);
+                out.writeDouble(censusCSV.housingDensity);
+            }
+
+            @Override
+            Object readFields(DataInputStream in) throws IOException {
+                USCensusCSV censusCSV = new USCensusCSV();
+                censusCSV.stateId = readNullable(in);
+                censusCSV.state = readNullable(in);
+                censusCSV.population = in.readInt();
+                censusCSV.housingUnits = in.readInt();
+                censusCSV.totalArea = in.readDouble();
+                censusCSV.waterArea = in.readDouble();
+                censusCSV.landArea = in.readDouble();
+                censusCSV.populationDensity = in.readDouble();
+                censusCSV.housingDensity = in.readDouble();
+                return censusCSV;
+            }
+
+            @Override
+            void appendCsv(StringBuilder line, Object row) {
+                USCensusCSV censusCSV = (USCensusCSV) row;
+                line.append(csvCell(censusCSV.stateId)).append(',').append(csvCell(censusCSV.state)).append(',')
+                        .append(censusCSV.population).append(',').append(censusCSV.housingUnits).append(',')
+                        .append(csvNumber(censusCSV.totalArea)).append(',').append(csvNumber(censusCSV.waterArea))
+                        .append(',').append(csvNumber(censusCSV.landArea)).append(',')
+                        .append(csvNumber(censusCSV.populationDensity)).append(',')
+                        .append(csvNumber(censusCSV.housingDensity));
+            }
+        };
+
+        static RowCodec of(CensusAnalyser.Country country) throws CensusAnalyserException {
+            if (country == CensusAnalyser.Country.INDIA)
+                return INDIA;
+            if (country == CensusAnalyser.Country.US)
+                return US;
+            throw new CensusAnalyserException("Country Not Present", CensusAnalyserException.ExceptionType.NO_SUCH_COUNTRY);
+        }
+
+        abstract String[] columns();
+
+        abstract void parse(Path csvFilePath, Consumer<Object> sink) throws IOException, CensusAnalyserException;
+
+        abstract CensusDAO newCensusDAO(Object censusCSV);
+
+        abstract void writeFields(DataOutputStream out, Object censusCSV) throws IOException;
+
+        abstract Object readFields(DataInputStream in) throws IOException;
+
+        abstract void appendCsv(StringBuilder line, Object censusCSV);
+
+        void write(DataOutputStream out, SortRow sortRow) throws IOException {
+            out.writeBoolean(true);
+            out.writeLong(sortRow.sequence);
+            writeNullable(out, sortRow.censusDAO.stateCode);
+            writeFields(out, sortRow.censusCSV);
+        }
+
+        // null once the run is exhausted
+        SortRow read(DataInputStream in) throws IOException {
+            if (in.read() <= 0)
+                return null;
+            long sequence = in.readLong();
+            String stateCode = readNullable(in);
+            Object censusCSV = readFields(in);
+            CensusDAO censusDAO = newCensusDAO(censusCSV);
+            censusDAO.stateCode = stateCode;
+            return new SortRow(censusCSV, censusDAO, sequence);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package censusanalyser.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.zip.CRC32;
+
+// size and modification time decide cheaply whether a file may have changed, the checksum whether it really did
+final class FileFingerprint {
+
+    final long size;
+    final long lastModified;
+    final long checksum;
+
+    private FileFingerprint(long size, long lastModified, long checksum) {
+        this.size = size;
+        this.lastModified = lastModified;
+        this.checksum = checksum;
+    }
+
+    // the modification time is taken before the content is read, so a write racing the read is seen on the next check
+    static FileFingerprint of(long lastModified, byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+        return new FileFingerprint(content.length, lastModified, crc.getValue());
+    }
+
+    boolean sameMetadata(Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        return attributes.size() == size && attributes.lastModifiedTime().toMillis() == lastModified;
+    }
+
+    boolean sameContent(FileFingerprint other) {
+        return other.size == size && other.checksum == checksum;
+    }
+}
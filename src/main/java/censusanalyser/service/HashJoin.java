@@ -0,0 +1,100 @@
+package censusanalyser.service;
+
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * Equi-join of two row sets on normalized keys. The hash table is built over the smaller side and the other side is
+ * probed once. Rows sharing a key are chained in row order, so every left row sees its matching right rows in
+ * ascending order whichever side was built.
+ */
+final class HashJoin {
+
+    interface Matcher {
+        void match(int leftRow, int rightRow);
+    }
+
+    final int matchedLeftRows;
+    final int[] unmatchedLeftRows;
+    final int[] unmatchedRightRows;
+
+    private HashJoin(boolean[] leftMatched, boolean[] rightMatched) {
+        this.unmatchedLeftRows = unmatched(leftMatched);
+        this.unmatchedRightRows = unmatched(rightMatched);
+        this.matchedLeftRows = leftMatched.length - unmatchedLeftRows.length;
+    }
+
+    static HashJoin join(int leftSize, IntFunction<String> leftKey, int rightSize, IntFunction<String> rightKey,
+                         JoinKeys joinKeys, Matcher matcher) {
+        boolean[] leftMatched = new boolean[leftSize];
+        boolean[] rightMatched = new boolean[rightSize];
+        if (rightSize <= leftSize) {
+            Table table = new Table(rightSize, rightKey, joinKeys);
+            for (int left = 0; left < leftSize; left++) {
+                for (int right = table.first(joinKeys.normalize(leftKey.apply(left))); right >= 0; right = table.next[right]) {
+                    matcher.match(left, right);
+                    leftMatched[left] = true;
+                    rightMatched[right] = true;
+                }
+            }
+        } else {
+            Table table = new Table(leftSize, leftKey, joinKeys);
+            for (int right = 0; right < rightSize; right++) {
+                for (int left = table.first(joinKeys.normalize(rightKey.apply(right))); left >= 0; left = table.next[left]) {
+                    matcher.match(left, right);
+                    leftMatched[left] = true;
+                    rightMatched[right] = true;
+                }
+            }
+        }
+        return new HashJoin(leftMatched, rightMatched);
+    }
+
+    private static int[] unmatched(boolean[] matched) {
+        int[] rows = new int[matched.length];
+        int count = 0;
+        for (int row = 0; row < matched.length; row++) {
+            if (!matched[row])
+                rows[count++] = row;
+        }
+        return Arrays.copyOf(rows, count);
+    }
+
+    // open addressing over the distinct keys, each slot holds the first row of its chain
+    private static final class Table {
+        private final String[] keys;
+        private final int[] heads;
+        private final int[] next;
+
+        Table(int size, IntFunction<String> key, JoinKeys joinKeys) {
+            int capacity = Integer.highestOneBit(Math.max(size, 1) * 4 - 1);
+            keys = new String[capacity];
+            heads = new int[capacity];
+            next = new int[size];
+            Arrays.fill(heads, -1);
+            for (int row = size - 1; row >= 0; row--) {
+                String normalized = joinKeys.normalize(key.apply(row));
+                if (normalized == null) {
+                    next[row] = -1;
+                    continue;
+                }
+                int slot = slot(normalized);
+                keys[slot] = normalized;
+                next[row] = heads[slot];
+                heads[slot] = row;
+            }
+        }
+
+        int first(String normalized) {
+            return normalized == null ? -1 : heads[slot(normalized)];
+        }
+
+        private int slot(String normalized) {
+            int mask = keys.length - 1;
+            int slot = normalized.hashCode() * 0x9E3779B9 >>> 1 & mask;
+            while (keys[slot] != null && !keys[slot].equals(normalized))
+                slot = (slot + 1) & mask;
+            return slot;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package censusanalyser.service;
+
+class IndexSort {
+
+    interface IntComparator {
+        int compare(int first, int second);
+    }
+
+    private IndexSort() {
+    }
+
+    static int[] identity(int size) {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++)
+            order[i] = i;
+        return order;
+    }
+
+    // stable merge sort over row positions, so keys are compared without boxing
+    static void sort(int[] order, IntComparator comparator) {
+        if (order.length < 2)
+            return;
+        int[] buffer = order.clone();
+        mergeSort(buffer, order, 0, order.length, comparator);
+    }
+
+    private static void mergeSort(int[] source, int[] target, int from, int to, IntComparator comparator) {
+        if (to - from < 8) {
+            for (int i = from + 1; i < to; i++) {
+                int current = target[i];
+                int j = i - 1;
+                while (j >= from && comparator.compare(target[j], current) > 0) {
+                    target[j + 1] = target[j];
+                    j--;
+                }
+                target[j + 1] = current;
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(target, source, from, middle, comparator);
+        mergeSort(target, source, middle, to, comparator);
+        if (comparator.compare(source[middle - 1], source[middle]) <= 0) {
+            System.arraycopy(source, from, target, from, to - from);
+            return;
+        }
+        for (int i = from, left = from, right = middle; i < to; i++) {
+            if (right >= to || left < middle && comparator.compare(source[left], source[right]) <= 0)
+                target[i] = source[left++];
+            else
+                target[i] = source[right++];
+        }
+    }
+}
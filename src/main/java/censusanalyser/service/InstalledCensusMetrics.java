@@ -0,0 +1,10 @@
+package censusanalyser.service;
+
+// interfaces can not hold mutable state, the installed CensusMetrics lives here
+final class InstalledCensusMetrics {
+
+    static volatile CensusMetrics metrics = CensusMetrics.NONE;
+
+    private InstalledCensusMetrics() {
+    }
+}
@@ -0,0 +1,236 @@
+package censusanalyser.service;
+
+import censusanalyser.exceptions.CensusAnalyserException;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link CensusMetrics} kept in striped counters and published as the MBean {@value #OBJECT_NAME}.
+ * <pre>
+ *     JmxCensusMetrics metrics = new JmxCensusMetrics();
+ *     metrics.register();
+ *     CensusMetrics.install(metrics);
+ * </pre>
+ */
+public class JmxCensusMetrics implements CensusMetrics, CensusMetricsMXBean {
+
+    public static final String OBJECT_NAME = "censusanalyser:type=CensusMetrics";
+
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder rowsParsed = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder parseNanos = new LongAdder();
+    private final Map<CensusAnalyserException.ExceptionType, LongAdder> parseErrors =
+            new EnumMap<>(CensusAnalyserException.ExceptionType.class);
+    private final LongAdder joinHits = new LongAdder();
+    private final LongAdder joinMisses = new LongAdder();
+    private final LongAdder joinLookupMisses = new LongAdder();
+    private final LatencyHistogram sortLatency = new LatencyHistogram();
+    private final LatencyHistogram serializeLatency = new LatencyHistogram();
+    private final LongAdder snapshotsExported = new LongAdder();
+    private final LongAdder snapshotBytes = new LongAdder();
+    private final LongAdder snapshotsFailed = new LongAdder();
+    private final LongAdder snapshotsRejected = new LongAdder();
+
+    public JmxCensusMetrics() {
+        for (CensusAnalyserException.ExceptionType type : CensusAnalyserException.ExceptionType.values())
+            parseErrors.put(type, new LongAdder());
+    }
+
+    public void register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name))
+            server.unregisterMBean(name);
+        server.registerMBean(this, name);
+    }
+
+    public void unregister() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name))
+            server.unregisterMBean(name);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public void parsed(CensusAnalyser.Country country, long rows, long bytes, long nanos) {
+        loads.increment();
+        rowsParsed.add(rows);
+        bytesRead.add(bytes);
+        parseNanos.add(nanos);
+    }
+
+    @Override
+    public void parseFailed(CensusAnalyserException.ExceptionType type) {
+        parseErrors.get(type).increment();
+    }
+
+    @Override
+    public void joined(long matchedRows, long unmatchedRows, long unmatchedLookupRows) {
+        joinHits.add(matchedRows);
+        joinMisses.add(unmatchedRows);
+        joinLookupMisses.add(unmatchedLookupRows);
+    }
+
+    @Override
+    public void sorted(CensusQuery query, int rows, long nanos) {
+        sortLatency.record(nanos);
+    }
+
+    @Override
+    public void serialized(int rows, long nanos) {
+        serializeLatency.record(nanos);
+    }
+
+    @Override
+    public void snapshotExported(Path target, long bytes) {
+        snapshotsExported.increment();
+        snapshotBytes.add(bytes);
+    }
+
+    @Override
+    public void snapshotFailed(Path target, Exception e) {
+        snapshotsFailed.increment();
+    }
+
+    @Override
+    public void snapshotRejected(Path target) {
+        snapshotsRejected.increment();
+    }
+
+    @Override
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    @Override
+    public long getRowsParsed() {
+        return rowsParsed.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public double getRowsParsedPerSecond() {
+        long nanos = parseNanos.sum();
+        return nanos == 0 ? 0 : rowsParsed.sum() * 1e9 / nanos;
+    }
+
+    @Override
+    public Map<String, Long> getParseErrors() {
+        Map<String, Long> errors = new LinkedHashMap<>();
+        for (Map.Entry<CensusAnalyserException.ExceptionType, LongAdder> entry : parseErrors.entrySet())
+            errors.put(entry.getKey().name(), entry.getValue().sum());
+        return errors;
+    }
+
+    @Override
+    public long getJoinHits() {
+        return joinHits.sum();
+    }
+
+    @Override
+    public long getJoinMisses() {
+        return joinMisses.sum();
+    }
+
+    @Override
+    public long getJoinLookupMisses() {
+        return joinLookupMisses.sum();
+    }
+
+    @Override
+    public long getSortCount() {
+        return sortLatency.count();
+    }
+
+    @Override
+    public double getSortMeanMicros() {
+        return sortLatency.meanMicros();
+    }
+
+    @Override
+    public double getSortP99Micros() {
+        return sortLatency.percentileMicros(0.99);
+    }
+
+    @Override
+    public long[] getSortLatencyHistogram() {
+        return sortLatency.buckets();
+    }
+
+    @Override
+    public long getSerializeCount() {
+        return serializeLatency.count();
+    }
+
+    @Override
+    public double getSerializeMeanMicros() {
+        return serializeLatency.meanMicros();
+    }
+
+    @Override
+    public double getSerializeP99Micros() {
+        return serializeLatency.percentileMicros(0.99);
+    }
+
+    @Override
+    public long[] getSerializeLatencyHistogram() {
+        return serializeLatency.buckets();
+    }
+
+    @Override
+    public long getSnapshotsExported() {
+        return snapshotsExported.sum();
+    }
+
+    @Override
+    public long getSnapshotBytesWritten() {
+        return snapshotBytes.sum();
+    }
+
+    @Override
+    public long getSnapshotsFailed() {
+        return snapshotsFailed.sum();
+    }
+
+    @Override
+    public long getSnapshotsRejected() {
+        return snapshotsRejected.sum();
+    }
+
+    @Override
+    public void reset() {
+        loads.reset();
+        rowsParsed.reset();
+        bytesRead.reset();
+        parseNanos.reset();
+        for (LongAdder errors : parseErrors.values())
+            errors.reset();
+        joinHits.reset();
+        joinMisses.reset();
+        joinLookupMisses.reset();
+        sortLatency.reset();
+        serializeLatency.reset();
+        snapshotsExported.reset();
+        snapshotBytes.reset();
+        snapshotsFailed.reset();
+        snapshotsRejected.reset();
+    }
+}
@@ -0,0 +1,76 @@
+package censusanalyser.service;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Normalizes join keys such as state names: surrounding and repeated whitespace is dropped, case is folded and
+ * {@code &} reads as {@code and}. A normalized key listed in the alias table is replaced by the name it stands for.
+ * Instances are immutable, {@link #withAlias} returns a copy.
+ */
+public final class JoinKeys {
+
+    private static final JoinKeys STANDARD = new JoinKeys(Collections.<String, String>emptyMap())
+            .withAlias("Orissa", "Odisha")
+            .withAlias("Pondicherry", "Puducherry")
+            .withAlias("Uttaranchal", "Uttarakhand")
+            .withAlias("NCT of Delhi", "Delhi");
+
+    private final Map<String, String> aliases;
+
+    private JoinKeys(Map<String, String> aliases) {
+        this.aliases = aliases;
+    }
+
+    public static JoinKeys standard() {
+        return STANDARD;
+    }
+
+    public static JoinKeys withoutAliases() {
+        return new JoinKeys(Collections.<String, String>emptyMap());
+    }
+
+    public JoinKeys withAlias(String alias, String name) {
+        Map<String, String> aliases = new TreeMap<>(this.aliases);
+        aliases.put(fold(alias), fold(name));
+        return new JoinKeys(Collections.unmodifiableMap(aliases));
+    }
+
+    public String normalize(String key) {
+        if (key == null)
+            return null;
+        String folded = fold(key);
+        String name = aliases.get(folded);
+        return name == null ? folded : name;
+    }
+
+    private static String fold(String key) {
+        StringBuilder folded = new StringBuilder(key.length());
+        boolean separator = false;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (Character.isWhitespace(c) || c == '\uFEFF') {
+                separator = true;
+                continue;
+            }
+            if (separator && folded.length() > 0)
+                folded.append(' ');
+            separator = false;
+            if (c == '&') {
+                if (folded.length() > 0 && folded.charAt(folded.length() - 1) != ' ')
+                    folded.append(' ');
+                folded.append("and");
+                separator = true;
+            } else {
+                folded.append(Character.toLowerCase(Character.toUpperCase(c)));
+            }
+        }
+        return folded.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "JoinKeys" + aliases;
+    }
+}
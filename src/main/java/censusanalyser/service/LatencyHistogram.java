@@ -0,0 +1,72 @@
+package censusanalyser.service;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// bucket i counts latencies below 2^i nanoseconds and at least 2^(i-1), recording never blocks or allocates
+final class LatencyHistogram {
+
+    private final LongAdder[] buckets = new LongAdder[64];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    void record(long nanos) {
+        long latency = Math.max(nanos, 0);
+        buckets[64 - Long.numberOfLeadingZeros(latency) & 63].increment();
+        count.increment();
+        totalNanos.add(latency);
+        maxNanos.accumulate(latency);
+    }
+
+    long count() {
+        return count.sum();
+    }
+
+    double meanMicros() {
+        long count = count();
+        return count == 0 ? 0 : totalNanos.sum() / 1000.0 / count;
+    }
+
+    double maxMicros() {
+        return maxNanos.get() / 1000.0;
+    }
+
+    // upper bound of the bucket holding the given fraction of all recorded latencies
+    double percentileMicros(double fraction) {
+        long[] counts = buckets();
+        long total = 0;
+        for (long bucketCount : counts)
+            total += bucketCount;
+        if (total == 0)
+            return 0;
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(Math.pow(2, i), maxNanos.get()) / 1000.0;
+        }
+        return maxMicros();
+    }
+
+    long[] buckets() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++)
+            counts[i] = buckets[i].sum();
+        return counts;
+    }
+
+    void reset() {
+        for (LongAdder bucket : buckets)
+            bucket.reset();
+        count.reset();
+        totalNanos.reset();
+        maxNanos.reset();
+    }
+}
@@ -0,0 +1,213 @@
+package censusanalyser.service;
+
+import censusanalyser.exceptions.CensusAnalyserException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reads a csv file through {@link FileChannel#map} and scans the mapped bytes in place, without a Reader or charset
+ * decoding of the whole file. Only the cells a {@link CsvRowBinder} asks for are turned into values: numbers are
+ * parsed from a small reused scratch buffer and text cells take an ASCII fast path with a UTF-8 fallback. Bad rows
+ * go to {@link RowRejects} when one is given, as in {@link CensusCsvParser}. Compressed files are streamed through
+ * {@link CompressedInput} instead of being mapped.
+ */
+class MappedCsvParser<T> {
+
+    private static final long WINDOW_SIZE = 256L * 1024 * 1024;
+
+    private final CsvRowBinder<T> binder;
+    private final long windowSize;
+    private final RowRejects rowRejects;
+
+    MappedCsvParser(CsvRowBinder<T> binder) {
+        this(binder, WINDOW_SIZE);
+    }
+
+    MappedCsvParser(CsvRowBinder<T> binder, long windowSize) {
+        this(binder, windowSize, null);
+    }
+
+    MappedCsvParser(CsvRowBinder<T> binder, RowRejects rowRejects) {
+        this(binder, WINDOW_SIZE, rowRejects);
+    }
+
+    MappedCsvParser(CsvRowBinder<T> binder, long windowSize, RowRejects rowRejects) {
+        this.binder = binder;
+        this.windowSize = windowSize;
+        this.rowRejects = rowRejects;
+    }
+
+    List<T> parse(Path csvFilePath) throws IOException, CensusAnalyserException {
+        List<T> records = new ArrayList<>();
+        parse(csvFilePath, records::add);
+        return records;
+    }
+
+    // a compressed file can not be mapped, its decompressed stream is parsed instead
+    void parse(Path csvFilePath, Consumer<? super T> sink) throws IOException, CensusAnalyserException {
+        if (CompressedInput.isCompressed(csvFilePath)) {
+            try (Reader reader = CompressedInput.newReader(csvFilePath)) {
+                new CensusCsvParser<>(binder, rowRejects).parse(reader, sink);
+            }
+            return;
+        }
+        Row row = new Row();
+        try (FileChannel channel = FileChannel.open(csvFilePath, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long windowStart = 0;
+            while (windowStart < size) {
+                long length = Math.min(windowSize, size - windowStart);
+                boolean lastWindow = windowStart + length == size;
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, length);
+                int lineStart = windowStart == 0 ? skipByteOrderMark(window) : 0;
+                int limit = window.limit();
+                for (int position = lineStart; position < limit; position++) {
+                    if (window.get(position) == '\n') {
+                        processLine(row, window, lineStart, position, sink);
+                        lineStart = position + 1;
+                    }
+                }
+                if (lastWindow) {
+                    if (lineStart < limit)
+                        processLine(row, window, lineStart, limit, sink);
+                    break;
+                }
+                if (lineStart == 0)
+                    throw new CensusAnalyserException("Csv line longer than " + windowSize + " bytes",
+                            CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM);
+                windowStart += lineStart;
+            }
+        }
+        if (row.positions == null)
+            throw new CensusAnalyserException("Missing csv header", CensusAnalyserException.ExceptionType.WRONG_DELIMITER_HEADER);
+    }
+
+    private static int skipByteOrderMark(MappedByteBuffer window) {
+        if (window.limit() >= 3 && (window.get(0) & 0xFF) == 0xEF && (window.get(1) & 0xFF) == 0xBB
+                && (window.get(2) & 0xFF) == 0xBF)
+            return 3;
+        return 0;
+    }
+
+    private void processLine(Row row, MappedByteBuffer window, int from, int to, Consumer<? super T> sink) throws CensusAnalyserException {
+        row.lineNumber++;
+        if (to > from && window.get(to - 1) == '\r')
+            to--;
+        if (to == from)
+            return;
+        row.split(window, from, to);
+        if (row.positions == null) {
+            String[] header = new String[row.fieldCount];
+            for (int field = 0; field < row.fieldCount; field++)
+                header[field] = row.getField(field);
+            row.positions = CensusCsvParser.resolveHeader(header, binder);
+            row.headerCount = row.fieldCount;
+            return;
+        }
+        if (row.fieldCount != row.headerCount) {
+            if (rowRejects == null)
+                throw new CensusAnalyserException("Number of data fields does not match number of headers at line " + row.lineNumber,
+                        CensusAnalyserException.ExceptionType.WRONG_DELIMITER_HEADER);
+            rowRejects.reject(row.lineNumber, CensusAnalyserException.ExceptionType.WRONG_DELIMITER_HEADER,
+                    "Number of data fields does not match number of headers", line(window, from, to));
+            return;
+        }
+        try {
+            sink.accept(binder.bind(row));
+        } catch (NumberFormatException e) {
+            if (rowRejects == null)
+                throw new CensusAnalyserException(e.getMessage() + " at line " + row.lineNumber,
+                        CensusAnalyserException.ExceptionType.WRONG_DELIMITER_HEADER);
+            rowRejects.reject(row.lineNumber, CensusAnalyserException.ExceptionType.UNABLE_TO_PARSE, e.getMessage(),
+                    line(window, from, to));
+        }
+    }
+
+    private static String line(MappedByteBuffer window, int from, int to) {
+        byte[] line = new byte[to - from];
+        for (int i = 0; i < line.length; i++)
+            line[i] = window.get(from + i);
+        return new String(line, StandardCharsets.UTF_8);
+    }
+
+    private static final class Row extends CsvCells implements CsvRow {
+        private MappedByteBuffer window;
+        private byte[] bytes = new byte[64];
+        private char[] chars = new char[64];
+        private int headerCount;
+        private int[] positions;
+        private long lineNumber;
+
+        void split(MappedByteBuffer window, int from, int to) {
+            this.window = window;
+            split(from, to);
+        }
+
+        @Override
+        int charAt(int position) {
+            return window.get(position);
+        }
+
+        @Override
+        public long lineNumber() {
+            return lineNumber;
+        }
+
+        @Override
+        public boolean isEmpty(int column) {
+            return positions[column] < 0 || isBlank(positions[column]);
+        }
+
+        @Override
+        public String getString(int column) {
+            return positions[column] < 0 ? null : getField(positions[column]);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return CsvNumbers.parseInt(chars, 0, toChars(positions[column]));
+        }
+
+        @Override
+        public long getLong(int column) {
+            return CsvNumbers.parseLong(chars, 0, toChars(positions[column]));
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return CsvNumbers.parseDouble(chars, 0, toChars(positions[column]));
+        }
+
+        // numbers are plain ASCII, so widening each byte is enough; anything else fails the number parser
+        private int toChars(int field) {
+            int length = ends[field] - starts[field];
+            if (chars.length < length)
+                chars = new char[Math.max(length, chars.length * 2)];
+            for (int i = 0; i < length; i++)
+                chars[i] = (char) (window.get(starts[field] + i) & 0xFF);
+            return length;
+        }
+
+        private String getField(int field) {
+            int length = ends[field] - starts[field];
+            if (bytes.length < length)
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            boolean ascii = true;
+            for (int i = 0; i < length; i++) {
+                byte value = window.get(starts[field] + i);
+                bytes[i] = value;
+                ascii &= value >= 0;
+            }
+            return unquote(field, new String(bytes, 0, length, ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8));
+        }
+    }
+}
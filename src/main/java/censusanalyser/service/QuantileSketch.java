@@ -0,0 +1,99 @@
+package censusanalyser.service;
+
+// log bucketed quantile sketch, any returned quantile is within 1% of a value that was added at about that rank;
+// two sketches merge by adding their bucket counts, so partitions can be summarized independently
+final class QuantileSketch {
+
+    private static final double RELATIVE_ACCURACY = 0.01;
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    private static final double MIN_MAGNITUDE = 1e-9;
+
+    private final Buckets positive = new Buckets();
+    private final Buckets negative = new Buckets();
+    private long zeroCount;
+
+    void add(double value) {
+        if (value > MIN_MAGNITUDE)
+            positive.add(bucket(value), 1);
+        else if (value < -MIN_MAGNITUDE)
+            negative.add(bucket(-value), 1);
+        else
+            zeroCount++;
+    }
+
+    void merge(QuantileSketch other) {
+        positive.merge(other.positive);
+        negative.merge(other.negative);
+        zeroCount += other.zeroCount;
+    }
+
+    long count() {
+        return positive.total + negative.total + zeroCount;
+    }
+
+    double quantile(double fraction) {
+        long count = count();
+        if (count == 0)
+            return Double.NaN;
+        long rank = (long) (fraction * (count - 1));
+        if (rank < negative.total) {
+            long seen = 0;
+            for (int i = negative.counts.length - 1; i >= 0; i--) {
+                seen += negative.counts[i];
+                if (seen > rank)
+                    return -value(negative.offset + i);
+            }
+        }
+        rank -= negative.total;
+        if (rank < zeroCount)
+            return 0;
+        rank -= zeroCount;
+        long seen = 0;
+        for (int i = 0; i < positive.counts.length; i++) {
+            seen += positive.counts[i];
+            if (seen > rank)
+                return value(positive.offset + i);
+        }
+        return Double.NaN;
+    }
+
+    private static int bucket(double magnitude) {
+        return (int) Math.ceil(Math.log(magnitude) / LOG_GAMMA);
+    }
+
+    private static double value(int bucket) {
+        return 2 * Math.pow(GAMMA, bucket) / (GAMMA + 1);
+    }
+
+    // counts for the bucket range [offset, offset + counts.length)
+    private static final class Buckets {
+        private long[] counts = new long[0];
+        private int offset;
+        private long total;
+
+        void add(int bucket, long count) {
+            if (counts.length == 0) {
+                counts = new long[16];
+                offset = bucket - 8;
+            } else if (bucket < offset || bucket >= offset + counts.length) {
+                int from = Math.min(offset, bucket);
+                int to = Math.max(offset + counts.length, bucket + 1);
+                int slack = (to - from) / 2 + 1;
+                long[] grown = new long[to - from + 2 * slack];
+                System.arraycopy(counts, 0, grown, offset - from + slack, counts.length);
+                counts = grown;
+                offset = from - slack;
+            }
+            counts[bucket - offset] += count;
+            total += count;
+        }
+
+        void merge(Buckets other) {
+            for (int i = 0; i < other.counts.length; i++) {
+                if (other.counts[i] != 0)
+                    add(other.offset + i, other.counts[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package censusanalyser.service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Least recently used cache of computed results, bounded by the summed weight of its values. A value heavier than
+ * the whole cache is never kept.
+ */
+final class ResultCache<K, V> {
+
+    private final long maxWeight;
+    private final ToLongFunction<V> weigher;
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private long weight;
+
+    ResultCache(long maxWeight, ToLongFunction<V> weigher) {
+        if (maxWeight < 0)
+            throw new IllegalArgumentException("maxWeight must not be negative: " + maxWeight);
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    V get(K key) {
+        V value;
+        synchronized (this) {
+            value = entries.get(key);
+        }
+        if (value == null)
+            misses.increment();
+        else
+            hits.increment();
+        return value;
+    }
+
+    synchronized void put(K key, V value) {
+        long valueWeight = weigher.applyAsLong(value);
+        V replaced = entries.remove(key);
+        if (replaced != null)
+            weight -= weigher.applyAsLong(replaced);
+        if (valueWeight > maxWeight)
+            return;
+        entries.put(key, value);
+        weight += valueWeight;
+        Iterator<V> eldest = entries.values().iterator();
+        while (weight > maxWeight) {
+            weight -= weigher.applyAsLong(eldest.next());
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    synchronized void removeIf(Predicate<? super K> stale) {
+        Iterator<Map.Entry<K, V>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<K, V> entry = iterator.next();
+            if (stale.test(entry.getKey())) {
+                weight -= weigher.applyAsLong(entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long weight() {
+        return weight;
+    }
+
+    synchronized CacheStats stats() {
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), entries.size(), weight);
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    long evictions() {
+        return evictions.sum();
+    }
+}
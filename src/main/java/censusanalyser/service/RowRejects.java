@@ -0,0 +1,75 @@
+package censusanalyser.service;
+
+import censusanalyser.exceptions.CensusAnalyserException;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Csv rows a lenient parse skipped, with the line they were on and why. A parser hands its bad rows here instead of
+ * failing; one instance is filled by one thread.
+ */
+final class RowRejects {
+
+    private final List<Reject> rejects = new ArrayList<>();
+    private final long[] counts = new long[CensusAnalyserException.ExceptionType.values().length];
+
+    void reject(long lineNumber, CensusAnalyserException.ExceptionType type, String reason, String line) {
+        rejects.add(new Reject(lineNumber, type, reason, line));
+        counts[type.ordinal()]++;
+    }
+
+    // the rejects of a chunk parsed on its own, whose line numbers start lineOffset lines into the file
+    void addAll(RowRejects chunkRejects, long lineOffset) {
+        for (Reject reject : chunkRejects.rejects)
+            this.reject(reject.lineNumber + lineOffset, reject.type, reject.reason, reject.line);
+    }
+
+    long size() {
+        return rejects.size();
+    }
+
+    Map<CensusAnalyserException.ExceptionType, Long> counts() {
+        Map<CensusAnalyserException.ExceptionType, Long> counts = new EnumMap<>(CensusAnalyserException.ExceptionType.class);
+        for (CensusAnalyserException.ExceptionType type : CensusAnalyserException.ExceptionType.values()) {
+            if (this.counts[type.ordinal()] > 0)
+                counts.put(type, this.counts[type.ordinal()]);
+        }
+        return Collections.unmodifiableMap(counts);
+    }
+
+    void write(Writer writer) throws IOException {
+        writer.write("Line,Error,Reason,Row\n");
+        for (Reject reject : rejects) {
+            writer.write(reject.lineNumber + "," + reject.type + "," + quote(reject.reason) + "," + quote(reject.line));
+            writer.write('\n');
+        }
+    }
+
+    private static String quote(String value) {
+        if (value == null)
+            return "";
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0)
+            return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static final class Reject {
+        private final long lineNumber;
+        private final CensusAnalyserException.ExceptionType type;
+        private final String reason;
+        private final String line;
+
+        Reject(long lineNumber, CensusAnalyserException.ExceptionType type, String reason, String line) {
+            this.lineNumber = lineNumber;
+            this.type = type;
+            this.reason = reason;
+            this.line = line;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package censusanalyser.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes json snapshot files on a background thread. Requests wait in a bounded queue, a snapshot that is submitted
+ * again before it was written only keeps its latest content, and every file is written to a temp file first and
+ * renamed over the target so readers never see a partial snapshot. Every outcome is reported to the listener and to
+ * the installed {@link CensusMetrics}.
+ */
+public class SnapshotExporter implements Closeable {
+
+    public interface Listener {
+        void exported(Path target, long bytes);
+
+        void failed(Path target, Exception e);
+    }
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 64;
+    private static final long CLOSE_TIMEOUT_MILLIS = 10_000;
+    private static final Listener NO_LISTENER = new Listener() {
+        @Override
+        public void exported(Path target, long bytes) {
+        }
+
+        @Override
+        public void failed(Path target, Exception e) {
+        }
+    };
+    private static SnapshotExporter defaultExporter;
+
+    private final BlockingQueue<Path> queue;
+    private final ConcurrentHashMap<Path, String> pending = new ConcurrentHashMap<>();
+    private final Listener listener;
+    private final Thread worker;
+    private final AtomicLong exported = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final Object idle = new Object();
+    private int inFlight;
+    private volatile boolean closed;
+
+    public SnapshotExporter() {
+        this(DEFAULT_QUEUE_CAPACITY, NO_LISTENER);
+    }
+
+    public SnapshotExporter(int queueCapacity, Listener listener) {
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.listener = listener;
+        this.worker = new Thread(this::drain, "census-snapshot-exporter");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    // the worker is a daemon, the shutdown hook lets it write what is still queued before the JVM exits
+    static synchronized SnapshotExporter getDefault() {
+        if (defaultExporter == null) {
+            defaultExporter = new SnapshotExporter();
+            Runtime.getRuntime().addShutdownHook(new Thread(defaultExporter::close, "census-snapshot-exporter-shutdown"));
+        }
+        return defaultExporter;
+    }
+
+    public boolean submit(String filePath, String json) {
+        Path target = Paths.get(filePath).toAbsolutePath();
+        synchronized (idle) {
+            if (closed) {
+                reject(target);
+                return false;
+            }
+            if (pending.put(target, json) != null) {
+                coalesced.incrementAndGet();
+                return true;
+            }
+            if (!queue.offer(target)) {
+                pending.remove(target);
+                reject(target);
+                return false;
+            }
+            inFlight++;
+        }
+        return true;
+    }
+
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (idle) {
+            while (inFlight > 0) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0)
+                    return false;
+                idle.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    public long getExportedCount() {
+        return exported.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Stops accepting snapshots and waits for the queued ones to be written. The worker is only interrupted once it is
+     * idle, or when writing takes longer than the close timeout.
+     */
+    @Override
+    public void close() {
+        synchronized (idle) {
+            closed = true;
+        }
+        if (Thread.currentThread() == worker)
+            return;
+        boolean interrupted = false;
+        try {
+            awaitIdle(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        // wakes the worker from an empty queue so it sees the exporter closed
+        worker.interrupt();
+        try {
+            worker.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private void drain() {
+        while (!closed || !queue.isEmpty()) {
+            Path target;
+            try {
+                target = queue.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            String json;
+            synchronized (idle) {
+                json = pending.remove(target);
+            }
+            try {
+                if (json != null)
+                    write(target, json);
+            } finally {
+                synchronized (idle) {
+                    inFlight--;
+                    idle.notifyAll();
+                }
+            }
+        }
+    }
+
+    private void write(Path target, String json) {
+        Path temp = null;
+        try {
+            byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+            Path directory = target.getParent();
+            temp = Files.createTempFile(directory, target.getFileName().toString(), ".tmp");
+            Files.write(temp, bytes);
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            exported.incrementAndGet();
+            CensusMetrics.current().snapshotExported(target, bytes.length);
+            listener.exported(target, bytes.length);
+        } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+            deleteQuietly(temp);
+            CensusMetrics.current().snapshotFailed(target, e);
+            listener.failed(target, e);
+        }
+    }
+
+    private void reject(Path target) {
+        rejected.incrementAndGet();
+        CensusMetrics.current().snapshotRejected(target);
+        listener.failed(target, new IOException("Snapshot export queue is full or closed"));
+    }
+
+    private static void deleteQuietly(Path temp) {
+        if (temp == null)
+            return;
+        try {
+            Files.deleteIfExists(temp);
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package censusanalyser.service;
+
+import censusanalyser.exceptions.CensusAnalyserException;
+import censusanalyser.model.CensusDAO;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Enriches census rows with the state codes of a lookup csv. The lookup file may be any csv with a state name column
+ * and a code column, names on both sides are compared as {@link JoinKeys} and a code listed twice for the same state
+ * takes the later one.
+ */
+public class StateCodeJoin {
+
+    public static final String STATE_NAME_COLUMN = "State Name";
+    public static final String STATE_CODE_COLUMN = "StateCode";
+
+    private final JoinKeys joinKeys;
+    private final String stateNameColumn;
+    private final String stateCodeColumn;
+    private final CsvRowBinder<String[]> lookupBinder;
+
+    public StateCodeJoin() {
+        this(JoinKeys.standard());
+    }
+
+    public StateCodeJoin(JoinKeys joinKeys) {
+        this(joinKeys, STATE_NAME_COLUMN, STATE_CODE_COLUMN);
+    }
+
+    public StateCodeJoin(JoinKeys joinKeys, String stateNameColumn, String stateCodeColumn) {
+        this.joinKeys = joinKeys;
+        this.stateNameColumn = stateNameColumn;
+        this.stateCodeColumn = stateCodeColumn;
+        String[] columns = {stateNameColumn, stateCodeColumn};
+        this.lookupBinder = new CsvRowBinder<String[]>() {
+            @Override
+            public String[] columns() {
+                return columns;
+            }
+
+            @Override
+            public String[] bind(CsvRow row) {
+                return new String[]{row.getString(0), row.getString(1)};
+            }
+        };
+    }
+
+    public Report join(List<CensusDAO> censusRows, String lookupFilePath) throws CensusAnalyserException {
+        try {
+            return this.join(censusRows, this.readLookup(lookupFilePath));
+        } catch (IOException e) {
+            throw new CensusAnalyserException(e.getMessage(), CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM);
+        } catch (RuntimeException e) {
+            throw new CensusAnalyserException(e.getMessage(), CensusAnalyserException.ExceptionType.WRONG_DELIMITER_HEADER);
+        }
+    }
+
+    // the state name and code of every lookup row, in file order
+    List<String[]> readLookup(String lookupFilePath) throws IOException, CensusAnalyserException {
+        try (Reader reader = CompressedInput.newReader(Paths.get(lookupFilePath))) {
+            return this.readLookup(reader);
+        }
+    }
+
+    List<String[]> readLookup(Reader reader) throws IOException, CensusAnalyserException {
+        return new CensusCsvParser<>(lookupBinder).parse(reader);
+    }
+
+    <T> BatchJoin<T> batchJoin(List<String[]> lookupRows, Function<T, CensusDAO> censusDAO, Consumer<T> downstream) {
+        return new BatchJoin<>(this, lookupRows, censusDAO, downstream);
+    }
+
+    Report join(List<CensusDAO> censusRows, List<String[]> lookupRows) {
+        return this.join(censusRows.size(), row -> censusRows.get(row).state, lookupRows,
+                (row, stateCode) -> censusRows.get(row).stateCode = stateCode);
+    }
+
+    Report join(int censusSize, IntFunction<String> state, List<String[]> lookupRows, StateCodeSetter setter) {
+        HashJoin hashJoin = HashJoin.join(censusSize, state, lookupRows.size(), row -> lookupRows.get(row)[0],
+                joinKeys, (censusRow, lookupRow) -> setter.set(censusRow, lookupRows.get(lookupRow)[1]));
+        List<String> unmatchedStates = new ArrayList<>(hashJoin.unmatchedLeftRows.length);
+        for (int row : hashJoin.unmatchedLeftRows)
+            unmatchedStates.add(state.apply(row));
+        List<String> unmatchedLookupStates = new ArrayList<>(hashJoin.unmatchedRightRows.length);
+        for (int row : hashJoin.unmatchedRightRows)
+            unmatchedLookupStates.add(lookupRows.get(row)[0]);
+        CensusMetrics.current().joined(hashJoin.matchedLeftRows, unmatchedStates.size(), unmatchedLookupStates.size());
+        return new Report(hashJoin.matchedLeftRows, unmatchedStates, unmatchedLookupStates);
+    }
+
+    CsvRowBinder<String[]> lookupBinder() {
+        return lookupBinder;
+    }
+
+    boolean hasStandardColumns() {
+        return STATE_NAME_COLUMN.equals(stateNameColumn) && STATE_CODE_COLUMN.equals(stateCodeColumn);
+    }
+
+    // everything that changes the outcome of a join, so cached results of another join are not mistaken for this one
+    String signature() {
+        return stateNameColumn + "," + stateCodeColumn + "," + joinKeys;
+    }
+
+    /**
+     * Joins rows that are read one at a time, a batch at a time, and hands them on in the order they came once they
+     * have their codes. A batch holds at least as many rows as the lookup, so building the join's hash table again
+     * for every batch costs no more than probing it.
+     */
+    static final class BatchJoin<T> {
+        private static final int MIN_BATCH_SIZE = 1024;
+
+        private final StateCodeJoin stateCodeJoin;
+        private final List<String[]> lookupRows;
+        private final Function<T, CensusDAO> censusDAO;
+        private final Consumer<T> downstream;
+        private final int batchSize;
+        private final List<T> rows;
+        private final List<CensusDAO> censusRows;
+
+        private BatchJoin(StateCodeJoin stateCodeJoin, List<String[]> lookupRows, Function<T, CensusDAO> censusDAO,
+                          Consumer<T> downstream) {
+            this.stateCodeJoin = stateCodeJoin;
+            this.lookupRows = lookupRows;
+            this.censusDAO = censusDAO;
+            this.downstream = downstream;
+            this.batchSize = Math.max(MIN_BATCH_SIZE, lookupRows.size());
+            this.rows = new ArrayList<>(batchSize);
+            this.censusRows = new ArrayList<>(batchSize);
+        }
+
+        void accept(T row) {
+            rows.add(row);
+            censusRows.add(censusDAO.apply(row));
+            if (rows.size() == batchSize)
+                this.flush();
+        }
+
+        // joins and hands on the rows of a batch that is not full yet, to be called after the last row
+        void flush() {
+            if (rows.isEmpty())
+                return;
+            stateCodeJoin.join(censusRows, lookupRows);
+            rows.forEach(downstream);
+            rows.clear();
+            censusRows.clear();
+        }
+    }
+
+    interface StateCodeSetter {
+        void set(int censusRow, String stateCode);
+    }
+
+    /**
+     * Outcome of a join: how many census rows got a code, the census states without one and the lookup states that
+     * matched no census row.
+     */
+    public static final class Report {
+        private final int matchedRows;
+        private final List<String> unmatchedStates;
+        private final List<String> unmatchedLookupStates;
+
+        Report(int matchedRows, List<String> unmatchedStates, List<String> unmatchedLookupStates) {
+            this.matchedRows = matchedRows;
+            this.unmatchedStates = Collections.unmodifiableList(unmatchedStates);
+            this.unmatchedLookupStates = Collections.unmodifiableList(unmatchedLookupStates);
+        }
+
+        public int getMatchedRows() {
+            return matchedRows;
+        }
+
+        public List<String> getUnmatchedStates() {
+            return unmatchedStates;
+        }
+
+        public List<String> getUnmatchedLookupStates() {
+            return unmatchedLookupStates;
+        }
+
+        @Override
+        public String toString() {
+            return "Report{matchedRows=" + matchedRows + ", unmatchedStates=" + unmatchedStates
+                    + ", unmatchedLookupStates=" + unmatchedLookupStates + '}';
+        }
+    }
+}
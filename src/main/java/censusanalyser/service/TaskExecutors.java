@@ -0,0 +1,29 @@
+package censusanalyser.service;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// executors for tasks that mostly wait on files or sockets, looked up reflectively so the code still runs on Java 8
+final class TaskExecutors {
+
+    private TaskExecutors() {
+    }
+
+    /**
+     * One virtual thread per task where the runtime has them, otherwise a cached pool of daemon threads named
+     * {@code threadName-1}, {@code threadName-2} and so on.
+     */
+    static ExecutorService newPerTaskExecutor(String threadName) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger threads = new AtomicInteger();
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, threadName + "-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
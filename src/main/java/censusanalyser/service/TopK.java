@@ -0,0 +1,144 @@
+package censusanalyser.service;
+
+import censusanalyser.model.CensusField;
+
+import java.util.function.IntPredicate;
+
+// bounded heap selection, rows rank the same way as in the CensusIndex orderings including ties and missing values;
+// a positive rank puts the first row ahead of the second
+class TopK {
+
+    private TopK() {
+    }
+
+    static int[] select(CensusTable censusTable, CensusField field, int k, boolean largest) {
+        return select(censusTable, field, k, largest, row -> true);
+    }
+
+    static int[] select(CensusTable censusTable, CensusField field, int k, boolean largest, IntPredicate filter) {
+        if (k < 0)
+            throw new IllegalArgumentException("k must not be negative: " + k);
+        int capacity = Math.min(k, censusTable.size());
+        if (capacity == 0)
+            return new int[0];
+        return field.isNumeric()
+                ? selectNumeric(censusTable, field, capacity, largest, filter)
+                : selectText(censusTable, field, capacity, largest, filter);
+    }
+
+    private static int[] selectNumeric(CensusTable censusTable, CensusField field, int capacity, boolean largest,
+                                       IntPredicate filter) {
+        int[] rows = new int[capacity];
+        double[] keys = new double[capacity];
+        int size = 0;
+        for (int row = 0; row < censusTable.size(); row++) {
+            if (!filter.test(row))
+                continue;
+            double key = censusTable.value(field, row);
+            if (size < capacity) {
+                int child = size++;
+                while (child > 0) {
+                    int parent = (child - 1) >>> 1;
+                    if (rank(keys[parent], rows[parent], key, row, largest) <= 0)
+                        break;
+                    rows[child] = rows[parent];
+                    keys[child] = keys[parent];
+                    child = parent;
+                }
+                rows[child] = row;
+                keys[child] = key;
+            } else if (rank(key, row, keys[0], rows[0], largest) > 0) {
+                siftDown(rows, keys, size, key, row, largest);
+            }
+        }
+        int[] result = new int[size];
+        for (int last = size - 1; last >= 0; last--) {
+            result[last] = rows[0];
+            siftDown(rows, keys, last, keys[last], rows[last], largest);
+        }
+        return result;
+    }
+
+    private static void siftDown(int[] rows, double[] keys, int size, double key, int row, boolean largest) {
+        int parent = 0;
+        while (true) {
+            int child = 2 * parent + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && rank(keys[child + 1], rows[child + 1], keys[child], rows[child], largest) < 0)
+                child++;
+            if (rank(keys[child], rows[child], key, row, largest) >= 0)
+                break;
+            rows[parent] = rows[child];
+            keys[parent] = keys[child];
+            parent = child;
+        }
+        rows[parent] = row;
+        keys[parent] = key;
+    }
+
+    private static int rank(double firstKey, int firstRow, double secondKey, int secondRow, boolean largest) {
+        int result = CensusIndex.compareValues(firstKey, secondKey, largest);
+        if (result == 0)
+            result = Integer.compare(firstRow, secondRow);
+        return -result;
+    }
+
+    private static int[] selectText(CensusTable censusTable, CensusField field, int capacity, boolean largest,
+                                    IntPredicate filter) {
+        int[] rows = new int[capacity];
+        String[] keys = new String[capacity];
+        int size = 0;
+        for (int row = 0; row < censusTable.size(); row++) {
+            if (!filter.test(row))
+                continue;
+            String key = censusTable.text(field, row);
+            if (size < capacity) {
+                int child = size++;
+                while (child > 0) {
+                    int parent = (child - 1) >>> 1;
+                    if (rank(keys[parent], rows[parent], key, row, largest) <= 0)
+                        break;
+                    rows[child] = rows[parent];
+                    keys[child] = keys[parent];
+                    child = parent;
+                }
+                rows[child] = row;
+                keys[child] = key;
+            } else if (rank(key, row, keys[0], rows[0], largest) > 0) {
+                siftDown(rows, keys, size, key, row, largest);
+            }
+        }
+        int[] result = new int[size];
+        for (int last = size - 1; last >= 0; last--) {
+            result[last] = rows[0];
+            siftDown(rows, keys, last, keys[last], rows[last], largest);
+        }
+        return result;
+    }
+
+    private static void siftDown(int[] rows, String[] keys, int size, String key, int row, boolean largest) {
+        int parent = 0;
+        while (true) {
+            int child = 2 * parent + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && rank(keys[child + 1], rows[child + 1], keys[child], rows[child], largest) < 0)
+                child++;
+            if (rank(keys[child], rows[child], key, row, largest) >= 0)
+                break;
+            rows[parent] = rows[child];
+            keys[parent] = keys[child];
+            parent = child;
+        }
+        rows[parent] = row;
+        keys[parent] = key;
+    }
+
+    private static int rank(String firstKey, int firstRow, String secondKey, int secondRow, boolean largest) {
+        int result = CensusIndex.compareText(firstKey, secondKey, largest);
+        if (result == 0)
+            result = Integer.compare(firstRow, secondRow);
+        return -result;
+    }
+}
@@ -5,13 +5,64 @@ import censusanalyser.model.CensusDAO;
 import censusanalyser.model.IndiaCensusCSV;
 import censusanalyser.model.IndiaStateCodeCSV;
 import censusanalyser.model.USCensusCSV;
+import censusanalyser.model.CensusField;
+import censusanalyser.service.CacheStats;
+import censusanalyser.service.CensusAggregation;
 import censusanalyser.service.CensusAnalyser;
+import censusanalyser.service.CensusDataset;
+import censusanalyser.service.CensusFileWatcher;
+import censusanalyser.service.CensusGroup;
+import censusanalyser.service.CensusHttpServer;
+import censusanalyser.service.CensusIndex;
+import censusanalyser.service.CensusLoader;
+import censusanalyser.service.CensusMetrics;
+import censusanalyser.service.CensusQuery;
+import censusanalyser.service.CensusRegistry;
+import censusanalyser.service.CensusStream;
+import censusanalyser.service.ColumnarCensusStore;
+import censusanalyser.service.CompressedInput;
+import censusanalyser.service.DerivedColumn;
+import censusanalyser.service.ExternalCensusSorter;
+import censusanalyser.service.JmxCensusMetrics;
+import censusanalyser.service.JoinKeys;
+import censusanalyser.service.SnapshotExporter;
+import censusanalyser.service.StateCodeJoin;
 import com.google.gson.Gson;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 public class CensusAnalyserTest {
     private static final String INDIA_CENSUS_CSV_FILE_PATH = "./src/test/resources/IndiaStateCensusData.csv";
@@ -215,6 +266,826 @@ public class CensusAnalyserTest {
             e.getMessage();
         }
     }
+    @Test
+    public void givenIndianCensusData_WhenIndexed_ShouldReturnTopAndBottomFromPrecomputedOrder() {
+        try {
+            CensusIndex censusIndex = new CensusIndex(new CensusLoader()
+                    .loadCensusData(CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH).values());
+            List<CensusDAO> mostPopulous = censusIndex.top(CensusField.POPULATION, 3, true);
+            Assert.assertEquals(3, mostPopulous.size());
+            Assert.assertEquals("Uttar Pradesh", mostPopulous.get(0).state);
+            Assert.assertEquals("Bihar", mostPopulous.get(2).state);
+            Assert.assertEquals("Sikkim", censusIndex.top(CensusField.POPULATION, 1, false).get(0).state);
+            Assert.assertEquals(29, censusIndex.sorted(CensusField.STATE, false).size());
+        } catch (CensusAnalyserException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    public void givenIndianCensusData_WhenLoadedInParallel_ShouldMatchSequentialLoad() {
+        try {
+            Map<String, CensusDAO> sequential = new CensusLoader()
+                    .loadCensusData(CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH, INDIA_STATE_CODE_CSV_FILE_PATH);
+            Map<String, CensusDAO> parallel = new CensusLoader(CensusLoader.Mode.PARALLEL)
+                    .loadCensusData(CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH, INDIA_STATE_CODE_CSV_FILE_PATH);
+            Assert.assertEquals(new Gson().toJson(sequential), new Gson().toJson(parallel));
+        } catch (CensusAnalyserException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    public void givenIndianCensusWith_WrongDelimiter_WhenLoadedInParallel_ShouldThrowException() {
+        try {
+            new CensusAnalyser(CensusLoader.Mode.PARALLEL).loadCensusData(CensusAnalyser.Country.INDIA, INDIA_CENSUS_FILE_WRONG_DELIMITER);
+            Assert.fail();
+        } catch (CensusAnalyserException e) {
+            Assert.assertEquals(CensusAnalyserException.ExceptionType.WRONG_DELIMITER_HEADER, e.type);
+        }
+    }
+
+    @Test
+    public void givenRepeatedSnapshotExports_ShouldWriteLatestContentAtomically() throws Exception {
+        Path exportDirectory = Files.createTempDirectory("census-export");
+        List<Path> failures = new CopyOnWriteArrayList<>();
+        SnapshotExporter snapshotExporter = new SnapshotExporter(8, new SnapshotExporter.Listener() {
+            @Override
+            public void exported(Path target, long bytes) {
+            }
+
+            @Override
+            public void failed(Path target, Exception e) {
+                failures.add(target);
+            }
+        });
+        String target = exportDirectory.resolve("snapshot.json").toString();
+        for (int version = 0; version < 5; version++)
+            snapshotExporter.submit(target, "[" + version + "]");
+        snapshotExporter.submit(exportDirectory.resolve("missing").resolve("snapshot.json").toString(), "[]");
+        Assert.assertTrue(snapshotExporter.awaitIdle(10, TimeUnit.SECONDS));
+        Assert.assertEquals("[4]", new String(Files.readAllBytes(Paths.get(target)), StandardCharsets.UTF_8));
+        Assert.assertEquals(1, failures.size());
+        Assert.assertEquals(1, snapshotExporter.getFailedCount());
+        snapshotExporter.close();
+    }
+
+    @Test
+    public void givenQueuedSnapshotExports_WhenClosed_ShouldFinishWritingThem() throws Exception {
+        Path exportDirectory = Files.createTempDirectory("census-export");
+        SnapshotExporter snapshotExporter = new SnapshotExporter();
+        String json = new Gson().toJson(Collections.nCopies(20_000, "census"));
+        for (int snapshot = 0; snapshot < 8; snapshot++)
+            Assert.assertTrue(snapshotExporter.submit(exportDirectory.resolve(snapshot + ".json").toString(), json));
+        snapshotExporter.close();
+        Assert.assertEquals(8, snapshotExporter.getExportedCount());
+        for (int snapshot = 0; snapshot < 8; snapshot++)
+            Assert.assertEquals(json, new String(Files.readAllBytes(exportDirectory.resolve(snapshot + ".json")),
+                    StandardCharsets.UTF_8));
+        Assert.assertFalse(snapshotExporter.submit(exportDirectory.resolve("late.json").toString(), json));
+    }
+
+    @Test
+    public void givenInstalledJmxMetrics_WhenSnapshotsFailOrAreRejected_ShouldCountThem() throws Exception {
+        Path exportDirectory = Files.createTempDirectory("census-export");
+        JmxCensusMetrics metrics = new JmxCensusMetrics();
+        CensusMetrics.install(metrics);
+        try {
+            SnapshotExporter snapshotExporter = new SnapshotExporter();
+            snapshotExporter.submit(exportDirectory.resolve("snapshot.json").toString(), "[]");
+            snapshotExporter.submit(exportDirectory.resolve("missing").resolve("snapshot.json").toString(), "[]");
+            snapshotExporter.close();
+            snapshotExporter.submit(exportDirectory.resolve("late.json").toString(), "[]");
+            Assert.assertEquals(1, metrics.getSnapshotsExported());
+            Assert.assertEquals(2, metrics.getSnapshotBytesWritten());
+            Assert.assertEquals(1, metrics.getSnapshotsFailed());
+            Assert.assertEquals(1, metrics.getSnapshotsRejected());
+        } finally {
+            CensusMetrics.install(CensusMetrics.NONE);
+        }
+    }
+
+    @Test
+    public void givenUSCensusData_WhenQueriedWithFilterAndPage_ShouldMatchFullSort() {
+        try {
+            CensusAnalyser censusAnalyser = new CensusAnalyser();
+            censusAnalyser.loadCensusData(CensusAnalyser.Country.US, US_CENSUS_DATA_CSV_FILE_PATH);
+            List<CensusDAO> expected = censusAnalyser.query(CensusQuery.orderBy(CensusField.HOUSING_DENSITY, true)).stream()
+                    .filter(censusDAO -> censusDAO.population >= 5000000)
+                    .skip(1).limit(3).collect(Collectors.toList());
+            List<CensusDAO> page = censusAnalyser.query(CensusQuery.orderBy(CensusField.HOUSING_DENSITY, true)
+                    .where(CensusField.POPULATION, population -> population >= 5000000).offset(1).limit(3));
+            Assert.assertEquals(3, page.size());
+            Assert.assertEquals(new Gson().toJson(expected), new Gson().toJson(page));
+        } catch (CensusAnalyserException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    public void givenIndianCensusData_WhenQueriedOnTiedKey_ShouldBreakTiesOnNextKey() {
+        try {
+            CensusAnalyser censusAnalyser = new CensusAnalyser();
+            censusAnalyser.loadCensusData(CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH);
+            List<CensusDAO> censusList = censusAnalyser.query(CensusQuery.orderBy(CensusField.STATE_CODE, false)
+                    .thenBy(CensusField.POPULATION, true));
+            Assert.assertEquals(29, censusList.size());
+            Assert.assertEquals("Uttar Pradesh", censusList.get(0).state);
+            Assert.assertEquals("Sikkim", censusList.get(28).state);
+        } catch (CensusAnalyserException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    public void givenUSCensusData_WhenSelectingTopAndBottomK_ShouldMatchSortedOrder() {
+        try {
+            CensusAnalyser censusAnalyser = new CensusAnalyser();
+            censusAnalyser.loadCensusData(CensusAnalyser.Country.US, US_CENSUS_DATA_CSV_FILE_PATH);
+            for (CensusField field : CensusField.values()) {
+                Assert.assertEquals(new Gson().toJson(censusAnalyser.query(CensusQuery.orderBy(field, true).limit(5))),
+                        new Gson().toJson(censusAnalyser.topK(field, 5)));
+                Assert.assertEquals(new Gson().toJson(censusAnalyser.query(CensusQuery.orderBy(field, false).limit(5))),
+                        new Gson().toJson(censusAnalyser.bottomK(field, 5)));
+            }
+            Assert.assertEquals("California", censusAnalyser.topK(CensusField.POPULATION, 1).get(0).state);
+        } catch (CensusAnalyserException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    public void givenBothCountries_WhenLoadedIntoRegistry_ShouldAnswerCrossCountryQueriesWithoutReloading() {
+        try {
+            CensusRegistry censusRegistry = new CensusRegistry();
+            Map<CensusAnalyser.Country, String[]> csvFilePaths = new EnumMap<>(CensusAnalyser.Country.class);
+            csvFilePaths.put(CensusAnalyser.Country.INDIA, new String[]{INDIA_CENSUS_CSV_FILE_PATH});
+            csvFilePaths.put(CensusAnalyser.Country.US, new String[]{US_CENSUS_DATA_CSV_FILE_PATH});
+            Map<CensusAnalyser.Country, CensusDataset> censusDatasets = censusRegistry.loadAll(csvFilePaths);
+            Assert.assertEquals(29, censusDatasets.get(CensusAnalyser.Country.INDIA).size());
+            Assert.assertEquals(51, censusDatasets.get(CensusAnalyser.Country.US).size());
+            CensusAnalyser censusAnalyser = new CensusAnalyser(censusRegistry);
+            Assert.assertEquals("Uttar Pradesh",
+                    censusAnalyser.getMostPopulousState(INDIA_CENSUS_CSV_FILE_PATH, US_CENSUS_DATA_CSV_FILE_PATH));
+            Assert.assertSame(censusDatasets.get(CensusAnalyser.Country.US), censusRegistry.get(CensusAnalyser.Country.US));
+            censusAnalyser.useCensusData(CensusAnalyser.Country.US);
+            Assert.assertEquals("California", censusAnalyser.topK(CensusField.POPULATION, 1).get(0).state);
+        } catch (CensusAnalyserException | IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    public void givenWatchedUSCensusFile_WhenRowsChange_ShouldPatchLoadedDataIncrementally() throws Exception {
+        Path censusFile = Files.createTempDirectory("census-watch").resolve("USCensusData.csv");
+        List<String> lines = new ArrayList<>(Files.readAllLines(Paths.get(US_CENSUS_DATA_CSV_FILE_PATH)));
+        Files.write(censusFile, lines);
+        CensusRegistry censusRegistry = new CensusRegistry();
+        CensusFileWatcher censusFileWatcher = new CensusFileWatcher(censusRegistry);
+        censusFileWatcher.watch(CensusAnalyser.Country.US, censusFile.toString());
+        Assert.assertFalse(censusFileWatcher.refresh(CensusAnalyser.Country.US));
+
+        lines.removeIf(line -> line.startsWith("CA,"));
+        lines.add("ZZ,Zetland,99999999,1,1.0,0.5,0.5,1.0,1.0");
+        Files.write(censusFile, lines);
+        Files.setLastModifiedTime(censusFile, FileTime.fromMillis(Files.getLastModifiedTime(censusFile).toMillis() + 2000));
+        Assert.assertTrue(censusFileWatcher.refresh(CensusAnalyser.Country.US));
+
+        CensusAnalyser censusAnalyser = new CensusAnalyser(censusRegistry);
+        censusAnalyser.useCensusData(CensusAnalyser.Country.US);
+        Assert.assertEquals(1, censusFileWatcher.getIncrementalReloads());
+        Assert.assertEquals(51, censusRegistry.get(CensusAnalyser.Country.US).size());
+        Assert.assertEquals("Zetland", censusAnalyser.topK(CensusField.POPULATION, 1).get(0).state);
+        Assert.assertEquals("Texas", censusAnalyser.query(CensusQuery.orderBy(CensusField.POPULATION, true)).get(1).state);
+        Assert.assertEquals("Zetland", censusAnalyser.query(CensusQuery.orderBy(CensusField.STATE, false)).get(50).state);
+    }
+
+    @Test
+    public void givenWatchedGzipCensusFile_WhenRewritten_ShouldPatchFromItsDecompressedRows() throws Exception {
+        Path censusFile = Files.createTempDirectory("census-watch").resolve("USCensusData.csv.gz");
+        List<String> lines = new ArrayList<>(Files.readAllLines(Paths.get(US_CENSUS_DATA_CSV_FILE_PATH)));
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(censusFile))) {
+            out.write((String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        CensusRegistry censusRegistry = new CensusRegistry();
+        CensusFileWatcher censusFileWatcher = new CensusFileWatcher(censusRegistry);
+        censusFileWatcher.watch(CensusAnalyser.Country.US, censusFile.toString());
+        Assert.assertFalse(censusFileWatcher.refresh(CensusAnalyser.Country.US));
+
+        lines.add("ZZ,Zetland,99999999,1,1.0,0.5,0.5,1.0,1.0");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(censusFile))) {
+            out.write((String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        Files.setLastModifiedTime(censusFile, FileTime.fromMillis(Files.getLastModifiedTime(censusFile).toMillis() + 2000));
+        Assert.assertTrue(censusFileWatcher.refresh(CensusAnalyser.Country.US));
+
+        Assert.assertEquals(1, censusFileWatcher.getIncrementalReloads());
+        Assert.assertEquals(52, censusRegistry.get(CensusAnalyser.Country.US).size());
+        Assert.assertEquals("Zetland", censusRegistry.get(CensusAnalyser.Country.US).topK(CensusField.POPULATION, 1).get(0).state);
+    }
+
+    @Test
+    public void givenWatchedColumnarCensusFile_WhenRowsChange_ShouldPatchItAndKeepTheColumnarLayout() throws Exception {
+        Path censusFile = Files.createTempDirectory("census-watch").resolve("IndiaStateCensusData.csv");
+        List<String> lines = new ArrayList<>(Files.readAllLines(Paths.get(INDIA_CENSUS_CSV_FILE_PATH)));
+        Files.write(censusFile, lines);
+        CensusRegistry censusRegistry = new CensusRegistry(CensusLoader.Mode.MAPPED, true);
+        CensusFileWatcher censusFileWatcher = new CensusFileWatcher(censusRegistry);
+        censusFileWatcher.watch(CensusAnalyser.Country.INDIA, censusFile.toString(), INDIA_STATE_CODE_CSV_FILE_PATH);
+        Assert.assertTrue(censusRegistry.get(CensusAnalyser.Country.INDIA).table() instanceof ColumnarCensusStore);
+
+        lines.replaceAll(line -> line.startsWith("Uttar Pradesh,") ? "Uttar Pradesh,1,240928,828" : line);
+        lines.add("Atlantis,7,8,9");
+        Files.write(censusFile, lines);
+        Files.setLastModifiedTime(censusFile, FileTime.fromMillis(Files.getLastModifiedTime(censusFile).toMillis() + 2000));
+        Assert.assertTrue(censusFileWatcher.refresh(CensusAnalyser.Country.INDIA));
+
+        Assert.assertEquals(1, censusFileWatcher.getIncrementalReloads());
+        CensusDataset patched = censusRegistry.get(CensusAnalyser.Country.INDIA);
+        Assert.assertTrue(patched.table() instanceof ColumnarCensusStore);
+        CensusDataset reloaded = new CensusRegistry(CensusLoader.Mode.MAPPED, true)
+                .load(CensusAnalyser.Country.INDIA, censusFile.toString(), INDIA_STATE_CODE_CSV_FILE_PATH);
+        for (CensusField field : CensusField.values())
+            Assert.assertEquals(new Gson().toJson(reloaded.query(CensusQuery.orderBy(field, true).thenBy(CensusField.STATE, false))),
+                    new Gson().toJson(patched.query(CensusQuery.orderBy(field, true).thenBy(CensusField.STATE, false))));
+        Assert.assertEquals("UP", patched.lookup(CensusField.STATE, "Uttar Pradesh").get(0).stateCode);
+        Assert.assertEquals(1, patched.lookup(CensusField.STATE, "Uttar Pradesh").get(0).population);
+    }
+
+    @Test
+    public void givenWatchedCensusFile_WhenRebuiltInEitherLayout_ShouldMatchARegistryLoad() throws Exception {
+        for (boolean columnarStore : new boolean[]{false, true}) {
+            CensusRegistry censusRegistry = new CensusRegistry(CensusLoader.Mode.SEQUENTIAL, columnarStore);
+            CensusDataset rebuilt = new CensusFileWatcher(censusRegistry)
+                    .watch(CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH, INDIA_STATE_CODE_CSV_FILE_PATH);
+            CensusDataset loaded = new CensusRegistry(CensusLoader.Mode.SEQUENTIAL, columnarStore)
+                    .load(CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH, INDIA_STATE_CODE_CSV_FILE_PATH);
+            Assert.assertEquals(columnarStore, rebuilt.table() instanceof ColumnarCensusStore);
+            for (CensusField field : CensusField.values())
+                Assert.assertEquals(new Gson().toJson(loaded.query(CensusQuery.orderBy(field, true))),
+                        new Gson().toJson(rebuilt.query(CensusQuery.orderBy(field, true))));
+        }
+    }
+
+    @Test
+    public void givenCustomStateCodeJoin_WhenStreamedSortedOrWatched_ShouldJoinTheSameWayAsALoad() throws Exception {
+        Path directory = Files.createTempDirectory("state-lookup");
+        Path lookupFile = directory.resolve("lookup.csv");
+        Files.write(lookupFile, "Code,Name\nUP,  uttar   pradesh \nBR,Bihar State\n".getBytes(StandardCharsets.UTF_8));
+        StateCodeJoin stateCodeJoin = new StateCodeJoin(JoinKeys.standard().withAlias("Bihar State", "Bihar"),
+                "Name", "Code");
+
+        CensusStream censusStream = new CensusStream(CensusAnalyser.Country.INDIA, stateCodeJoin,
+                INDIA_CENSUS_CSV_FILE_PATH, lookupFile.toString());
+        CensusStream.Result<List<CensusDAO>> coded = censusStream.query(CensusQuery.orderBy(CensusField.STATE_CODE, false).limit(2));
+        censusStream.run();
+        Assert.assertEquals("Bihar", coded.get().get(0).state);
+        Assert.assertEquals("BR", coded.get().get(0).stateCode);
+        Assert.assertEquals("UP", coded.get().get(1).stateCode);
+
+        StringWriter sorted = new StringWriter();
+        new ExternalCensusSorter(directory, 4, 2, stateCodeJoin).writeJson(CensusQuery.orderBy(CensusField.STATE_CODE, false)
+                .limit(2), sorted, CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH, lookupFile.toString());
+        Assert.assertEquals(new Gson().toJson(coded.get()), sorted.toString());
+
+        Path censusFile = directory.resolve("IndiaStateCensusData.csv");
+        List<String> lines = new ArrayList<>(Files.readAllLines(Paths.get(INDIA_CENSUS_CSV_FILE_PATH)));
+        Files.write(censusFile, lines);
+        CensusRegistry censusRegistry = new CensusRegistry();
+        censusRegistry.setStateCodeJoin(stateCodeJoin);
+        CensusFileWatcher censusFileWatcher = new CensusFileWatcher(censusRegistry);
+        censusFileWatcher.watch(CensusAnalyser.Country.INDIA, censusFile.toString(), lookupFile.toString());
+        lines.replaceAll(line -> line.startsWith("Bihar,") ? "Bihar,1,94163,1102" : line);
+        Files.write(censusFile, lines);
+        Files.setLastModifiedTime(censusFile, FileTime.fromMillis(Files.getLastModifiedTime(censusFile).toMillis() + 2000));
+        Assert.assertTrue(censusFileWatcher.refresh(CensusAnalyser.Country.INDIA));
+        Assert.assertEquals(1, censusFileWatcher.getIncrementalReloads());
+        CensusDAO bihar = censusRegistry.get(CensusAnalyser.Country.INDIA).lookup(CensusField.STATE, "Bihar").get(0);
+        Assert.assertEquals(1, bihar.population);
+        Assert.assertEquals("BR", bihar.stateCode);
+        Assert.assertEquals("UP", censusRegistry.get(CensusAnalyser.Country.INDIA)
+                .lookup(CensusField.STATE, "Uttar Pradesh").get(0).stateCode);
+    }
+
+    @Test
+    public void givenSnapshotDirectory_WhenLoadedTwice_ShouldReadSnapshotUntilSourceChanges() throws Exception {
+        Path snapshotDirectory = Files.createTempDirectory("census-snapshot");
+        Path censusFile = snapshotDirectory.resolve("IndiaStateCensusData.csv");
+        Files.copy(Paths.get(INDIA_CENSUS_CSV_FILE_PATH), censusFile);
+        CensusLoader censusLoader = new CensusLoader(CensusLoader.Mode.SEQUENTIAL, snapshotDirectory);
+        Map<String, CensusDAO> parsed = new CensusLoader()
+                .loadCensusData(CensusAnalyser.Country.INDIA, censusFile.toString(), INDIA_STATE_CODE_CSV_FILE_PATH);
+        Map<String, CensusDAO> cold = censusLoader
+                .loadCensusData(CensusAnalyser.Country.INDIA, censusFile.toString(), INDIA_STATE_CODE_CSV_FILE_PATH);
+        Map<String, CensusDAO> warm = censusLoader
+                .loadCensusData(CensusAnalyser.Country.INDIA, censusFile.toString(), INDIA_STATE_CODE_CSV_FILE_PATH);
+        Assert.assertEquals(new Gson().toJson(new TreeMap<>(parsed)), new Gson().toJson(new TreeMap<>(cold)));
+        Assert.assertEquals(new Gson().toJson(new TreeMap<>(parsed)), new Gson().toJson(new TreeMap<>(warm)));
+        Assert.assertEquals(1, Files.list(snapshotDirectory).filter(path -> path.toString().endsWith(".snapshot")).count());
+
+        Files.write(censusFile, "\nAtlantis,1,2,3\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        ColumnarCensusStore changed = censusLoader.loadColumnarCensusData(CensusAnalyser.Country.INDIA, censusFile.toString());
+        Assert.assertEquals(30, changed.size());
+        Assert.assertEquals(1, changed.get(changed.row("Atlantis")).population);
+    }
+
+    @Test
+    public void givenLookupWithOtherColumnsAndSpelling_WhenJoined_ShouldMatchNormalizedNamesAndReportTheRest()
+            throws Exception {
+        Path lookupFile = Files.createTempFile("state-lookup", ".csv");
+        Files.write(lookupFile, ("Code,Name\nUP,  uttar   pradesh \nMH,MAHARASHTRA\nBR,Bihar State\nXX,Atlantis\n")
+                .getBytes(StandardCharsets.UTF_8));
+        StateCodeJoin stateCodeJoin = new StateCodeJoin(JoinKeys.standard().withAlias("Bihar State", "Bihar"),
+                "Name", "Code");
+        CensusLoader censusLoader = new CensusLoader(CensusLoader.Mode.SEQUENTIAL, null, stateCodeJoin);
+
+        Map<String, CensusDAO> censusMap = censusLoader
+                .loadCensusData(CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH, lookupFile.toString());
+        Assert.assertEquals("UP", censusMap.get("Uttar Pradesh").stateCode);
+        Assert.assertEquals("BR", censusMap.get("Bihar").stateCode);
+        Assert.assertNull(censusMap.get("Kerala").stateCode);
+        StateCodeJoin.Report report = censusLoader.getStateCodeJoinReport();
+        Assert.assertEquals(3, report.getMatchedRows());
+        Assert.assertEquals(26, report.getUnmatchedStates().size());
+        Assert.assertTrue(report.getUnmatchedStates().contains("Kerala"));
+        Assert.assertEquals(Arrays.asList("Atlantis"), report.getUnmatchedLookupStates());
+
+        ColumnarCensusStore censusStore = censusLoader
+                .loadColumnarCensusData(CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH, lookupFile.toString());
+        Assert.assertEquals("MH", censusStore.get(censusStore.row("Maharashtra")).stateCode);
+        Assert.assertEquals(3, censusLoader.getStateCodeJoinReport().getMatchedRows());
+    }
+
+    @Test
+    public void givenInstalledJmxMetrics_WhenLoadingAndSorting_ShouldPublishCountsAndLatencies() throws Exception {
+        JmxCensusMetrics metrics = new JmxCensusMetrics();
+        metrics.register();
+        CensusMetrics.install(metrics);
+        try {
+            CensusAnalyser censusAnalyser = new CensusAnalyser();
+            censusAnalyser.loadCensusData(CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH, INDIA_STATE_CODE_CSV_FILE_PATH);
+            censusAnalyser.getStateWiseSortedCensusDataOnPopulation();
+            try {
+                censusAnalyser.loadCensusData(CensusAnalyser.Country.INDIA, INDIA_CENSUS_FILE_WRONG_HEADER);
+            } catch (CensusAnalyserException e) {
+            }
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(JmxCensusMetrics.OBJECT_NAME);
+            Assert.assertEquals(29L, server.getAttribute(name, "RowsParsed"));
+            Assert.assertEquals(Files.size(Paths.get(INDIA_CENSUS_CSV_FILE_PATH)) + Files.size(Paths.get(INDIA_STATE_CODE_CSV_FILE_PATH)),
+                    server.getAttribute(name, "BytesRead"));
+            Assert.assertEquals(29L, server.getAttribute(name, "JoinHits"));
+            Assert.assertEquals(8L, server.getAttribute(name, "JoinLookupMisses"));
+            Assert.assertEquals(1L, (long) metrics.getParseErrors().get("WRONG_DELIMITER_HEADER"));
+            Assert.assertEquals(1L, server.getAttribute(name, "SortCount"));
+            Assert.assertEquals(1L, server.getAttribute(name, "SerializeCount"));
+            Assert.assertTrue((Double) server.getAttribute(name, "RowsParsedPerSecond") > 0);
+        } finally {
+            CensusMetrics.install(CensusMetrics.NONE);
+            metrics.unregister();
+        }
+    }
+
+    @Test
+    public void givenUSCensusData_WhenAggregatedByStateCodePrefix_ShouldMatchTheRowsOfEachGroup() throws Exception {
+        CensusAnalyser censusAnalyser = new CensusAnalyser();
+        censusAnalyser.loadCensusData(CensusAnalyser.Country.US, US_CENSUS_DATA_CSV_FILE_PATH);
+        List<CensusGroup> groups = censusAnalyser.aggregate(CensusAggregation.groupByPrefix(CensusField.STATE_CODE, 1)
+                .statistics(CensusField.POPULATION, CensusField.WATER_AREA, CensusField.TOTAL_AREA)
+                .quantiles(CensusField.POPULATION_DENSITY));
+        CensusGroup groupA = groups.get(0);
+        List<CensusDAO> statesA = censusAnalyser.query(CensusQuery.orderBy(CensusField.POPULATION_DENSITY, false)
+                .whereText(CensusField.STATE_CODE, stateCode -> stateCode.startsWith("A")));
+        Assert.assertEquals("A", groupA.key());
+        Assert.assertEquals(statesA.size(), groupA.rows());
+        Assert.assertEquals(statesA.stream().mapToDouble(census -> census.population).sum(),
+                groupA.statistics(CensusField.POPULATION).sum(), 0);
+        Assert.assertEquals(statesA.stream().mapToDouble(census -> census.population).min().getAsDouble(),
+                groupA.statistics(CensusField.POPULATION).min(), 0);
+        Assert.assertEquals(statesA.get(statesA.size() / 2 - 1).populationDensity,
+                groupA.statistics(CensusField.POPULATION_DENSITY).quantile(0.5),
+                statesA.get(statesA.size() / 2 - 1).populationDensity * 0.01);
+        Assert.assertEquals(statesA.stream().mapToDouble(census -> census.waterArea).sum()
+                        / statesA.stream().mapToDouble(census -> census.totalArea).sum(),
+                groupA.ratio(CensusField.WATER_AREA, CensusField.TOTAL_AREA), 1e-9);
+
+        List<CensusGroup> total = censusAnalyser.aggregate(CensusAggregation.all().statistics(CensusField.POPULATION));
+        Assert.assertEquals(1, total.size());
+        Assert.assertEquals(51, total.get(0).rows());
+        Assert.assertEquals(groups.stream().mapToLong(CensusGroup::rows).sum(), total.get(0).rows());
+    }
+
+    @Test
+    public void givenCensusStream_WhenRunOnce_ShouldAnswerEveryQueryLikeTheLoadedData() throws Exception {
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusLoader.Mode.SEQUENTIAL, true);
+        censusAnalyser.loadCensusData(CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH, INDIA_STATE_CODE_CSV_FILE_PATH);
+        CensusQuery query = CensusQuery.orderBy(CensusField.STATE_CODE, true).offset(2).limit(5)
+                .whereBetween(CensusField.POPULATION, 1_000_000, Double.MAX_VALUE);
+        CensusAggregation aggregation = CensusAggregation.groupByPrefix(CensusField.STATE_CODE, 1)
+                .statistics(CensusField.POPULATION);
+
+        CensusStream censusStream = new CensusStream(CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH,
+                INDIA_STATE_CODE_CSV_FILE_PATH);
+        CensusStream.Result<List<CensusDAO>> queried = censusStream.query(query);
+        CensusStream.Result<List<CensusDAO>> mostDense = censusStream.topK(CensusField.DENSITY, 3);
+        CensusStream.Result<List<CensusGroup>> groups = censusStream.aggregate(aggregation);
+        Assert.assertEquals(29, censusStream.run());
+
+        Assert.assertEquals(new Gson().toJson(censusAnalyser.query(query)), new Gson().toJson(queried.get()));
+        Assert.assertEquals(new Gson().toJson(censusAnalyser.topK(CensusField.DENSITY, 3)), new Gson().toJson(mostDense.get()));
+        List<CensusGroup> loadedGroups = censusAnalyser.aggregate(aggregation);
+        Assert.assertEquals(loadedGroups.size(), groups.get().size());
+        for (int i = 0; i < loadedGroups.size(); i++) {
+            Assert.assertEquals(loadedGroups.get(i).key(), groups.get().get(i).key());
+            Assert.assertEquals(loadedGroups.get(i).statistics(CensusField.POPULATION).sum(),
+                    groups.get().get(i).statistics(CensusField.POPULATION).sum(), 0);
+        }
+    }
+
+    @Test
+    public void givenMissingStateCodes_WhenSortedDescending_ShouldKeepNullsLastAndTiesInRowOrder() throws Exception {
+        List<String> codes = Files.readAllLines(Paths.get(INDIA_STATE_CODE_CSV_FILE_PATH));
+        Path lookupFile = Files.createTempFile("state-codes", ".csv");
+        Files.write(lookupFile, codes.subList(0, 12));
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusLoader.Mode.SEQUENTIAL, true);
+        censusAnalyser.loadCensusData(CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH, lookupFile.toString());
+
+        List<CensusDAO> ascending = censusAnalyser.query(CensusQuery.orderBy(CensusField.STATE_CODE, false));
+        CensusQuery query = CensusQuery.orderBy(CensusField.STATE_CODE, true).limit(ascending.size());
+        List<CensusDAO> descending = censusAnalyser.query(query);
+        long coded = descending.stream().filter(censusDAO -> censusDAO.stateCode != null).count();
+        Assert.assertTrue(coded > 0 && coded < descending.size());
+        for (int i = 0; i < descending.size(); i++) {
+            if (i < coded - 1)
+                Assert.assertTrue(descending.get(i).stateCode.compareTo(descending.get(i + 1).stateCode) > 0);
+            if (i >= coded) {
+                Assert.assertNull(descending.get(i).stateCode);
+                Assert.assertEquals(ascending.get(i).state, descending.get(i).state);
+            }
+        }
+        Assert.assertEquals(new Gson().toJson(descending),
+                new Gson().toJson(censusAnalyser.topK(CensusField.STATE_CODE, descending.size())));
+
+        CensusStream censusStream = new CensusStream(CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH,
+                lookupFile.toString());
+        CensusStream.Result<List<CensusDAO>> streamed = censusStream.query(query);
+        censusStream.run();
+        Assert.assertEquals(new Gson().toJson(descending), new Gson().toJson(streamed.get()));
+        StringWriter writer = new StringWriter();
+        new ExternalCensusSorter(Files.createTempDirectory("census-runs"), 4, 2)
+                .writeJson(query, writer, CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH, lookupFile.toString());
+        Assert.assertEquals(censusAnalyser.getCensusJson(query), writer.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void givenCensusStream_WhenQueryHasNoLimit_ShouldRejectIt() {
+        new CensusStream(CensusAnalyser.Country.US, US_CENSUS_DATA_CSV_FILE_PATH)
+                .query(CensusQuery.orderBy(CensusField.POPULATION, true));
+    }
+
+    @Test
+    public void givenCensusLargerThanOneRun_WhenSortedExternally_ShouldWriteTheSameJsonAsTheLoadedData() throws Exception {
+        CensusAnalyser censusAnalyser = new CensusAnalyser(CensusLoader.Mode.SEQUENTIAL, true);
+        censusAnalyser.loadCensusData(CensusAnalyser.Country.US, US_CENSUS_DATA_CSV_FILE_PATH);
+        CensusQuery query = CensusQuery.orderBy(CensusField.POPULATION, true).offset(1).limit(40);
+        Path spillDirectory = Files.createTempDirectory("census-runs");
+        ExternalCensusSorter sorter = new ExternalCensusSorter(spillDirectory, 8, 2);
+
+        StringWriter writer = new StringWriter();
+        Assert.assertEquals(40, sorter.writeJson(query, writer, CensusAnalyser.Country.US, US_CENSUS_DATA_CSV_FILE_PATH));
+        Assert.assertEquals(7, sorter.getSpilledRuns());
+        Assert.assertEquals(censusAnalyser.getCensusJson(query), writer.toString());
+        try (Stream<Path> runs = Files.list(spillDirectory)) {
+            Assert.assertEquals(0, runs.count());
+        }
+    }
+
+    @Test
+    public void givenCensusCsv_WhenSortedExternallyToCsv_ShouldWriteRowsInTheSourceFormat() throws Exception {
+        List<String> lines = new ArrayList<>(Files.readAllLines(Paths.get(US_CENSUS_DATA_CSV_FILE_PATH)));
+        String[] cells = lines.get(2).split(",");
+        cells[4] = "12345678.9";
+        cells[5] = "10000000.5";
+        lines.set(2, String.join(",", cells));
+        Path censusFile = Files.createTempFile("census-large-area", ".csv");
+        Files.write(censusFile, lines);
+        ExternalCensusSorter sorter = new ExternalCensusSorter(Files.createTempDirectory("census-runs"), 8, 2);
+
+        StringWriter writer = new StringWriter();
+        Assert.assertEquals(lines.size() - 1,
+                sorter.writeCsv(CensusQuery.all(), writer, CensusAnalyser.Country.US, censusFile.toString()));
+        Assert.assertEquals(lines, Arrays.asList(writer.toString().split("\n")));
+
+        CensusQuery query = CensusQuery.orderBy(CensusField.TOTAL_AREA, true).offset(1).limit(3);
+        StringWriter page = new StringWriter();
+        Assert.assertEquals(3, sorter.writeCsv(query, page, CensusAnalyser.Country.US, censusFile.toString()));
+        Path pageFile = Files.createTempFile("census-page", ".csv");
+        Files.write(pageFile, page.toString().getBytes(StandardCharsets.UTF_8));
+        CensusAnalyser censusAnalyser = new CensusAnalyser();
+        censusAnalyser.loadCensusData(CensusAnalyser.Country.US, censusFile.toString());
+        CensusAnalyser pageAnalyser = new CensusAnalyser();
+        pageAnalyser.loadCensusData(CensusAnalyser.Country.US, pageFile.toString());
+        Assert.assertEquals(new Gson().toJson(censusAnalyser.query(query)),
+                new Gson().toJson(pageAnalyser.query(CensusQuery.orderBy(CensusField.TOTAL_AREA, true))));
+    }
+
+    @Test
+    public void givenCensusHttpServer_WhenQueryIsRepeated_ShouldServeCachedBytesWithETagAndGzip() throws Exception {
+        CensusAnalyser censusAnalyser = new CensusAnalyser();
+        censusAnalyser.loadCensusData(CensusAnalyser.Country.US, US_CENSUS_DATA_CSV_FILE_PATH);
+        try (CensusHttpServer server = new CensusHttpServer(censusAnalyser.getCensusRegistry(),
+                new InetSocketAddress("localhost", 0))) {
+            server.start();
+            URL url = new URL("http://localhost:" + server.getAddress().getPort()
+                    + "/census/us/sorted?by=population&order=desc");
+            HttpURLConnection first = (HttpURLConnection) url.openConnection();
+            Assert.assertEquals(200, first.getResponseCode());
+            String json = new String(readAll(first.getInputStream()), StandardCharsets.UTF_8);
+            Assert.assertEquals(censusAnalyser.getPopulationWiseSortedUSCensusData(), json);
+            String etag = first.getHeaderField("ETag");
+
+            HttpURLConnection gzipped = (HttpURLConnection) url.openConnection();
+            gzipped.setRequestProperty("Accept-Encoding", "gzip");
+            Assert.assertEquals("gzip", gzipped.getHeaderField("Content-Encoding"));
+            Assert.assertEquals(json, new String(readAll(new GZIPInputStream(gzipped.getInputStream())), StandardCharsets.UTF_8));
+
+            String gzippedETag = gzipped.getHeaderField("ETag");
+            Assert.assertNotEquals(etag, gzippedETag);
+
+            HttpURLConnection conditional = (HttpURLConnection) url.openConnection();
+            conditional.setRequestProperty("If-None-Match", etag);
+            Assert.assertEquals(304, conditional.getResponseCode());
+            HttpURLConnection conditionalGzipped = (HttpURLConnection) url.openConnection();
+            conditionalGzipped.setRequestProperty("Accept-Encoding", "gzip");
+            conditionalGzipped.setRequestProperty("If-None-Match", gzippedETag);
+            Assert.assertEquals(304, conditionalGzipped.getResponseCode());
+            HttpURLConnection otherEncoding = (HttpURLConnection) url.openConnection();
+            otherEncoding.setRequestProperty("Accept-Encoding", "gzip");
+            otherEncoding.setRequestProperty("If-None-Match", etag);
+            Assert.assertEquals(200, otherEncoding.getResponseCode());
+            readAll(otherEncoding.getInputStream());
+            Assert.assertEquals(1, server.getCacheMisses());
+            Assert.assertEquals(4, server.getCacheHits());
+
+            HttpURLConnection unknownField = (HttpURLConnection) new URL("http://localhost:"
+                    + server.getAddress().getPort() + "/census/us/top?by=rainfall").openConnection();
+            Assert.assertEquals(400, unknownField.getResponseCode());
+        }
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        try (InputStream in = inputStream) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int read; (read = in.read(buffer)) > 0; )
+                bytes.write(buffer, 0, read);
+            return bytes.toByteArray();
+        }
+    }
+
+    @Test
+    public void givenQuotedCells_WhenLoadedInEveryMode_ShouldReadTheSameValues() throws Exception {
+        Path csvFile = Files.createTempFile("census-quoted", ".csv");
+        Files.write(csvFile, ("State,Population,AreaInSqKm,DensityPerSqKm\r\n"
+                + "\"Jammu, Kashmir\",12541302,222236,56\r\n"
+                + "\"Dadra \"\"and\"\" Nagar Haveli\",343709,491,700\r\n"
+                + "Goa,\"1457723\",3702,394\r\n").getBytes(StandardCharsets.UTF_8));
+        for (CensusLoader.Mode mode : CensusLoader.Mode.values()) {
+            Map<String, CensusDAO> censusMap = new CensusLoader(mode).loadCensusData(CensusAnalyser.Country.INDIA,
+                    csvFile.toString());
+            Assert.assertEquals(3, censusMap.size());
+            Assert.assertEquals(12541302, censusMap.get("Jammu, Kashmir").population);
+            Assert.assertEquals(491, (int) censusMap.get("Dadra \"and\" Nagar Haveli").areaInSqKm);
+            Assert.assertEquals(1457723, censusMap.get("Goa").population);
+        }
+    }
+
+    @Test
+    public void givenCensusWithBadRows_WhenLoadedLeniently_ShouldSkipThemIntoTheRejectFile() throws Exception {
+        Path csvFile = Files.createTempFile("census-bad-rows", ".csv");
+        Path rejectFile = Files.createTempFile("census-rejects", ".csv");
+        Files.write(csvFile, ("State,Population,AreaInSqKm,DensityPerSqKm\n"
+                + "Goa,1457723,3702,394\n"
+                + "Kerala;33387677;38863;859\n"
+                + "Bihar,1O3804637,94163,1102\n"
+                + "Sikkim,607688,7096,86\n").getBytes(StandardCharsets.UTF_8));
+        for (CensusLoader.Mode mode : CensusLoader.Mode.values()) {
+            CensusLoader censusLoader = new CensusLoader(mode);
+            censusLoader.setLenient(true);
+            censusLoader.setRejectFile(rejectFile);
+            Map<String, CensusDAO> censusMap = censusLoader.loadCensusData(CensusAnalyser.Country.INDIA, csvFile.toString());
+
+            Assert.assertEquals(2, censusMap.size());
+            CensusLoader.LoadReport loadReport = censusLoader.getLoadReport();
+            Assert.assertEquals(2, loadReport.getParsedRows());
+            Assert.assertEquals(2, loadReport.getRejectedRows());
+            Assert.assertEquals(Long.valueOf(1), loadReport.getRejectCounts()
+                    .get(CensusAnalyserException.ExceptionType.WRONG_DELIMITER_HEADER));
+            Assert.assertEquals(Long.valueOf(1), loadReport.getRejectCounts()
+                    .get(CensusAnalyserException.ExceptionType.UNABLE_TO_PARSE));
+            List<String> rejects = Files.readAllLines(rejectFile);
+            Assert.assertEquals(3, rejects.size());
+            Assert.assertTrue(rejects.get(1).startsWith("3,WRONG_DELIMITER_HEADER,"));
+            Assert.assertTrue(rejects.get(2).startsWith("4,UNABLE_TO_PARSE,"));
+        }
+    }
+
+    @Test
+    public void givenCompressedCensusFile_WhenLoaded_ShouldDetectItsFormatAndLoadTheSameRows() throws Exception {
+        Path gzipFile = Files.createTempFile("census", ".bin");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gzipFile))) {
+            Files.copy(Paths.get(US_CENSUS_DATA_CSV_FILE_PATH), out);
+        }
+        Path zstdFile = Files.createTempFile("census", ".csv.zst");
+        try (OutputStream out = Files.newOutputStream(zstdFile)) {
+            out.write(new byte[]{0x28, (byte) 0xB5, 0x2F, (byte) 0xFD});
+            Files.copy(Paths.get(US_CENSUS_DATA_CSV_FILE_PATH), out);
+        }
+        String plain = new Gson().toJson(new CensusLoader().loadCensusData(CensusAnalyser.Country.US, US_CENSUS_DATA_CSV_FILE_PATH));
+        for (CensusLoader.Mode mode : CensusLoader.Mode.values()) {
+            Assert.assertEquals(plain, new Gson().toJson(new CensusLoader(mode)
+                    .loadCensusData(CensusAnalyser.Country.US, gzipFile.toString())));
+        }
+
+        try {
+            new CensusLoader().loadCensusData(CensusAnalyser.Country.US, zstdFile.toString());
+            Assert.fail("zstd input needs a decoder");
+        } catch (CensusAnalyserException e) {
+            Assert.assertEquals(CensusAnalyserException.ExceptionType.CENSUS_FILE_PROBLEM, e.type);
+        }
+        // a stand in for a real zstd decoder, the test file is only the zstd magic number in front of plain csv
+        CompressedInput.setZstdDecoder(compressed -> {
+            compressed.skip(4);
+            return compressed;
+        });
+        try {
+            Assert.assertEquals(plain, new Gson().toJson(new CensusLoader(CensusLoader.Mode.MAPPED)
+                    .loadCensusData(CensusAnalyser.Country.US, zstdFile.toString())));
+        } finally {
+            CompressedInput.setZstdDecoder(null);
+        }
+    }
+
+    @Test
+    public void givenIndexedFilters_WhenQueried_ShouldMatchTheSameRowsAsAFullScan() throws Exception {
+        CensusAnalyser censusAnalyser = new CensusAnalyser();
+        censusAnalyser.loadCensusData(CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH, INDIA_STATE_CODE_CSV_FILE_PATH);
+        Assert.assertEquals("Goa", censusAnalyser.lookup(CensusField.STATE, "Goa").get(0).state);
+        Assert.assertEquals("Uttar Pradesh", censusAnalyser.lookup(CensusField.STATE_CODE, "UP").get(0).state);
+        Assert.assertTrue(censusAnalyser.lookup(CensusField.STATE, "Atlantis").isEmpty());
+
+        List<CensusDAO> band = censusAnalyser.range(CensusField.DENSITY, 100, 500);
+        List<CensusDAO> scanned = censusAnalyser.query(CensusQuery.orderBy(CensusField.DENSITY, false)
+                .where(CensusField.DENSITY, density -> density >= 100 && density <= 500));
+        Assert.assertEquals(new Gson().toJson(scanned), new Gson().toJson(band));
+
+        CensusQuery indexed = CensusQuery.orderBy(CensusField.POPULATION, true).whereBetween(CensusField.DENSITY, 100, 500)
+                .offset(1).limit(4);
+        CensusQuery unindexed = CensusQuery.orderBy(CensusField.POPULATION, true)
+                .where(CensusField.DENSITY, density -> density >= 100 && density <= 500).offset(1).limit(4);
+        Assert.assertEquals(censusAnalyser.getCensusJson(unindexed), censusAnalyser.getCensusJson(indexed));
+
+        censusAnalyser.loadCensusData(CensusAnalyser.Country.US, US_CENSUS_DATA_CSV_FILE_PATH);
+        List<CensusDAO> byStateId = censusAnalyser.query(CensusQuery.all().whereEquals(CensusField.STATE_CODE, "TX"));
+        Assert.assertEquals(1, byStateId.size());
+        Assert.assertEquals("Texas", byStateId.get(0).state);
+    }
+
+    @Test
+    public void givenSameSortRequestedTwice_ShouldServeTheSecondFromTheCacheUntilReloaded() throws CensusAnalyserException {
+        CensusAnalyser censusAnalyser = new CensusAnalyser();
+        censusAnalyser.loadCensusData(CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH, INDIA_STATE_CODE_CSV_FILE_PATH);
+        String first = censusAnalyser.getStateWiseSortedCensusDataOnPopulation();
+        String second = censusAnalyser.getStateWiseSortedCensusDataOnPopulation();
+        Assert.assertSame(first, second);
+        CacheStats stats = censusAnalyser.getResultCacheStats();
+        Assert.assertEquals(1, stats.getHits());
+        Assert.assertEquals(1, stats.getMisses());
+        Assert.assertEquals(0.5, stats.getHitRatio(), 0.0);
+
+        censusAnalyser.loadCensusData(CensusAnalyser.Country.US, US_CENSUS_DATA_CSV_FILE_PATH);
+        String usSorted = censusAnalyser.getStateWiseSortedCensusDataOnPopulation();
+        Assert.assertEquals("California", new Gson().fromJson(usSorted, CensusDAO[].class)[0].state);
+        Assert.assertEquals(2, censusAnalyser.getResultCacheStats().getMisses());
+
+        censusAnalyser.loadCensusData(CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH, INDIA_STATE_CODE_CSV_FILE_PATH);
+        Assert.assertEquals(first, censusAnalyser.getStateWiseSortedCensusDataOnPopulation());
+        Assert.assertEquals(3, censusAnalyser.getResultCacheStats().getMisses());
+        Assert.assertEquals(2, censusAnalyser.getResultCacheStats().getEntries());
+
+        censusAnalyser.setResultCacheBytes(0);
+        censusAnalyser.getStateWiseSortedCensusDataOnPopulation();
+        Assert.assertEquals(0, censusAnalyser.getResultCacheStats().getEntries());
+    }
+
+    @Test
+    public void givenDerivedColumns_WhenSortedOrRanged_ShouldMatchValuesComputedPerRow() throws CensusAnalyserException {
+        CensusAnalyser censusAnalyser = new CensusAnalyser();
+        censusAnalyser.loadCensusData(CensusAnalyser.Country.US, US_CENSUS_DATA_CSV_FILE_PATH);
+        CensusAnalyser columnarAnalyser = new CensusAnalyser(CensusLoader.Mode.SEQUENTIAL, true);
+        columnarAnalyser.loadCensusData(CensusAnalyser.Country.US, US_CENSUS_DATA_CSV_FILE_PATH);
+
+        List<CensusDAO> byDensity = censusAnalyser.sorted(DerivedColumn.POPULATION_PER_LAND_AREA, true);
+        Assert.assertEquals("District of Columbia", byDensity.get(0).state);
+        for (int i = 1; i < byDensity.size(); i++) {
+            CensusDAO previous = byDensity.get(i - 1);
+            CensusDAO current = byDensity.get(i);
+            Assert.assertTrue(previous.population / (previous.totalArea - previous.waterArea)
+                    >= current.population / (current.totalArea - current.waterArea));
+        }
+        Assert.assertEquals(new Gson().toJson(byDensity),
+                new Gson().toJson(columnarAnalyser.sorted(DerivedColumn.POPULATION_PER_LAND_AREA, true)));
+
+        DerivedColumn waterShare = DerivedColumn.of(CensusField.WATER_AREA).dividedBy(CensusField.TOTAL_AREA);
+        Assert.assertEquals(DerivedColumn.WATER_SHARE, waterShare);
+        List<CensusDAO> wettest = columnarAnalyser.topK(waterShare, 3);
+        List<CensusDAO> expected = censusAnalyser.query(CensusQuery.all());
+        expected.sort((first, second) -> Double.compare(second.waterArea / second.totalArea, first.waterArea / first.totalArea));
+        Assert.assertEquals(new Gson().toJson(expected.subList(0, 3)), new Gson().toJson(wettest));
+
+        List<CensusDAO> mostlyWater = censusAnalyser.range(waterShare.times(DerivedColumn.constant(100)), 20, 100);
+        for (CensusDAO censusDAO : mostlyWater)
+            Assert.assertTrue(censusDAO.waterArea / censusDAO.totalArea >= 0.2);
+        Assert.assertEquals(expected.stream().filter(censusDAO -> censusDAO.waterArea / censusDAO.totalArea >= 0.2).count(),
+                mostlyWater.size());
+    }
+
+    @Test
+    public void givenZeroAreaRows_WhenSortedByDerivedShare_ShouldPutNaNLastInBothDirections() throws Exception {
+        List<String> lines = new ArrayList<>(Files.readAllLines(Paths.get(US_CENSUS_DATA_CSV_FILE_PATH)));
+        for (int line : new int[]{12, 4}) {
+            String[] cells = lines.get(line).split(",");
+            cells[4] = "0";
+            cells[5] = "0";
+            lines.set(line, String.join(",", cells));
+        }
+        Path censusFile = Files.createTempFile("census-zero-area", ".csv");
+        Files.write(censusFile, lines);
+        for (boolean columnar : new boolean[]{false, true}) {
+            CensusAnalyser censusAnalyser = new CensusAnalyser(CensusLoader.Mode.SEQUENTIAL, columnar);
+            censusAnalyser.loadCensusData(CensusAnalyser.Country.US, censusFile.toString());
+
+            for (boolean descending : new boolean[]{false, true}) {
+                List<CensusDAO> sorted = censusAnalyser.sorted(DerivedColumn.WATER_SHARE, descending);
+                int numbers = sorted.size() - 2;
+                for (int i = 1; i < numbers; i++) {
+                    double previous = sorted.get(i - 1).waterArea / sorted.get(i - 1).totalArea;
+                    double current = sorted.get(i).waterArea / sorted.get(i).totalArea;
+                    Assert.assertTrue(descending ? previous >= current : previous <= current);
+                }
+                Assert.assertEquals(lines.get(4).split(",")[1], sorted.get(numbers).state);
+                Assert.assertEquals(lines.get(12).split(",")[1], sorted.get(numbers + 1).state);
+            }
+            Assert.assertEquals(new Gson().toJson(censusAnalyser.sorted(DerivedColumn.WATER_SHARE, true).subList(0, 5)),
+                    new Gson().toJson(censusAnalyser.topK(DerivedColumn.WATER_SHARE, 5)));
+        }
+    }
+
+    @Test
+    public void givenQueriedRows_WhenChangedByTheCaller_ShouldNotChangeTheLoadedData() throws CensusAnalyserException {
+        for (boolean columnar : new boolean[]{false, true}) {
+            CensusAnalyser censusAnalyser = new CensusAnalyser(CensusLoader.Mode.SEQUENTIAL, columnar);
+            censusAnalyser.loadCensusData(CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH, INDIA_STATE_CODE_CSV_FILE_PATH);
+            CensusDAO mostPopulous = censusAnalyser.topK(CensusField.POPULATION, 1).get(0);
+            mostPopulous.population = 0;
+            mostPopulous.stateCode = "XX";
+            censusAnalyser.query(CensusQuery.all()).forEach(censusDAO -> censusDAO.state = null);
+            CensusDAO reread = censusAnalyser.topK(CensusField.POPULATION, 1).get(0);
+            Assert.assertEquals("Uttar Pradesh", reread.state);
+            Assert.assertEquals("UP", reread.stateCode);
+            Assert.assertEquals(199812341, reread.population);
+        }
+    }
+
+    @Test
+    public void givenUSCensusWithoutOptionalColumnOrValue_WhenLoadedInEveryMode_ShouldReadThemAsZero() throws Exception {
+        Path censusFile = Files.createTempFile("us-census", ".csv");
+        Files.write(censusFile, ("State Id,State,Population,Housing units,Total area,Water area,Population Density,Housing Density\n"
+                + "AL,Alabama,4779736,2171853,135767.46,,36.45,16.56\n"
+                + "AK,Alaska,710231,306967,1723338.01,245383.68,0.46,0.19\n").getBytes(StandardCharsets.UTF_8));
+        for (CensusLoader.Mode mode : new CensusLoader.Mode[]{CensusLoader.Mode.SEQUENTIAL, CensusLoader.Mode.PARALLEL,
+                CensusLoader.Mode.MAPPED}) {
+            for (boolean columnarStore : new boolean[]{false, true}) {
+                CensusDataset censusDataset = new CensusRegistry(mode, columnarStore)
+                        .load(CensusAnalyser.Country.US, censusFile.toString());
+                Assert.assertEquals(2, censusDataset.size());
+                CensusDAO alabama = censusDataset.lookup(CensusField.STATE, "Alabama").get(0);
+                Assert.assertEquals(4779736, alabama.population);
+                Assert.assertEquals(0, alabama.waterArea, 0);
+                Assert.assertEquals(245383.68, censusDataset.lookup(CensusField.STATE, "Alaska").get(0).waterArea, 0);
+            }
+        }
+
+        Files.write(censusFile, "State Id,Population\nAL,4779736\n".getBytes(StandardCharsets.UTF_8));
+        try {
+            new CensusLoader().loadCensusData(CensusAnalyser.Country.US, censusFile.toString());
+            Assert.fail();
+        } catch (CensusAnalyserException e) {
+            Assert.assertEquals(CensusAnalyserException.ExceptionType.WRONG_DELIMITER_HEADER, e.type);
+        }
+    }
+
     /* USCensus test  cases */
     @Test
     public void givenUSCensusCSVFileReturnsCorrectRecords() {
@@ -227,6 +1098,93 @@ public class CensusAnalyserTest {
         }
     }
 
+    @Test
+    public void givenUSCensusData_WhenLoadedWithoutBeanBinding_ShouldMatchOpenCsvLoad() {
+        try {
+            Map<String, CensusDAO> openCsv = new CensusLoader(CensusLoader.Mode.OPEN_CSV)
+                    .loadCensusData(CensusAnalyser.Country.US, US_CENSUS_DATA_CSV_FILE_PATH);
+            Map<String, CensusDAO> parsed = new CensusLoader()
+                    .loadCensusData(CensusAnalyser.Country.US, US_CENSUS_DATA_CSV_FILE_PATH);
+            Assert.assertEquals(new Gson().toJson(openCsv), new Gson().toJson(parsed));
+        } catch (CensusAnalyserException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    public void givenUSCensusData_WhenLoadedFromMappedFile_ShouldMatchReaderLoad() {
+        try {
+            Map<String, CensusDAO> mapped = new CensusLoader(CensusLoader.Mode.MAPPED)
+                    .loadCensusData(CensusAnalyser.Country.US, US_CENSUS_DATA_CSV_FILE_PATH);
+            Map<String, CensusDAO> parsed = new CensusLoader()
+                    .loadCensusData(CensusAnalyser.Country.US, US_CENSUS_DATA_CSV_FILE_PATH);
+            Assert.assertEquals(new Gson().toJson(parsed), new Gson().toJson(mapped));
+        } catch (CensusAnalyserException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    public void givenUSCensusData_WhenStoredInColumns_ShouldSortLikeObjectLayout() {
+        try {
+            CensusAnalyser objectAnalyser = new CensusAnalyser();
+            objectAnalyser.loadCensusData(CensusAnalyser.Country.US, US_CENSUS_DATA_CSV_FILE_PATH);
+            CensusAnalyser columnarAnalyser = new CensusAnalyser(CensusLoader.Mode.SEQUENTIAL, true);
+            int numOfRecords = columnarAnalyser.loadCensusData(CensusAnalyser.Country.US, US_CENSUS_DATA_CSV_FILE_PATH);
+            Assert.assertEquals(51, numOfRecords);
+            Assert.assertEquals(objectAnalyser.getTotalAreaWiseSortedUSCensusData(), columnarAnalyser.getTotalAreaWiseSortedUSCensusData());
+            Assert.assertEquals(objectAnalyser.getStateWiseSortedCensusData(), columnarAnalyser.getStateWiseSortedCensusData());
+        } catch (CensusAnalyserException | IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    public void givenIndianCensusData_WhenStoredInColumns_ShouldAggregateOverColumns() {
+        try {
+            ColumnarCensusStore censusStore = new CensusLoader()
+                    .loadColumnarCensusData(CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH, INDIA_STATE_CODE_CSV_FILE_PATH);
+            Assert.assertEquals(29, censusStore.size());
+            Assert.assertEquals(1102, censusStore.max(CensusField.DENSITY), 0.0);
+            Assert.assertEquals("UP", censusStore.text(CensusField.STATE_CODE, censusStore.row("Uttar Pradesh")));
+            Assert.assertEquals(1, censusStore.filter(CensusField.POPULATION, 150000000, Double.MAX_VALUE).length);
+        } catch (CensusAnalyserException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    public void givenEveryStoreAndQueryPath_WhenWritten_ShouldMatchQueriedRows() throws Exception {
+        CensusQuery[] queries = {
+                CensusQuery.orderBy(CensusField.STATE_CODE, false).thenBy(CensusField.POPULATION, true),
+                CensusQuery.orderBy(CensusField.DENSITY, true).where(CensusField.POPULATION, value -> value > 1e7)
+                        .offset(2).limit(5),
+                CensusQuery.orderBy(CensusField.POPULATION, false).whereEquals(CensusField.STATE, "Kerala")};
+        for (boolean columnarStore : new boolean[]{false, true}) {
+            CensusAnalyser censusAnalyser = new CensusAnalyser(CensusLoader.Mode.SEQUENTIAL, columnarStore);
+            censusAnalyser.loadCensusData(CensusAnalyser.Country.INDIA, INDIA_CENSUS_CSV_FILE_PATH,
+                    INDIA_STATE_CODE_CSV_FILE_PATH);
+            for (CensusQuery query : queries) {
+                StringWriter writer = new StringWriter();
+                censusAnalyser.writeCensusData(query, writer);
+                Assert.assertEquals(new Gson().toJson(censusAnalyser.query(query)), writer.toString());
+            }
+        }
+    }
+
+    @Test
+    public void givenUSCensusData_WhenStreamedToOutputStream_ShouldMatchSortedJson() {
+        try {
+            CensusAnalyser censusAnalyser = new CensusAnalyser();
+            censusAnalyser.loadCensusData(CensusAnalyser.Country.US, US_CENSUS_DATA_CSV_FILE_PATH);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            censusAnalyser.writeSortedCensusData(CensusField.TOTAL_AREA, true, outputStream);
+            Assert.assertEquals(censusAnalyser.getTotalAreaWiseSortedUSCensusData(), outputStream.toString("UTF-8"));
+        } catch (CensusAnalyserException | IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     @Test
     public void givenUSCensusData_whenSorted_OnPopulation_ShouldReturnMostToLeast() {
         try{
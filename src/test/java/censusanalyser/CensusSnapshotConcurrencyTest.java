@@ -0,0 +1,131 @@
+package censusanalyser;
+
+import censusanalyser.exceptions.CensusAnalyserException;
+import censusanalyser.model.CensusDAO;
+import censusanalyser.model.CensusField;
+import censusanalyser.service.CensusAnalyser;
+import censusanalyser.service.CensusDataset;
+import censusanalyser.service.CensusQuery;
+import censusanalyser.service.CensusRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CensusSnapshotConcurrencyTest {
+    private static final String US_CENSUS_DATA_CSV_FILE_PATH = "./src/test/resources/USCensusData.csv";
+    private static final int READERS = 2;
+    private static final long PHASE_MILLIS = 500;
+
+    @Test
+    public void givenAlternatingReloads_WhenQueried_ShouldAlwaysSeeOneCompleteSnapshot() throws Exception {
+        String[] censusFiles = {US_CENSUS_DATA_CSV_FILE_PATH, this.writeReversedPopulations().toString()};
+        List<List<String>> snapshots = new ArrayList<>();
+        for (String censusFile : censusFiles)
+            snapshots.add(this.render(new CensusRegistry().load(CensusAnalyser.Country.US, censusFile)
+                    .query(CensusQuery.orderBy(CensusField.POPULATION, true))));
+        Assert.assertNotEquals(snapshots.get(0), snapshots.get(1));
+
+        CensusRegistry censusRegistry = new CensusRegistry();
+        CensusAnalyser censusAnalyser = new CensusAnalyser(censusRegistry);
+        censusAnalyser.loadCensusData(CensusAnalyser.Country.US, US_CENSUS_DATA_CSV_FILE_PATH);
+        List<Throwable> failures = new CopyOnWriteArrayList<>();
+
+        this.runReaders(censusAnalyser, censusRegistry, snapshots, failures);
+        long quietQueries = this.runReaders(censusAnalyser, censusRegistry, snapshots, failures);
+
+        AtomicBoolean reloading = new AtomicBoolean(true);
+        AtomicLong reloads = new AtomicLong();
+        Thread reloader = new Thread(() -> {
+            try {
+                while (reloading.get()) {
+                    censusRegistry.load(CensusAnalyser.Country.US, censusFiles[(int) (reloads.get() % 2) ^ 1]);
+                    reloads.incrementAndGet();
+                }
+            } catch (Throwable e) {
+                failures.add(e);
+            }
+        });
+        reloader.start();
+        long reloadingQueries;
+        try {
+            reloadingQueries = this.runReaders(censusAnalyser, censusRegistry, snapshots, failures);
+        } finally {
+            reloading.set(false);
+            reloader.join();
+        }
+
+        Assert.assertEquals(new ArrayList<Throwable>(), failures);
+        Assert.assertTrue(reloads.get() > 1);
+        // readers never wait on a reload, only share the cpu with it; the wide margin keeps slow machines green
+        Assert.assertTrue("queries without reloads " + quietQueries + ", with " + reloadingQueries,
+                reloadingQueries * 10 > quietQueries);
+    }
+
+    // the US census with the population column reversed, so its population order differs from the original
+    private Path writeReversedPopulations() throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(US_CENSUS_DATA_CSV_FILE_PATH), StandardCharsets.UTF_8);
+        List<String> reversed = new ArrayList<>();
+        reversed.add(lines.get(0));
+        for (int line = 1; line < lines.size(); line++) {
+            String[] cells = lines.get(line).split(",", -1);
+            cells[2] = lines.get(lines.size() - line).split(",", -1)[2];
+            reversed.add(String.join(",", cells));
+        }
+        Path censusFile = Files.createTempDirectory("census-reload").resolve("USCensusData.csv");
+        return Files.write(censusFile, reversed, StandardCharsets.UTF_8);
+    }
+
+    private List<String> render(List<CensusDAO> censusList) {
+        List<String> rows = new ArrayList<>();
+        for (CensusDAO censusDAO : censusList)
+            rows.add(censusDAO.state + ":" + censusDAO.population + ":" + censusDAO.totalArea);
+        return rows;
+    }
+
+    private long runReaders(CensusAnalyser censusAnalyser, CensusRegistry censusRegistry, List<List<String>> snapshots,
+                            List<Throwable> failures) throws InterruptedException {
+        AtomicLong queries = new AtomicLong();
+        long deadline = System.nanoTime() + PHASE_MILLIS * 1_000_000;
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            Thread reader = new Thread(() -> {
+                long lastVersion = 0;
+                try {
+                    while (System.nanoTime() < deadline) {
+                        CensusDataset censusDataset = censusRegistry.get(CensusAnalyser.Country.US);
+                        Assert.assertTrue(censusDataset.version() >= lastVersion);
+                        lastVersion = censusDataset.version();
+                        List<CensusDAO> censusList = censusDataset.query(CensusQuery.orderBy(CensusField.POPULATION, true));
+                        List<String> rows = this.render(censusList);
+                        Assert.assertTrue(rows.equals(snapshots.get(0)) ^ rows.equals(snapshots.get(1)));
+                        Assert.assertEquals(rows.get(0),
+                                this.render(censusDataset.topK(CensusField.POPULATION, 1)).get(0));
+                        String top = this.render(censusAnalyser.topK(CensusField.POPULATION, 1)).get(0);
+                        Assert.assertTrue(top.equals(snapshots.get(0).get(0)) || top.equals(snapshots.get(1).get(0)));
+                        // rows handed out are the caller's own, writing them must not reach the published snapshot
+                        censusList.get(0).population = -1;
+                        censusList.get(0).state = null;
+                        queries.incrementAndGet();
+                    }
+                } catch (CensusAnalyserException | RuntimeException | AssertionError e) {
+                    failures.add(e);
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+        for (Thread reader : readers)
+            reader.join();
+        return queries.get();
+    }
+}
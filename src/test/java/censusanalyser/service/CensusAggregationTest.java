@@ -0,0 +1,53 @@
+package censusanalyser.service;
+
+import censusanalyser.exceptions.CensusAnalyserException;
+import censusanalyser.model.CensusDAO;
+import censusanalyser.model.CensusField;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class CensusAggregationTest {
+    private static final String US_CENSUS_DATA_CSV_FILE_PATH = "./src/test/resources/USCensusData.csv";
+
+    @Test
+    public void givenSmallPartitions_WhenAggregated_ShouldMergeToTheSameGroupsAsOnePartition()
+            throws CensusAnalyserException {
+        CensusTable censusTable = new CensusRowTable(new CensusLoader()
+                .loadCensusData(CensusAnalyser.Country.US, US_CENSUS_DATA_CSV_FILE_PATH).values());
+        CensusAggregation aggregation = CensusAggregation.groupByPrefix(CensusField.STATE_CODE, 1)
+                .statistics(CensusField.POPULATION, CensusField.WATER_AREA)
+                .quantiles(CensusField.POPULATION_DENSITY);
+
+        List<CensusGroup> whole = aggregation.execute(censusTable, censusTable.size(), 1);
+        List<CensusGroup> merged = aggregation.execute(censusTable, 8, Integer.MAX_VALUE);
+        Assert.assertEquals(whole.size(), merged.size());
+        for (int i = 0; i < whole.size(); i++) {
+            CensusGroup group = merged.get(i);
+            Assert.assertEquals(whole.get(i).key(), group.key());
+            Assert.assertEquals(whole.get(i).rows(), group.rows());
+            for (CensusField field : new CensusField[]{CensusField.POPULATION, CensusField.WATER_AREA,
+                    CensusField.POPULATION_DENSITY}) {
+                CensusStatistics expected = whole.get(i).statistics(field);
+                CensusStatistics actual = group.statistics(field);
+                Assert.assertEquals(expected.count(), actual.count());
+                Assert.assertEquals(expected.sum(), actual.sum(), Math.abs(expected.sum()) * 1e-12);
+                Assert.assertEquals(expected.min(), actual.min(), 0);
+                Assert.assertEquals(expected.max(), actual.max(), 0);
+            }
+            for (double fraction : new double[]{0, 0.25, 0.5, 0.9, 1})
+                Assert.assertEquals(whole.get(i).statistics(CensusField.POPULATION_DENSITY).quantile(fraction),
+                        group.statistics(CensusField.POPULATION_DENSITY).quantile(fraction), 0);
+        }
+
+        CensusGroup groupM = merged.stream().filter(group -> "M".equals(group.key())).findFirst().get();
+        double minimum = Double.MAX_VALUE;
+        for (int row = 0; row < censusTable.size(); row++) {
+            CensusDAO censusDAO = censusTable.get(row);
+            if (censusDAO.stateCode.startsWith("M"))
+                minimum = Math.min(minimum, censusDAO.population);
+        }
+        Assert.assertEquals(minimum, groupM.statistics(CensusField.POPULATION).min(), 0);
+    }
+}
@@ -0,0 +1,59 @@
+package censusanalyser.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ChunkedCsvReaderTest {
+    private static final int MAX_CHUNK_SIZE = 256;
+    private static final int MAX_CHUNKS_IN_FLIGHT = 2;
+
+    @Test
+    public void givenSmallChunkCap_WhenRead_ShouldParseManyChunksInOrderWithBoundedParallelism() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (int row = 0; row < 2000; row++)
+            lines.add("State " + row + "," + row * 7919L);
+        Path csvFile = Files.createTempFile("census-chunks", ".csv");
+        List<String> file = new ArrayList<>();
+        file.add("State,Population");
+        file.addAll(lines);
+        Files.write(csvFile, file, StandardCharsets.UTF_8);
+
+        AtomicInteger chunks = new AtomicInteger();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger mostRunning = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<String> rows = new ChunkedCsvReader(csvFile, pool, MAX_CHUNK_SIZE, MAX_CHUNKS_IN_FLIGHT)
+                    .read((header, chunk) -> {
+                        mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                        try {
+                            Assert.assertEquals("State,Population", header);
+                            Assert.assertTrue(chunk.length() < MAX_CHUNK_SIZE + 32);
+                            chunks.incrementAndGet();
+                            Thread.sleep(1);
+                            return Arrays.asList(chunk.split("\n"));
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        } finally {
+                            running.decrementAndGet();
+                        }
+                    });
+            Assert.assertEquals(lines, rows);
+        } finally {
+            pool.shutdown();
+            Files.delete(csvFile);
+        }
+        Assert.assertTrue(chunks.get() > 100);
+        Assert.assertTrue(mostRunning.get() <= MAX_CHUNKS_IN_FLIGHT);
+    }
+}
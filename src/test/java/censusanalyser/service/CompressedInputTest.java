@@ -0,0 +1,104 @@
+package censusanalyser.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+public class CompressedInputTest {
+    private static final long SEGMENT_SIZE = 1024;
+    private static final byte[] MEMBER_HEADER = {0x1F, (byte) 0x8B, 8, 0, 0, 0, 0, 0, 0, (byte) 0xFF};
+
+    @Test
+    public void givenConcatenatedGzipMembers_WhenOpenedInSegments_ShouldInflateThemInFileOrder() throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        for (int member = 0; member < 40; member++) {
+            StringBuilder rows = new StringBuilder();
+            for (int row = 0; row < 50; row++)
+                rows.append("State ").append(member).append('-').append(row).append(',').append(member * 7919L * row)
+                        .append(',').append(row * 13).append('\n');
+            byte[] bytes = rows.toString().getBytes(StandardCharsets.UTF_8);
+            content.write(bytes);
+            file.write(gzip(bytes, Deflater.DEFAULT_COMPRESSION));
+        }
+        Path gzipFile = Files.createTempFile("census-members", ".csv.gz");
+        Files.write(gzipFile, file.toByteArray());
+
+        List<Long> segments = CompressedInput.memberSegments(gzipFile, Files.size(gzipFile), SEGMENT_SIZE);
+        Assert.assertTrue(segments.size() > 2);
+        Assert.assertArrayEquals(content.toByteArray(), readAll(CompressedInput.open(gzipFile, SEGMENT_SIZE)));
+    }
+
+    @Test
+    public void givenMembersInflatingToManyBlocks_WhenOpenedInSegments_ShouldStreamThemInFileOrder()
+            throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        for (int member = 0; member < 6; member++) {
+            byte[] bytes = new byte[3 * 1024 * 1024 + member];
+            Arrays.fill(bytes, (byte) ('a' + member));
+            content.write(bytes);
+            file.write(gzip(bytes, Deflater.BEST_COMPRESSION));
+        }
+        Path gzipFile = Files.createTempFile("census-large-members", ".csv.gz");
+        Files.write(gzipFile, file.toByteArray());
+
+        Assert.assertEquals(6, CompressedInput.memberSegments(gzipFile, Files.size(gzipFile), SEGMENT_SIZE).size());
+        Assert.assertArrayEquals(content.toByteArray(), readAll(CompressedInput.open(gzipFile, SEGMENT_SIZE)));
+    }
+
+    @Test
+    public void givenMemberHeaderInsideCompressedData_WhenOpenedInSegments_ShouldFallBackToOneStream()
+            throws IOException {
+        byte[] first = new byte[6000];
+        for (int i = 0; i < first.length; i++)
+            first[i] = (byte) ('a' + i % 26);
+        System.arraycopy(MEMBER_HEADER, 0, first, 3000, MEMBER_HEADER.length);
+        byte[] second = "Goa,1457723,3702,394\n".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        // stored blocks keep the fake header bytes as they are in the compressed data
+        file.write(gzip(first, Deflater.NO_COMPRESSION));
+        file.write(gzip(second, Deflater.DEFAULT_COMPRESSION));
+        Path gzipFile = Files.createTempFile("census-fake-header", ".csv.gz");
+        Files.write(gzipFile, file.toByteArray());
+
+        List<Long> segments = CompressedInput.memberSegments(gzipFile, Files.size(gzipFile), SEGMENT_SIZE);
+        Assert.assertTrue(segments.get(1) > SEGMENT_SIZE && segments.get(1) < first.length);
+        byte[] expected = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, expected, first.length, second.length);
+        Assert.assertArrayEquals(expected, readAll(CompressedInput.open(gzipFile, SEGMENT_SIZE)));
+    }
+
+    private static byte[] gzip(byte[] bytes, int level) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(compressed) {
+            {
+                def.setLevel(level);
+            }
+        }) {
+            out.write(bytes);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        try (InputStream in = inputStream) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int read; (read = in.read(buffer)) > 0; )
+                bytes.write(buffer, 0, read);
+            return bytes.toByteArray();
+        }
+    }
+}